@@ -0,0 +1,169 @@
+package no.rutebanken.extime.benchmark;
+
+import jakarta.xml.bind.JAXBElement;
+import no.avinor.flydata.xjc.model.scheduled.Flights;
+import no.rutebanken.extime.App;
+import no.rutebanken.extime.converter.LineDataToNetexConverter;
+import no.rutebanken.extime.converter.ScheduledFlightConverter;
+import no.rutebanken.extime.model.FlightEvent;
+import no.rutebanken.extime.model.FlightEventMapper;
+import no.rutebanken.extime.model.FlightLeg;
+import no.rutebanken.extime.model.FlightLegMapper;
+import no.rutebanken.extime.model.LineDataSet;
+import no.rutebanken.extime.netex.NetexMarshaller;
+import no.rutebanken.extime.util.AvinorTimetableUtils;
+import org.apache.commons.io.file.PathUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.rutebanken.netex.model.PublicationDeliveryStructure;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Times each stage of the export on the recorded feed, from the unmarshalled Avinor response to the zip
+ * archive, one benchmark per stage. Every stage is fed the output of the previous ones, computed once per
+ * trial, so a benchmark measures its own stage only.
+ *
+ * <p>The converters are taken from the application context, configured as in the tests, so that they are
+ * wired with the same static data as in production. The recording is scaled by {@link RecordedFlights}:
+ * {@code days} is what makes the chaining of multi-leg flights and the day types grow, {@code flights}
+ * the number of lines. {@code compactOutput} switches the marshalled NeTEx between pretty printed and
+ * compact, which shows in the marshalling and in the compression of what it wrote.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(value = 1, jvmArgsAppend = {"-Xms2g", "-Xmx2g"})
+public class ConversionChainBenchmark {
+
+    private static final Path OUTPUT = Path.of("target/jmh");
+    private static final Path GENERATED_OUTPUT = OUTPUT.resolve("netex");
+    private static final Path MARSHALLED_OUTPUT = OUTPUT.resolve("marshalled");
+
+    @Param({"1", "4"})
+    public int days;
+
+    @Param({"1", "4"})
+    public int flights;
+
+    @Param({"false", "true"})
+    public boolean compactOutput;
+
+    private ConfigurableApplicationContext context;
+
+    private FlightEventMapper flightEventMapper;
+    private FlightLegMapper flightLegMapper;
+    private ScheduledFlightConverter scheduledFlightConverter;
+    private LineDataToNetexConverter lineDataToNetexConverter;
+    private NetexMarshaller netexMarshaller;
+    private AvinorTimetableUtils avinorTimetableUtils;
+
+    private List<Flights> flightsPerAirport;
+    private List<FlightEvent> flightEvents;
+    private List<LineDataSet> lineDataSets;
+    private List<JAXBElement<PublicationDeliveryStructure>> publicationDeliveries;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        if (Files.exists(OUTPUT)) {
+            PathUtils.deleteDirectory(OUTPUT);
+        }
+        context = new SpringApplicationBuilder(App.class)
+                .web(WebApplicationType.NONE)
+                .logStartupInfo(false)
+                .properties(
+                        "netex.generated.output.path=" + GENERATED_OUTPUT,
+                        "netex.compressed.output.path=" + OUTPUT.resolve("zip"),
+                        "extime.netex.output.compact=" + compactOutput)
+                .run();
+
+        flightEventMapper = new FlightEventMapper();
+        flightLegMapper = new FlightLegMapper();
+        scheduledFlightConverter = context.getBean(ScheduledFlightConverter.class);
+        lineDataToNetexConverter = context.getBean(LineDataToNetexConverter.class);
+        netexMarshaller = context.getBean(NetexMarshaller.class);
+        avinorTimetableUtils = context.getBean(AvinorTimetableUtils.class);
+
+        flightsPerAirport = RecordedFlights.scale(RecordedFlights.load(), days, flights);
+        flightEvents = flightsPerAirport.stream()
+                .flatMap(airport -> flightEventMapper.mapToFlightEvent(airport).stream())
+                .toList();
+        lineDataSets = scheduledFlightConverter.convertFlightEventsToLineCentricDataSets(flightEvents);
+        lineDataSets.forEach(lineDataSet ->
+                lineDataSet.setAirlineName(scheduledFlightConverter.resolveAirlineName(lineDataSet.getAirlineIata())));
+        publicationDeliveries = lineDataSets.stream().map(lineDataToNetexConverter::convertToNetex).toList();
+
+        Files.createDirectories(GENERATED_OUTPUT);
+        Files.createDirectories(MARSHALLED_OUTPUT);
+        for (JAXBElement<PublicationDeliveryStructure> publicationDelivery : publicationDeliveries) {
+            netexMarshaller.marshalToFile(publicationDelivery,
+                    GENERATED_OUTPUT.resolve(avinorTimetableUtils.generateFilename(publicationDelivery) + ".xml"));
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        context.close();
+    }
+
+    @Benchmark
+    public void mapToFlightEvent(Blackhole blackhole) {
+        for (Flights airport : flightsPerAirport) {
+            blackhole.consume(flightEventMapper.mapToFlightEvent(airport));
+        }
+    }
+
+    @Benchmark
+    public List<FlightLeg> mapToFlightLegs() {
+        return flightLegMapper.map(flightEvents);
+    }
+
+    @Benchmark
+    public List<LineDataSet> convertFlightEventsToLineCentricDataSets() {
+        return scheduledFlightConverter.convertFlightEventsToLineCentricDataSets(flightEvents);
+    }
+
+    @Benchmark
+    public void convertToNetex(Blackhole blackhole) {
+        for (LineDataSet lineDataSet : lineDataSets) {
+            blackhole.consume(lineDataToNetexConverter.convertToNetex(lineDataSet));
+        }
+    }
+
+    /**
+     * Every line to the same file: the cost of creating as many files is not what this is about.
+     */
+    @Benchmark
+    public void marshalToFile() {
+        Path file = MARSHALLED_OUTPUT.resolve("line.xml");
+        for (JAXBElement<PublicationDeliveryStructure> publicationDelivery : publicationDeliveries) {
+            netexMarshaller.marshalToFile(publicationDelivery, file);
+        }
+    }
+
+    @Benchmark
+    public Path compressNetexFiles() {
+        return avinorTimetableUtils.compressNetexFiles("benchmark.zip");
+    }
+}
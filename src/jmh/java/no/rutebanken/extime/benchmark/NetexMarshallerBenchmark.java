@@ -0,0 +1,104 @@
+package no.rutebanken.extime.benchmark;
+
+import jakarta.xml.bind.JAXBContext;
+import jakarta.xml.bind.JAXBElement;
+import jakarta.xml.bind.JAXBException;
+import jakarta.xml.bind.Marshaller;
+import no.rutebanken.extime.App;
+import no.rutebanken.extime.converter.LineDataToNetexConverter;
+import no.rutebanken.extime.converter.ScheduledFlightConverter;
+import no.rutebanken.extime.model.FlightEvent;
+import no.rutebanken.extime.model.FlightEventMapper;
+import no.rutebanken.extime.model.LineDataSet;
+import no.rutebanken.extime.netex.NetexMarshaller;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.rutebanken.netex.model.PublicationDeliveryStructure;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Marshals every line of the recorded feed, on as many threads as the conversion uses, with the pooled
+ * marshallers of {@link NetexMarshaller} against a marshaller created and configured per line, as
+ * {@code NetexMarshaller} did before. Both write to a null stream and share one JAXB context, so the
+ * difference is the marshaller churn alone.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Threads(4)
+@Fork(value = 1, jvmArgsAppend = {"-Xms2g", "-Xmx2g"})
+public class NetexMarshallerBenchmark {
+
+    private ConfigurableApplicationContext context;
+
+    private NetexMarshaller netexMarshaller;
+    private JAXBContext netexContext;
+
+    private List<JAXBElement<PublicationDeliveryStructure>> publicationDeliveries;
+
+    @Setup(Level.Trial)
+    public void setUp() throws JAXBException {
+        context = new SpringApplicationBuilder(App.class)
+                .web(WebApplicationType.NONE)
+                .logStartupInfo(false)
+                .run();
+
+        ScheduledFlightConverter scheduledFlightConverter = context.getBean(ScheduledFlightConverter.class);
+        LineDataToNetexConverter lineDataToNetexConverter = context.getBean(LineDataToNetexConverter.class);
+        netexMarshaller = context.getBean(NetexMarshaller.class);
+        netexContext = JAXBContext.newInstance(PublicationDeliveryStructure.class.getPackage().getName());
+
+        FlightEventMapper flightEventMapper = new FlightEventMapper();
+        List<FlightEvent> flightEvents = RecordedFlights.load().stream()
+                .flatMap(airport -> flightEventMapper.mapToFlightEvent(airport).stream())
+                .toList();
+        List<LineDataSet> lineDataSets = scheduledFlightConverter.convertFlightEventsToLineCentricDataSets(flightEvents);
+        lineDataSets.forEach(lineDataSet ->
+                lineDataSet.setAirlineName(scheduledFlightConverter.resolveAirlineName(lineDataSet.getAirlineIata())));
+        publicationDeliveries = lineDataSets.stream().map(lineDataToNetexConverter::convertToNetex).toList();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        context.close();
+    }
+
+    @Benchmark
+    public void pooledMarshallers() {
+        OutputStream out = OutputStream.nullOutputStream();
+        for (JAXBElement<PublicationDeliveryStructure> publicationDelivery : publicationDeliveries) {
+            netexMarshaller.marshal(publicationDelivery, out);
+        }
+    }
+
+    @Benchmark
+    public void marshallerPerLine() throws JAXBException {
+        OutputStream out = OutputStream.nullOutputStream();
+        for (JAXBElement<PublicationDeliveryStructure> publicationDelivery : publicationDeliveries) {
+            Marshaller marshaller = netexContext.createMarshaller();
+            marshaller.setProperty(Marshaller.JAXB_FORMATTED_OUTPUT, Boolean.TRUE);
+            marshaller.setProperty(Marshaller.JAXB_ENCODING, StandardCharsets.UTF_8.name());
+            marshaller.marshal(publicationDelivery, out);
+        }
+    }
+}
@@ -0,0 +1,101 @@
+package no.rutebanken.extime.benchmark;
+
+import jakarta.xml.bind.JAXBContext;
+import jakarta.xml.bind.JAXBException;
+import jakarta.xml.bind.Unmarshaller;
+import no.avinor.flydata.xjc.model.scheduled.Flight;
+import no.avinor.flydata.xjc.model.scheduled.Flights;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.math.BigInteger;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.ZonedDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
+
+/**
+ * The Avinor feed dumps under {@code src/test/resources/testdata}, optionally scaled up.
+ *
+ * <p>The recording covers a few days of all airports, while production fetches a much longer window. To
+ * measure how each stage grows with it, the recording is repeated: {@code days} copies it back to back in
+ * time, each shifted by the span it covers, and {@code flights} copies it on the same days under other
+ * flight numbers. A copy keeps the routes and times of the original, so it converts to the same lines,
+ * with more journeys and day types for the former and more lines for the latter.
+ */
+final class RecordedFlights {
+
+    static final Path TESTDATA = Path.of("src/test/resources/testdata");
+
+    /** Feed ids have at most 12 digits, so copies above this cannot collide with a recorded flight. */
+    private static final BigInteger ID_STRIDE = BigInteger.TEN.pow(12);
+
+    /** Flight numbers have at most 4 digits, for the same reason. */
+    private static final int FLIGHT_NUMBER_STRIDE = 10_000;
+
+    private RecordedFlights() {
+    }
+
+    static List<Flights> load() {
+        try (Stream<Path> files = Files.list(TESTDATA)) {
+            Unmarshaller unmarshaller = JAXBContext.newInstance(Flights.class).createUnmarshaller();
+            List<Flights> recorded = new ArrayList<>();
+            for (Path file : files.sorted().toList()) {
+                try (InputStream in = Files.newInputStream(file)) {
+                    recorded.add((Flights) unmarshaller.unmarshal(in));
+                }
+            }
+            return recorded;
+        } catch (IOException | JAXBException e) {
+            throw new IllegalStateException("Could not read the recorded flights in " + TESTDATA.toAbsolutePath(), e);
+        }
+    }
+
+    static List<Flights> scale(List<Flights> recorded, int days, int flights) {
+        long span = spanInDays(recorded);
+        List<Flights> scaled = new ArrayList<>(recorded.size());
+        for (Flights airport : recorded) {
+            Flights copy = new Flights();
+            copy.setAirport(airport.getAirport());
+            copy.setTime(airport.getTime());
+            for (int day = 0; day < days; day++) {
+                for (int number = 0; number < flights; number++) {
+                    int copyIndex = day * flights + number;
+                    for (Flight flight : airport.getFlight()) {
+                        copy.getFlight().add(copy(flight, copyIndex, day * span, number));
+                    }
+                }
+            }
+            scaled.add(copy);
+        }
+        return scaled;
+    }
+
+    private static long spanInDays(List<Flights> recorded) {
+        List<ZonedDateTime> dates = recorded.stream()
+                .flatMap(airport -> airport.getFlight().stream())
+                .map(Flight::getDateOfOperation)
+                .sorted()
+                .toList();
+        return dates.isEmpty() ? 1 : ChronoUnit.DAYS.between(dates.getFirst(), dates.getLast()) + 1;
+    }
+
+    private static Flight copy(Flight flight, int copyIndex, long shiftInDays, int flightNumberOffset) {
+        Flight copy = new Flight();
+        copy.setId(flight.getId().add(ID_STRIDE.multiply(BigInteger.valueOf(copyIndex))));
+        copy.setAirlineDesignator(flight.getAirlineDesignator());
+        copy.setFlightNumber(flightNumberOffset == 0
+                ? flight.getFlightNumber()
+                : String.valueOf(Integer.parseInt(flight.getFlightNumber()) + flightNumberOffset * FLIGHT_NUMBER_STRIDE));
+        copy.setDateOfOperation(flight.getDateOfOperation().plusDays(shiftInDays));
+        copy.setDepartureStation(flight.getDepartureStation());
+        copy.setStd(flight.getStd());
+        copy.setArrivalStation(flight.getArrivalStation());
+        copy.setSta(flight.getSta());
+        copy.setServiceType(flight.getServiceType());
+        return copy;
+    }
+}
@@ -0,0 +1,222 @@
+package no.rutebanken.extime.avinor;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.LongSupplier;
+
+/**
+ * A token bucket whose rate follows Avinor's answers.
+ *
+ * <p>Tokens accrue at one per {@code extime.timetable.fetch.min.interval}, up to
+ * {@code extime.timetable.fetch.burst} of them, and each request takes one. With the default burst of one
+ * this is the fixed spacing of Camel's {@code throttle(1).timePeriodMillis(100)} it replaces. A larger
+ * burst lets requests that were held back by slow responses catch up on the time they lost.
+ *
+ * <p>A 429 or 503 halves the rate, down to a sixteenth of the configured one, and a {@code Retry-After}
+ * holds every request until it has passed. Each response Avinor served then gives back a tenth of the
+ * configured rate, so that a short spell of overload costs a few seconds rather than the rest of the
+ * fetch. That is any status below 500 but a 429: a 304 answering the response cache is as much a sign
+ * that Avinor keeps up as a 200, and with the cache on it is the most common answer.
+ *
+ * <p>A request that finds no token reserves the next one and sleeps until it is due, outside the lock,
+ * so that the callers queue in the order they arrived without holding each other up. Its place in the
+ * queue is a ticket rather than a time: on waking it checks that its token has accrued and that no pause
+ * began while it slept, and sleeps again if not. A {@code Retry-After} thus holds the callers already
+ * queued too, and a halved rate spaces them out, without any of them losing its place.
+ */
+@Component
+public class AdaptiveRateLimiter implements RateLimiter {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(AdaptiveRateLimiter.class);
+
+    private static final double BACKOFF_FACTOR = 0.5;
+    private static final double MIN_RATE_FRACTION = 1.0 / 16;
+    private static final double RECOVERY_FRACTION = 0.1;
+
+    /** A longer {@code Retry-After} is more likely a mistake than a plan, and the fetch has a deadline. */
+    private static final Duration MAX_PAUSE = Duration.ofMinutes(5);
+
+    private static final double NANOS_PER_SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    private final double configuredRate;
+    private final int burst;
+    private final LongSupplier nanoTime;
+    private final MeterRegistry meterRegistry;
+    private final ReentrantLock lock = new ReentrantLock();
+
+    /** Requests per second; infinite when the interval is zero. */
+    private double rate;
+    /** Negative when requests have reserved tokens that have not accrued yet. */
+    private double tokens;
+    /** Tokens taken so far, the last ticket handed out; ticket {@code n} is due once {@code issued + tokens >= n}. */
+    private long issued;
+    /** Tokens accrue from this instant on, which is in the future during a pause. */
+    private long refilledAtNanos;
+
+    @Autowired
+    public AdaptiveRateLimiter(
+            MeterRegistry meterRegistry,
+            @Value("${extime.timetable.fetch.min.interval:100ms}") Duration minRequestInterval,
+            @Value("${extime.timetable.fetch.burst:1}") int burst) {
+        this(meterRegistry, minRequestInterval, burst, System::nanoTime);
+    }
+
+    AdaptiveRateLimiter(MeterRegistry meterRegistry, Duration minRequestInterval, int burst, LongSupplier nanoTime) {
+        this.configuredRate = minRequestInterval.isZero()
+                ? Double.POSITIVE_INFINITY
+                : NANOS_PER_SECOND / minRequestInterval.toNanos();
+        this.burst = Math.max(1, burst);
+        this.nanoTime = nanoTime;
+        this.meterRegistry = meterRegistry;
+        this.rate = configuredRate;
+        this.tokens = this.burst;
+        this.refilledAtNanos = nanoTime.getAsLong();
+
+        Gauge.builder("extime.timetable.fetch.rate", this, AdaptiveRateLimiter::currentRate)
+                .description("Requests per second currently allowed against Avinor")
+                .register(meterRegistry);
+        Gauge.builder("extime.timetable.fetch.rate.tokens", this, AdaptiveRateLimiter::availableTokens)
+                .description("Requests that may be sent to Avinor right away, negative when requests are queued")
+                .register(meterRegistry);
+    }
+
+    @Override
+    public Duration acquire() throws InterruptedException {
+        Reservation reservation = reserve();
+        long waitedNanos = 0;
+        for (long waitNanos = reservation.waitNanos(); waitNanos > 0; waitNanos = remainingWait(reservation.ticket())) {
+            TimeUnit.NANOSECONDS.sleep(waitNanos);
+            waitedNanos += waitNanos;
+        }
+        return Duration.ofNanos(waitedNanos);
+    }
+
+    /**
+     * Takes a token, or reserves the next one.
+     */
+    Reservation reserve() {
+        lock.lock();
+        try {
+            long now = nanoTime.getAsLong();
+            refill(now);
+            tokens -= 1;
+            issued++;
+            return new Reservation(issued, waitNanos(issued, now));
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return how much longer the holder of the ticket must wait, zero once it may send.
+     */
+    long remainingWait(long ticket) {
+        lock.lock();
+        try {
+            long now = nanoTime.getAsLong();
+            refill(now);
+            return waitNanos(ticket, now);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private long waitNanos(long ticket, long now) {
+        long pauseNanos = Math.max(0, refilledAtNanos - now);
+        double missing = ticket - (issued + tokens);
+        return pauseNanos + (missing > 0 ? (long) (missing / rate * NANOS_PER_SECOND) : 0);
+    }
+
+    @Override
+    public void onResponse(int statusCode, Optional<Duration> retryAfter) {
+        if (statusCode == 429 || statusCode == 503) {
+            backOff(statusCode, retryAfter);
+        } else if (statusCode < 500) {
+            recover();
+        }
+    }
+
+    private void backOff(int statusCode, Optional<Duration> retryAfter) {
+        meterRegistry.counter("extime.timetable.fetch.rate.backoffs", "status", String.valueOf(statusCode))
+                .increment();
+        lock.lock();
+        try {
+            long now = nanoTime.getAsLong();
+            refill(now);
+            rate = Math.max(configuredRate * MIN_RATE_FRACTION, rate * BACKOFF_FACTOR);
+            retryAfter.map(delay -> delay.compareTo(MAX_PAUSE) > 0 ? MAX_PAUSE : delay)
+                    .filter(delay -> !delay.isNegative())
+                    .ifPresent(delay -> {
+                        // No tokens accrue during the pause, and one is waiting at its end. The tokens
+                        // reserved by queued requests stay owed, so the queue resumes at the new rate.
+                        refilledAtNanos = Math.max(refilledAtNanos, now + delay.toNanos());
+                        tokens = Math.min(tokens, 0) + 1;
+                    });
+            LOGGER.warn("Avinor answered HTTP {}, slowing down to {} requests per second{}", statusCode,
+                    String.format("%.2f", rate), retryAfter.map(delay -> " after a pause of " + delay).orElse(""));
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void recover() {
+        lock.lock();
+        try {
+            if (rate < configuredRate) {
+                refill(nanoTime.getAsLong());
+                rate = Math.min(configuredRate, rate + configuredRate * RECOVERY_FRACTION);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Accrues the tokens due since the last refill at the rate that applied then, so that a rate change
+     * only affects the time after it.
+     */
+    private void refill(long now) {
+        if (now <= refilledAtNanos) {
+            return;
+        }
+        double accrued = Double.isInfinite(rate) ? burst : (now - refilledAtNanos) / NANOS_PER_SECOND * rate;
+        tokens = Math.min(burst, tokens + accrued);
+        refilledAtNanos = now;
+    }
+
+    /**
+     * @param ticket    the place of the request in the queue of all requests.
+     * @param waitNanos how long the request must wait as things stand when it is taken.
+     */
+    record Reservation(long ticket, long waitNanos) {
+    }
+
+    double currentRate() {
+        lock.lock();
+        try {
+            return rate;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private double availableTokens() {
+        lock.lock();
+        try {
+            refill(nanoTime.getAsLong());
+            return tokens;
+        } finally {
+            lock.unlock();
+        }
+    }
+}
@@ -1,11 +1,13 @@
 package no.rutebanken.extime.avinor;
 
-import jakarta.xml.bind.JAXBContext;
-import jakarta.xml.bind.JAXBElement;
-import jakarta.xml.bind.JAXBException;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
 import no.avinor.flydata.xjc.model.scheduled.Flights;
+import no.rutebanken.extime.avinor.FeedResponseCache.CachedResponse;
 import no.rutebanken.extime.model.FlightEvent;
 import no.rutebanken.extime.model.FlightEventMapper;
+import no.rutebanken.extime.model.FlightEventReader;
 import no.rutebanken.extime.model.FlightRequest;
 import no.rutebanken.extime.util.ExtimeException;
 import no.rutebanken.extime.util.Retry;
@@ -15,19 +17,34 @@ import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 
-import javax.xml.transform.stream.StreamSource;
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.net.URI;
 import java.net.http.HttpClient;
 import java.net.http.HttpRequest;
 import java.net.http.HttpResponse;
+import java.net.http.HttpTimeoutException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.StandardCopyOption;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
 import java.time.Duration;
+import java.time.Instant;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.Collection;
 import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * Fetches one airport's timetable from Avinor's XML feed.
@@ -37,147 +54,408 @@ import java.util.concurrent.TimeUnit;
  *
  * <ul>
  *   <li>the {@code throttle(1).timePeriodMillis(100)} rate limit, which bounds the whole service to ten
- *       requests per second against Avinor no matter how many threads are fetching;</li>
+ *       requests per second against Avinor no matter how many threads are fetching. It is now a
+ *       {@link RateLimiter}, which also slows down when Avinor answers 429 or 503;</li>
  *   <li>the route-level {@code errorHandler}, now {@link Retry};</li>
  *   <li>refusing to follow redirects, which is camel-http's default and the JDK client's;</li>
  *   <li>a connect timeout. Note that {@link HttpRequest.Builder#timeout} bounds the connect and the wait
  *       for response headers, and <em>not</em> the body read; camel-http bounded that too, through Apache
- *       HttpClient's three-minute {@code SO_TIMEOUT}. A peer that sends headers and then stalls would
- *       block a fetch thread forever, so the deadline that replaces it lives in
- *       {@link FlightEventFetcher}, where it can bound the whole fan-out at once.</li>
+ *       HttpClient's three-minute {@code SO_TIMEOUT}. The body therefore has a deadline of its own,
+ *       {@code extime.timetable.fetch.body.timeout}, behind which {@link FlightEventFetcher} keeps one
+ *       for the whole fan-out.</li>
  * </ul>
  *
- * <p>The response is parsed straight off the wire, so the encoding comes from the XML declaration
- * (Avinor sends {@code iso-8859-1}). Camel instead decoded using the charset from the HTTP
- * {@code Content-Type} header. The two agree on this feed, and parsing by declaration is what the
- * offline dump path has always done.
+ * <p>The body is read as a stream on the fetch thread, and closed at the body deadline if it has not
+ * arrived by then, which is what releases the connection of a body that stalled. It is parsed as bytes,
+ * so the encoding comes from the XML declaration (Avinor sends {@code iso-8859-1}). Camel instead
+ * decoded using the charset from the HTTP {@code Content-Type} header. The two agree on this feed, and
+ * parsing by declaration is what the offline dump path has always done.
+ *
+ * <p>Each fetch is measured per airport: the wait in the throttle, the time to the response headers, the
+ * time to read and unmarshal the body, the size of the body and the number of retries. Together they
+ * tell whether the fetch phase is bound by the rate limit or by Avinor, which is what
+ * {@code extime.timetable.fetch.threads} should be tuned against.
+ *
+ * <p>With {@code extime.timetable.fetch.cache.enabled}, a response that has not changed since the last
+ * one to the same request is answered from a {@link FeedResponseCache}. Dumping bypasses the cache, as
+ * it needs every body.
+ *
+ * <p>With {@code extime.timetable.fetch.streaming.reader}, the body is read by a {@link FlightEventReader}
+ * rather than unmarshalled into a {@link Flights} tree and mapped, so that the flights the export filters
+ * away are never built. With the cache, the body is then hashed as it is read: an unchanged body is only
+ * recognised once it has been read, too late to spare the reading, but its flights are those already held
+ * rather than a second copy of them.
+ *
+ * <p>Either way the body is parsed as it arrives, and not held whole, but when the cache is on without the
+ * streaming reader: the body is then buffered, so that its hash is known before it is unmarshalled. A dump
+ * is written to disk as it arrives and read back from there.
  */
 @Component
 public class AvinorFeedClient {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(AvinorFeedClient.class);
 
+    private static final int HTTP_NOT_MODIFIED = 304;
+
     private final HttpClient httpClient;
-    private final JAXBContext flightsContext;
+    private final FlightsUnmarshaller flightsUnmarshaller;
     private final FlightEventMapper flightEventMapper = new FlightEventMapper();
+    private final FlightEventReader flightEventReader;
+    private final MeterRegistry meterRegistry;
     private final RetrySettings retrySettings;
     private final Duration requestTimeout;
-    private final long minRequestIntervalNanos;
+    private final Duration bodyTimeout;
     private final boolean dumpOutput;
     private final Path dumpOutputPath;
 
-    private final Object throttleLock = new Object();
-    private long nextRequestAtNanos = System.nanoTime();
+    private final RateLimiter rateLimiter;
+    private final FeedResponseCache responseCache;
 
     public AvinorFeedClient(
+            MeterRegistry meterRegistry,
+            RateLimiter rateLimiter,
+            FlightsUnmarshaller flightsUnmarshaller,
             RetrySettings retrySettings,
             @Value("${extime.timetable.fetch.connect.timeout:10s}") Duration connectTimeout,
             @Value("${extime.timetable.fetch.request.timeout:120s}") Duration requestTimeout,
-            @Value("${extime.timetable.fetch.min.interval:100ms}") Duration minRequestInterval,
+            @Value("${extime.timetable.fetch.body.timeout:180s}") Duration bodyTimeout,
+            @Value("${extime.timetable.fetch.cache.enabled:false}") boolean cacheEnabled,
+            @Value("${extime.timetable.fetch.streaming.reader:false}") boolean streamingReader,
             @Value("${avinor.timetable.dump.output:false}") boolean dumpOutput,
             @Value("${avinor.timetable.dump.output.path:}") String dumpOutputPath) {
+        this.meterRegistry = meterRegistry;
         this.retrySettings = retrySettings;
         this.requestTimeout = requestTimeout;
-        this.minRequestIntervalNanos = minRequestInterval.toNanos();
+        this.bodyTimeout = bodyTimeout;
+        this.rateLimiter = rateLimiter;
+        this.flightsUnmarshaller = flightsUnmarshaller;
+        this.responseCache = cacheEnabled && !dumpOutput ? new FeedResponseCache() : null;
+        this.flightEventReader = streamingReader ? new FlightEventReader() : null;
         this.dumpOutput = dumpOutput;
         this.dumpOutputPath = dumpOutputPath.isBlank() ? null : Path.of(dumpOutputPath);
         this.httpClient = HttpClient.newBuilder()
                 .connectTimeout(connectTimeout)
                 .build();
-        try {
-            this.flightsContext = JAXBContext.newInstance(Flights.class.getPackage().getName());
-        } catch (JAXBException e) {
-            throw new ExtimeException("Could not create the JAXB context for the Avinor feed", e);
-        }
     }
 
     /**
      * Fetch and map one airport's flights, retrying transient failures.
      */
     public List<FlightEvent> fetchFlightEvents(FlightRequest flightRequest) {
+        String airport = flightRequest.airportName();
+        AtomicBoolean firstAttempt = new AtomicBoolean(true);
         return Retry.withRetry(retrySettings,
-                "Fetching flights for " + flightRequest.airportName(),
-                () -> doFetch(flightRequest));
+                "Fetching flights for " + airport,
+                () -> {
+                    if (!firstAttempt.getAndSet(false)) {
+                        meterRegistry.counter("extime.timetable.fetch.retries", "airport", airport).increment();
+                    }
+                    return doFetch(flightRequest);
+                });
     }
 
     private List<FlightEvent> doFetch(FlightRequest flightRequest) throws IOException, InterruptedException {
-        throttle();
+        String airport = flightRequest.airportName();
+        throttle(airport);
         LOGGER.debug("Sending request {}", flightRequest.request());
-        HttpRequest request = HttpRequest.newBuilder(URI.create(flightRequest.request()))
+        Optional<CachedResponse> cached =
+                responseCache != null ? responseCache.get(flightRequest) : Optional.empty();
+        HttpRequest.Builder requestBuilder = HttpRequest.newBuilder(URI.create(flightRequest.request()))
                 .timeout(requestTimeout)
-                .GET()
-                .build();
-        HttpResponse<InputStream> response =
-                httpClient.send(request, HttpResponse.BodyHandlers.ofInputStream());
-        try (InputStream body = response.body()) {
+                .GET();
+        cached.ifPresent(cachedResponse -> cachedResponse.addConditionsTo(requestBuilder));
+        HttpRequest request = requestBuilder.build();
+        Timer.Sample headers = Timer.start(meterRegistry);
+        HttpResponse<InputStream> response = awaitHeaders(
+                httpClient.sendAsync(request, HttpResponse.BodyHandlers.ofInputStream()), flightRequest);
+        headers.stop(timer("extime.timetable.fetch.headers",
+                "Time from sending a request to Avinor to its response headers", airport));
+        rateLimiter.onResponse(response.statusCode(), retryAfter(response));
+        try (ResponseBody body = new ResponseBody(response.body(), flightRequest)) {
+            if (response.statusCode() == HTTP_NOT_MODIFIED && cached.isPresent()) {
+                return fromCache(flightRequest, cached.get(), "not-modified");
+            }
             if (response.statusCode() < 200 || response.statusCode() >= 300) {
                 throw new IOException("Avinor returned HTTP %d for %s"
                         .formatted(response.statusCode(), flightRequest.request()));
             }
-            List<FlightEvent> flightEvents = flightEventMapper.mapToFlightEvent(read(flightRequest, body));
-            LOGGER.debug("Retrieved {} flight events for {}", flightEvents.size(), flightRequest.airportName());
+            Timer.Sample reading = Timer.start(meterRegistry);
+            String contentHash = null;
+            List<FlightEvent> flightEvents;
+            if (dumpOutput) {
+                flightEvents = readDumped(flightRequest, body);
+                recordSize(airport, body.size());
+            } else if (responseCache != null && flightEventReader == null) {
+                // Buffered, so that an unchanged body is recognised by its hash before it is unmarshalled.
+                byte[] bytes = body.readAllBytes();
+                recordSize(airport, bytes.length);
+                contentHash = FeedResponseCache.hash(bytes);
+                if (cached.isPresent() && contentHash.equals(cached.get().contentHash())) {
+                    return fromCache(flightRequest, cached.get(), "unchanged");
+                }
+                flightEvents = toFlightEvents(new ByteArrayInputStream(bytes));
+            } else {
+                MessageDigest digest = responseCache != null ? FeedResponseCache.newDigest() : null;
+                flightEvents = readStreamed(body, digest != null ? new DigestInputStream(body, digest) : body);
+                recordSize(airport, body.size());
+                contentHash = digest != null ? FeedResponseCache.hash(digest) : null;
+                if (cached.isPresent() && contentHash != null && contentHash.equals(cached.get().contentHash())) {
+                    // The flights already held rather than the same ones read again.
+                    return fromCache(flightRequest, cached.get(), "unchanged");
+                }
+            }
+            reading.stop(timer("extime.timetable.fetch.body",
+                    "Time to read a response from Avinor into flight events", airport));
+            LOGGER.debug("Retrieved {} flight events for {}", flightEvents.size(), airport);
+            if (responseCache != null) {
+                responseCache.put(flightRequest, CachedResponse.of(response, contentHash, flightEvents));
+                meterRegistry.counter("extime.timetable.fetch.cache", "airport", airport, "result", "miss").increment();
+            }
             return flightEvents;
         }
     }
 
-    private Flights read(FlightRequest flightRequest, InputStream body) throws IOException {
-        if (!dumpOutput) {
-            return unmarshal(body);
+    /**
+     * The parser only sees a body cut short as a document that ends too early, so the failure of the
+     * transfer, a timeout in particular, is thrown instead when there was one.
+     *
+     * @param in the body, or a stream reading it.
+     */
+    private List<FlightEvent> readStreamed(ResponseBody body, InputStream in) throws IOException {
+        try {
+            List<FlightEvent> flightEvents = toFlightEvents(in);
+            // Whatever follows the document, so that the connection can be reused and the hash is the body's.
+            in.transferTo(OutputStream.nullOutputStream());
+            return flightEvents;
+        } catch (ExtimeException e) {
+            if (body.failure() != null) {
+                throw body.failure();
+            }
+            throw e;
         }
+    }
+
+    private void recordSize(String airport, long size) {
+        DistributionSummary.builder("extime.timetable.fetch.response")
+                .description("Size of a response body from Avinor")
+                .baseUnit("bytes")
+                .tag("airport", airport)
+                .register(meterRegistry)
+                .record(size);
+    }
+
+    private List<FlightEvent> fromCache(FlightRequest flightRequest, CachedResponse cached, String result) {
+        LOGGER.debug("The response for {} has not changed ({}), reusing its {} flight events",
+                flightRequest.request(), result, cached.flightEvents().size());
+        meterRegistry.counter("extime.timetable.fetch.cache", "airport", flightRequest.airportName(), "result", result)
+                .increment();
+        return cached.flightEvents();
+    }
+
+    /**
+     * Waits for the headers, which the request timeout bounds. The body is bounded by {@link ResponseBody}.
+     */
+    private static HttpResponse<InputStream> awaitHeaders(CompletableFuture<HttpResponse<InputStream>> exchange,
+                                                          FlightRequest flightRequest)
+            throws IOException, InterruptedException {
+        try {
+            return exchange.get();
+        } catch (InterruptedException e) {
+            exchange.cancel(true);
+            throw e;
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException cause) {
+                throw cause;
+            }
+            throw new IOException("Could not fetch " + flightRequest.request(), e.getCause());
+        }
+    }
+
+    private Timer timer(String name, String description, String airport) {
+        return Timer.builder(name)
+                .description(description)
+                .tag("airport", airport)
+                .register(meterRegistry);
+    }
+
+    /**
+     * Forgets the responses to any request but these, which are the requests of an export.
+     */
+    public void retainCachedResponses(Collection<FlightRequest> flightRequests) {
+        if (responseCache != null) {
+            responseCache.retainOnly(flightRequests);
+        }
+    }
+
+    /**
+     * Reads a response written by {@code avinor.timetable.dump.output} the way a response from the feed is
+     * read, so that replaying a dump exercises the same parsing as a fetch.
+     */
+    public List<FlightEvent> readDump(Path dumpFile) {
+        try (InputStream dumped = new BufferedInputStream(Files.newInputStream(dumpFile))) {
+            return toFlightEvents(dumped);
+        } catch (IOException e) {
+            throw new ExtimeException("Error while reading the Avinor feed dump " + dumpFile, e);
+        }
+    }
+
+    private List<FlightEvent> readDumped(FlightRequest flightRequest, ResponseBody body) throws IOException {
         // Camel wrote the raw response to disk with the file component before unmarshalling it. Read it
         // back rather than buffering, so that a large response is not held in memory twice.
-        Path target = dumpFile(flightRequest.airportName());
+        Path target = dumpFile(flightRequest);
         Files.createDirectories(target.getParent());
         Files.copy(body, target, StandardCopyOption.REPLACE_EXISTING);
         LOGGER.info("Dumped the Avinor response for {} to {}", flightRequest.airportName(), target);
-        try (InputStream dumped = Files.newInputStream(target)) {
-            return unmarshal(dumped);
+        return readDump(target);
+    }
+
+    /**
+     * Reads a response, which is left open.
+     */
+    private List<FlightEvent> toFlightEvents(InputStream body) {
+        if (flightEventReader != null) {
+            return flightEventReader.read(body);
         }
+        return flightEventMapper.mapToFlightEvent(flightsUnmarshaller.unmarshal(body));
     }
 
-    private Path dumpFile(String airportName) {
+    /**
+     * One file per request, named after its airport and date range: an airport fetched in windows has a
+     * response per window, which would otherwise overwrite each other.
+     */
+    private Path dumpFile(FlightRequest flightRequest) {
         if (dumpOutputPath == null) {
             throw new ExtimeException(
                     "avinor.timetable.dump.output is enabled but avinor.timetable.dump.output.path is not set");
         }
-        return dumpOutputPath.resolve(airportName + ".xml");
+        return dumpOutputPath.resolve(dumpFileName(flightRequest));
+    }
+
+    static String dumpFileName(FlightRequest flightRequest) {
+        return "%s_%s_%s.xml".formatted(flightRequest.airportName(), flightRequest.fromDate(), flightRequest.toDate());
+    }
+
+    /**
+     * Waits for the rate limiter, which is shared by all fetch threads. This is the replacement for
+     * Camel's throttle EIP, which was equally global: the throttle sat on a shared route, not on the
+     * parallel split.
+     *
+     * <p>The wait is recorded as a histogram, zero included, so that how often the throttle holds a
+     * request back shows next to how long.
+     */
+    private void throttle(String airport) throws InterruptedException {
+        Duration waited = rateLimiter.acquire();
+        Timer.builder("extime.timetable.fetch.throttle.wait")
+                .description("Time a request to Avinor waited for the rate limit")
+                .tag("airport", airport)
+                .publishPercentileHistogram()
+                .register(meterRegistry)
+                .record(waited);
     }
 
     /**
-     * Unmarshals by root element rather than by declared type, so anything that is not the feed is an
-     * error. The declared-type overload binds whatever root it finds onto {@link Flights} and returns
-     * zero flights, which the export cannot tell apart from an airport with no departures. Camel's
-     * {@code JaxbDataFormat} was root-element driven for the same reason.
+     * @return the delay in a {@code Retry-After} header, given either in seconds or as an HTTP date.
+     * Anything else is ignored, as is the header on a response that is not asking to back off.
      */
-    private Flights unmarshal(InputStream in) {
+    private static Optional<Duration> retryAfter(HttpResponse<?> response) {
+        return response.headers().firstValue("Retry-After")
+                .map(String::trim)
+                .flatMap(AvinorFeedClient::parseRetryAfter);
+    }
+
+    private static Optional<Duration> parseRetryAfter(String value) {
         try {
-            Object root = flightsContext.createUnmarshaller().unmarshal(new StreamSource(in));
-            if (root instanceof JAXBElement<?> element) {
-                root = element.getValue();
-            }
-            if (root instanceof Flights flights) {
-                return flights;
-            }
-            throw new ExtimeException("The Avinor feed returned a " + root.getClass().getName() + ", not flights");
-        } catch (JAXBException e) {
-            throw new ExtimeException("Error while unmarshalling the Avinor feed", e);
+            return Optional.of(Duration.ofSeconds(Long.parseLong(value)));
+        } catch (NumberFormatException e) {
+            // Not seconds, so a date.
+        }
+        try {
+            ZonedDateTime retryAt = ZonedDateTime.parse(value, DateTimeFormatter.RFC_1123_DATE_TIME);
+            return Optional.of(Duration.between(Instant.now(), retryAt.toInstant()));
+        } catch (DateTimeParseException e) {
+            LOGGER.warn("Ignoring the malformed Retry-After header from Avinor: {}", value);
+            return Optional.empty();
         }
     }
 
     /**
-     * Keeps at least {@code extime.timetable.fetch.min.interval} between the start of any two requests,
-     * across all fetch threads. This is the replacement for Camel's throttle EIP, which was equally
-     * global: the throttle sat on a shared route, not on the parallel split.
+     * A response body as it arrives, closed at {@code extime.timetable.fetch.body.timeout} unless it is
+     * closed before. Closing is what releases a read blocked on a body that stalled, which then fails
+     * with an {@link HttpTimeoutException}, an {@link IOException} as a stalled read would have been, so
+     * that it is retried like one.
      */
-    private void throttle() throws InterruptedException {
-        long waitNanos;
-        synchronized (throttleLock) {
-            long now = System.nanoTime();
-            waitNanos = Math.max(0, nextRequestAtNanos - now);
-            nextRequestAtNanos = Math.max(now, nextRequestAtNanos) + minRequestIntervalNanos;
-        }
-        if (waitNanos > 0) {
-            TimeUnit.NANOSECONDS.sleep(waitNanos);
+    private final class ResponseBody extends FilterInputStream {
+
+        private final FlightRequest flightRequest;
+        private final CompletableFuture<Void> deadline;
+        private final AtomicBoolean expired = new AtomicBoolean();
+        private long size;
+        private IOException failure;
+
+        ResponseBody(InputStream in, FlightRequest flightRequest) {
+            super(in);
+            this.flightRequest = flightRequest;
+            this.deadline = CompletableFuture.runAsync(this::expire,
+                    CompletableFuture.delayedExecutor(bodyTimeout.toMillis(), TimeUnit.MILLISECONDS));
+        }
+
+        private final byte[] single = new byte[1];
+
+        @Override
+        public int read() throws IOException {
+            return read(single, 0, 1) < 0 ? -1 : single[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            int read;
+            try {
+                read = super.read(buffer, offset, length);
+            } catch (IOException e) {
+                throw failed(expired.get() ? timeout() : e);
+            }
+            if (read < 0 && expired.get()) {
+                // The end of a body closed at the deadline, not the end of the response.
+                throw failed(timeout());
+            }
+            size += Math.max(read, 0);
+            return read;
+        }
+
+        long size() {
+            return size;
+        }
+
+        /**
+         * @return what cut the transfer short, null if nothing did.
+         */
+        IOException failure() {
+            return failure;
+        }
+
+        @Override
+        public void close() throws IOException {
+            deadline.cancel(false);
+            super.close();
+        }
+
+        private void expire() {
+            expired.set(true);
+            try {
+                in.close();
+            } catch (IOException e) {
+                LOGGER.debug("Could not close the response to {} at its deadline", flightRequest.request(), e);
+            }
+        }
+
+        private HttpTimeoutException timeout() {
+            return new HttpTimeoutException("Avinor did not send the whole response to %s within %s"
+                    .formatted(flightRequest.request(), bodyTimeout));
+        }
+
+        private IOException failed(IOException e) {
+            failure = e;
+            return e;
         }
     }
 }
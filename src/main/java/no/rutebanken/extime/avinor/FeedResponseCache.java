@@ -0,0 +1,109 @@
+package no.rutebanken.extime.avinor;
+
+import no.rutebanken.extime.model.FlightEvent;
+import no.rutebanken.extime.model.FlightRequest;
+
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * The flights of the last response to each request, so that a request whose answer has not changed
+ * costs neither the download nor the unmarshal.
+ *
+ * <p>The entries are keyed by request, that is airport and date window. An airport split into windows
+ * by {@link no.rutebanken.extime.model.FlightRequestBuilder} asks for the same calendar windows from one
+ * day to the next, all but the first and the last, so those are answered from the cache by the next
+ * day's export, and a day that changed costs the one window holding it. An airport fetched whole asks for
+ * a period that moves with the date, and is only answered from the cache on the same day.
+ *
+ * <p>Two checks tell that a response has not changed: the conditional headers, {@code If-None-Match} and
+ * {@code If-Modified-Since}, which spare the download when the feed answers 304, and otherwise the hash
+ * of the body, which spares the unmarshal, or with the streaming reader the holding of a second copy of
+ * the flights.
+ *
+ * <p>Held in memory only. Each export keeps only the entries of the requests it makes, through
+ * {@link #retainOnly}, so that the requests of earlier days, which will not be made again, are not held
+ * until they are the least recently used. {@link #MAX_ENTRIES} only bounds what a misconfigured export
+ * could hold.
+ */
+final class FeedResponseCache {
+
+    private static final int MAX_ENTRIES = 1024;
+
+    private final Map<FlightRequest, CachedResponse> responses = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<FlightRequest, CachedResponse> eldest) {
+            return size() > MAX_ENTRIES;
+        }
+    };
+
+    synchronized Optional<CachedResponse> get(FlightRequest flightRequest) {
+        return Optional.ofNullable(responses.get(flightRequest));
+    }
+
+    synchronized void put(FlightRequest flightRequest, CachedResponse cachedResponse) {
+        responses.put(flightRequest, cachedResponse);
+    }
+
+    /**
+     * Drops the entries of every request but these.
+     */
+    synchronized void retainOnly(Collection<FlightRequest> flightRequests) {
+        responses.keySet().retainAll(new HashSet<>(flightRequests));
+    }
+
+    static String hash(byte[] body) {
+        MessageDigest digest = newDigest();
+        digest.update(body);
+        return hash(digest);
+    }
+
+    /**
+     * @return a digest to hash a body with as it is read, for {@link #hash(MessageDigest)}.
+     */
+    static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is a required algorithm of every JVM", e);
+        }
+    }
+
+    static String hash(MessageDigest digest) {
+        return HexFormat.of().formatHex(digest.digest());
+    }
+
+    /**
+     * @param etag         the {@code ETag} of the response, or null if it had none.
+     * @param lastModified the {@code Last-Modified} of the response, or null if it had none.
+     * @param contentHash  the hash of the body.
+     */
+    record CachedResponse(String etag, String lastModified, String contentHash, List<FlightEvent> flightEvents) {
+
+        static CachedResponse of(HttpResponse<?> response, String contentHash, List<FlightEvent> flightEvents) {
+            return new CachedResponse(
+                    response.headers().firstValue("ETag").orElse(null),
+                    response.headers().firstValue("Last-Modified").orElse(null),
+                    contentHash,
+                    List.copyOf(flightEvents));
+        }
+
+        void addConditionsTo(HttpRequest.Builder request) {
+            if (etag != null) {
+                request.header("If-None-Match", etag);
+            }
+            if (lastModified != null) {
+                request.header("If-Modified-Since", lastModified);
+            }
+        }
+    }
+}
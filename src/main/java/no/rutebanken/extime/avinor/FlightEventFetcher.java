@@ -3,7 +3,6 @@ package no.rutebanken.extime.avinor;
 import no.rutebanken.extime.model.FlightEvent;
 import no.rutebanken.extime.model.FlightRequest;
 import no.rutebanken.extime.model.FlightRequestBuilder;
-import no.rutebanken.extime.util.AvinorTimetableUtils;
 import no.rutebanken.extime.util.ExtimeException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -11,18 +10,26 @@ import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 
 import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.time.Duration;
 import java.time.Instant;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
+import java.util.function.Function;
+import java.util.stream.Stream;
 
 /**
  * Fetches every whitelisted airport's timetable and returns the flight events as one list.
@@ -32,6 +39,11 @@ import java.util.concurrent.TimeoutException;
  * {@code camel.threadpool.pool-size=4} in the deployed ConfigMap; that is now
  * {@code extime.timetable.fetch.threads}, with the same default.
  *
+ * <p>Those threads spend nearly all their time waiting, on Avinor or on the throttle in
+ * {@link AvinorFeedClient}, which is global and what actually bounds the load put on Avinor. With
+ * {@code extime.timetable.fetch.virtual.threads} each airport gets a virtual thread of its own instead,
+ * so that the throttle is the only limit and there is no pool to size.
+ *
  * <p><strong>Failure handling differs deliberately.</strong> Camel's splitter aggregated with a strategy
  * that always returned the accumulator, so an exception on a sub-exchange was discarded unless it
  * happened to be the first one to complete: a failing airport usually produced a NeTEx dataset silently
@@ -39,6 +51,10 @@ import java.util.concurrent.TimeoutException;
  * Since marduk replaces the previous dataset with whatever arrives, a partial export silently removes
  * real flights from the journey planner, whereas a failed run leaves the previous export in place. So
  * any airport that still fails after its retries fails the export.
+ *
+ * <p>A dump written by {@code avinor.timetable.dump.output} is replayed the same way, one file per task
+ * on the fetch threads, under the same deadline and failure handling, so that a replay of a production
+ * dump measures the throughput of everything but Avinor.
  */
 @Component
 public class FlightEventFetcher {
@@ -53,22 +69,22 @@ public class FlightEventFetcher {
 
     private final FlightRequestBuilder flightRequestBuilder;
     private final AvinorFeedClient avinorFeedClient;
-    private final AvinorTimetableUtils avinorTimetableUtils;
     private final int threads;
+    private final boolean virtualThreads;
     private final boolean dumpInput;
     private final String dumpInputPath;
 
     public FlightEventFetcher(
             FlightRequestBuilder flightRequestBuilder,
             AvinorFeedClient avinorFeedClient,
-            AvinorTimetableUtils avinorTimetableUtils,
             @Value("${extime.timetable.fetch.threads:4}") int threads,
+            @Value("${extime.timetable.fetch.virtual.threads:false}") boolean virtualThreads,
             @Value("${avinor.timetable.dump.input:false}") boolean dumpInput,
             @Value("${avinor.timetable.dump.input.path:}") String dumpInputPath) {
         this.flightRequestBuilder = flightRequestBuilder;
         this.avinorFeedClient = avinorFeedClient;
-        this.avinorTimetableUtils = avinorTimetableUtils;
         this.threads = threads;
+        this.virtualThreads = virtualThreads;
         this.dumpInput = dumpInput;
         this.dumpInputPath = dumpInputPath;
     }
@@ -78,20 +94,51 @@ public class FlightEventFetcher {
     }
 
     private List<FlightEvent> fetchFromDump() {
-        LOGGER.info("Fetching data from dump");
-        try {
-            return avinorTimetableUtils.generateFlightEventsFromFeedDump(dumpInputPath);
+        LOGGER.info("Fetching data from dump {}", dumpInputPath);
+        Map<Path, Future<List<FlightEvent>>> pending = new LinkedHashMap<>();
+        try (ExecutorService executor = newFetchExecutor()) {
+            for (Path dumpFile : listDumpFiles()) {
+                pending.put(dumpFile, executor.submit(() -> {
+                    LOGGER.debug("Reading flights from {}", dumpFile);
+                    return avinorFeedClient.readDump(dumpFile);
+                }));
+            }
+            return collect(pending, Instant.now().plus(FETCH_DEADLINE),
+                    FlightEventFetcher::dumpedAirport, Path::toString);
+        }
+    }
+
+    /**
+     * In the order of their names, which for a dump of windowed requests is that of the requests.
+     */
+    private List<Path> listDumpFiles() {
+        try (Stream<Path> files = Files.list(Path.of(dumpInputPath))) {
+            return files
+                    .filter(file -> file.getFileName().toString().endsWith(".xml"))
+                    .sorted()
+                    .toList();
         } catch (IOException e) {
             throw new ExtimeException("Error while reading the Avinor feed dump from " + dumpInputPath, e);
         }
     }
 
+    /**
+     * The airport is the start of the file name, up to the date range {@link AvinorFeedClient} appends to
+     * it, if any: older dumps were named after the airport alone.
+     */
+    private static String dumpedAirport(Path dumpFile) {
+        String fileName = dumpFile.getFileName().toString();
+        int end = fileName.indexOf('_');
+        return fileName.substring(0, end >= 0 ? end : fileName.length() - ".xml".length());
+    }
+
     private List<FlightEvent> fetchFromFeed() {
         LOGGER.info("Fetching data from feed");
         List<FlightRequest> flightRequests = flightRequestBuilder.generateFlightRequests();
+        avinorFeedClient.retainCachedResponses(flightRequests);
 
         Map<FlightRequest, Future<List<FlightEvent>>> pending = new LinkedHashMap<>();
-        try (ExecutorService executor = Executors.newFixedThreadPool(threads)) {
+        try (ExecutorService executor = newFetchExecutor()) {
             for (FlightRequest flightRequest : flightRequests) {
                 pending.put(flightRequest, executor.submit(() -> {
                     LOGGER.info("Fetching flights for {} and date range : [{} , {}]",
@@ -103,6 +150,13 @@ public class FlightEventFetcher {
         }
     }
 
+    private ExecutorService newFetchExecutor() {
+        if (virtualThreads) {
+            return Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("avinor-fetch-", 0).factory());
+        }
+        return Executors.newFixedThreadPool(threads);
+    }
+
     /**
      * Waits for every request before failing, so that one broken airport does not leave the others
      * running against Avinor after the export has already given up, and so that the log names all of
@@ -113,27 +167,52 @@ public class FlightEventFetcher {
      * headers and then goes quiet blocks its fetch thread forever, and with it this loop, the
      * {@code ExecutorService.close()} above, and every export after it. Camel had the same exposure
      * covered by Apache HttpClient's three-minute socket timeout.
+     *
+     * <p>An airport split into windows by {@link FlightRequestBuilder} returns the flights of each boundary
+     * day twice, so an airport's flights are kept once per id, in the order of the requests. Only within
+     * an airport: a flight is also listed by the airport at its other end, under the same id, and both
+     * events reach the converter as they always did.
      */
     // Package-private so that the deadline can be tested without making it a production knob.
     List<FlightEvent> collect(Map<FlightRequest, Future<List<FlightEvent>>> pending, Instant deadline) {
+        return collect(pending, deadline, FlightRequest::airportName, flightRequest ->
+                "%s and date range : [%s , %s]".formatted(
+                        flightRequest.airportName(), flightRequest.fromDate(), flightRequest.toDate()));
+    }
+
+    /**
+     * @param airport     the airport a task fetched flights for, to name in the failure.
+     * @param description the task, to name in the log.
+     */
+    private static <T> List<FlightEvent> collect(Map<T, Future<List<FlightEvent>>> pending,
+                                                 Instant deadline,
+                                                 Function<T, String> airport,
+                                                 Function<T, String> description) {
         List<FlightEvent> flightEvents = new ArrayList<>();
-        List<String> failedAirports = new ArrayList<>();
+        Map<String, Set<Long>> flightIdsByAirport = new HashMap<>();
+        Set<String> failedAirports = new LinkedHashSet<>();
 
-        for (Map.Entry<FlightRequest, Future<List<FlightEvent>>> entry : pending.entrySet()) {
-            String airportName = entry.getKey().airportName();
+        for (Map.Entry<T, Future<List<FlightEvent>>> entry : pending.entrySet()) {
+            String airportName = airport.apply(entry.getKey());
             Future<List<FlightEvent>> pendingFlightEvents = entry.getValue();
             try {
-                flightEvents.addAll(pendingFlightEvents.get(millisUntil(deadline), TimeUnit.MILLISECONDS));
+                Set<Long> flightIds = flightIdsByAirport.computeIfAbsent(airportName, name -> new HashSet<>());
+                for (FlightEvent flightEvent : pendingFlightEvents.get(millisUntil(deadline), TimeUnit.MILLISECONDS)) {
+                    if (flightIds.add(flightEvent.flightId())) {
+                        flightEvents.add(flightEvent);
+                    }
+                }
             } catch (InterruptedException e) {
                 Thread.currentThread().interrupt();
                 throw new ExtimeException("Interrupted while fetching flights for " + airportName, e);
             } catch (ExecutionException e) {
-                LOGGER.error("Could not fetch flights for {}", airportName, e.getCause());
+                LOGGER.error("Could not fetch flights for {}", description.apply(entry.getKey()), e.getCause());
                 failedAirports.add(airportName);
             } catch (TimeoutException e) {
                 // Interrupting releases a thread blocked reading a stalled response body.
                 pendingFlightEvents.cancel(true);
-                LOGGER.error("Gave up fetching flights for {} after {}", airportName, FETCH_DEADLINE);
+                LOGGER.error("Gave up fetching flights for {} after {}",
+                        description.apply(entry.getKey()), FETCH_DEADLINE);
                 failedAirports.add(airportName);
             }
         }
@@ -142,7 +221,7 @@ public class FlightEventFetcher {
             throw new ExtimeException("Aborting the export, could not fetch flights for " + failedAirports);
         }
 
-        LOGGER.info("Retrieved {} flight events from {} airports", flightEvents.size(), pending.size());
+        LOGGER.info("Retrieved {} flight events from {} requests", flightEvents.size(), pending.size());
         return flightEvents;
     }
 
@@ -0,0 +1,70 @@
+package no.rutebanken.extime.avinor;
+
+import jakarta.xml.bind.JAXBContext;
+import jakarta.xml.bind.JAXBElement;
+import jakarta.xml.bind.JAXBException;
+import jakarta.xml.bind.Unmarshaller;
+import no.avinor.flydata.xjc.model.scheduled.Flights;
+import no.rutebanken.extime.util.ExtimeException;
+import org.springframework.stereotype.Component;
+
+import javax.xml.transform.stream.StreamSource;
+import java.io.InputStream;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Unmarshals Avinor responses, from the feed or from a dump, with one JAXB context for the whole
+ * service.
+ *
+ * <p>Creating the context is by far the most expensive step of unmarshalling, and the dump path used to
+ * create one per file. The context is thread-safe, unmarshallers are not, so they are pooled: a thread
+ * takes an idle one or creates one, and puts it back when done. The pool holds at most as many
+ * unmarshallers as threads ever unmarshalled at once, a handful. An unmarshaller that failed midway is
+ * dropped rather than put back, as {@code NetexMarshaller} does with its marshallers, since nothing says
+ * what state a failed parse left it in.
+ */
+@Component
+public class FlightsUnmarshaller {
+
+    private final JAXBContext flightsContext;
+    private final Queue<Unmarshaller> idleUnmarshallers = new ConcurrentLinkedQueue<>();
+
+    public FlightsUnmarshaller() {
+        try {
+            this.flightsContext = JAXBContext.newInstance(Flights.class.getPackage().getName());
+        } catch (JAXBException e) {
+            throw new ExtimeException("Could not create the JAXB context for the Avinor feed", e);
+        }
+    }
+
+    /**
+     * Unmarshals by root element rather than by declared type, so anything that is not the feed is an
+     * error. The declared-type overload binds whatever root it finds onto {@link Flights} and returns
+     * zero flights, which the export cannot tell apart from an airport with no departures. Camel's
+     * {@code JaxbDataFormat} was root-element driven for the same reason.
+     *
+     * <p>The encoding comes from the XML declaration. The stream is left open.
+     */
+    public Flights unmarshal(InputStream response) {
+        Unmarshaller unmarshaller = idleUnmarshallers.poll();
+        Object root;
+        try {
+            if (unmarshaller == null) {
+                unmarshaller = flightsContext.createUnmarshaller();
+            }
+            root = unmarshaller.unmarshal(new StreamSource(response));
+        } catch (JAXBException e) {
+            throw new ExtimeException("Error while unmarshalling the Avinor feed", e);
+        }
+        idleUnmarshallers.offer(unmarshaller);
+
+        if (root instanceof JAXBElement<?> element) {
+            root = element.getValue();
+        }
+        if (root instanceof Flights flights) {
+            return flights;
+        }
+        throw new ExtimeException("The Avinor feed returned a " + root.getClass().getName() + ", not flights");
+    }
+}
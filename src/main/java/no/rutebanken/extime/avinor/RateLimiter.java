@@ -0,0 +1,25 @@
+package no.rutebanken.extime.avinor;
+
+import java.time.Duration;
+import java.util.Optional;
+
+/**
+ * Paces the requests sent to Avinor, across all fetch threads.
+ *
+ * <p>The limiter is told how each request went, so that it can slow down when Avinor says it is
+ * overloaded and speed up again when it no longer does.
+ */
+public interface RateLimiter {
+
+    /**
+     * Blocks until the next request may be sent.
+     *
+     * @return how long the caller waited.
+     */
+    Duration acquire() throws InterruptedException;
+
+    /**
+     * @param retryAfter the delay Avinor asked for in a {@code Retry-After} header, if any.
+     */
+    void onResponse(int statusCode, Optional<Duration> retryAfter);
+}
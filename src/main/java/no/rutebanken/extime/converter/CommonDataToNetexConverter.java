@@ -4,6 +4,7 @@ import com.google.common.collect.Lists;
 import no.rutebanken.extime.model.AirlineIATA;
 import no.rutebanken.extime.model.AirportIATA;
 import no.rutebanken.extime.util.DateUtils;
+import no.rutebanken.extime.util.DeterministicConversion;
 import no.rutebanken.extime.util.NetexObjectFactory;
 import org.rutebanken.netex.model.*;
 import org.slf4j.Logger;
@@ -42,7 +43,7 @@ public class CommonDataToNetexConverter {
     public JAXBElement<PublicationDeliveryStructure> convertToNetex(Map<String, Quay> nsrQuayMap) {
 
         logger.info("Converting common data to NeTEx");
-        Instant publicationTimestamp = Instant.now();
+        Instant publicationTimestamp = DeterministicConversion.publicationTimestamp();
 
         Codespace avinorCodespace = netexObjectFactory.createCodespace(AVINOR_XMLNS, AVINOR_XMLNSURL);
         Codespace nsrCodespace = netexObjectFactory.createCodespace(NSR_XMLNS, NSR_XMLNSURL);
@@ -68,7 +69,8 @@ public class CommonDataToNetexConverter {
         List<ScheduledStopPoint> stopPoints = Lists.newArrayList();
         List<RoutePoint> routePoints = Lists.newArrayList();
         List<JAXBElement<PassengerStopAssignment>> stopAssignmentElements = Lists.newArrayList();
-        Set<Network> networks = new HashSet<>();
+        // In the order of the airlines, as the operators are: Network has no value equality to hash by.
+        List<Network> networks = new ArrayList<>(AirlineIATA.values().length);
 
         for (AirportIATA airportIATA : airportIATAS) {
             String airportIATAName = airportIATA.name();
@@ -0,0 +1,89 @@
+package no.rutebanken.extime.converter;
+
+import no.rutebanken.extime.model.FlightLeg;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * Finds the next leg of a multi-leg flight without scanning every departure from the airport it lands at.
+ *
+ * <p>Legs are grouped by flight number and departure airport, and each group is sorted by STD. The only
+ * candidate for the next leg of a given one is then the first leg of the group for its flight number and
+ * arrival airport that departs after it lands, which a binary search finds. Any later leg of the group has
+ * a longer layover, so if the first one is too late, all of them are.
+ *
+ * <p>Scanning instead made the chaining pass quadratic in the departures per airport: OSL and BGO have
+ * thousands over a 14-day window, and the deployed window is much longer.
+ *
+ * <p>The groups are laid out one after the other in columns: the legs, their group keys, packed from the
+ * flight number and airport ids, and their STDs in epoch seconds. Both searches, for the group and within
+ * it, then run over arrays of longs, with neither a map lookup nor a key object per leg.
+ */
+class FlightLegIndex {
+
+    private static final Comparator<FlightLeg> BY_KEY_AND_STD = Comparator
+            .<FlightLeg>comparingLong(FlightLegIndex::keyOf)
+            .thenComparingLong(FlightLeg::getStdEpochSecond);
+
+    private final FlightLeg[] legs;
+    private final long[] keys;
+    private final long[] stds;
+
+    FlightLegIndex(List<FlightLeg> flightLegs) {
+        List<FlightLeg> sorted = new ArrayList<>(flightLegs);
+        // A stable sort, so that legs departing at the same time keep their input order and the first of
+        // them wins, as it did when the departures were scanned in order.
+        sorted.sort(BY_KEY_AND_STD);
+        legs = sorted.toArray(FlightLeg[]::new);
+        keys = new long[legs.length];
+        stds = new long[legs.length];
+        for (int i = 0; i < legs.length; i++) {
+            keys[i] = keyOf(legs[i]);
+            stds[i] = legs[i].getStdEpochSecond();
+        }
+    }
+
+    /**
+     * @return the leg that continues the given one, as defined by {@link FlightLeg#isNextLegOf(FlightLeg)}.
+     */
+    Optional<FlightLeg> findNextLegOf(FlightLeg currentFlightLeg) {
+        long key = keyOf(currentFlightLeg.getFlightNumberId(), currentFlightLeg.getArrivalAirportId());
+        int first = firstDepartingAfter(key, currentFlightLeg.getStaEpochSecond());
+        if (first < legs.length && keys[first] == key && legs[first].isNextLegOf(currentFlightLeg)) {
+            return Optional.of(legs[first]);
+        }
+        return Optional.empty();
+    }
+
+    /**
+     * @return the index of the first leg of the group with the given key whose STD is strictly after the
+     * given STA, or the index of the next group, or the number of legs, if there is none.
+     */
+    private int firstDepartingAfter(long key, long sta) {
+        int low = 0;
+        int high = legs.length;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (keys[middle] > key || keys[middle] == key && stds[middle] > sta) {
+                high = middle;
+            } else {
+                low = middle + 1;
+            }
+        }
+        return low;
+    }
+
+    private static long keyOf(FlightLeg flightLeg) {
+        return keyOf(flightLeg.getFlightNumberId(), flightLeg.getDepartureAirportId());
+    }
+
+    /**
+     * Ids are non-negative but for the id of a missing code, -1, which the offset keeps in its own group.
+     */
+    private static long keyOf(int flightNumberId, int airportId) {
+        return ((long) flightNumberId + 1) << 32 | ((long) airportId + 1);
+    }
+}
@@ -11,7 +11,12 @@ import no.rutebanken.extime.model.FlightRoute;
 import no.rutebanken.extime.model.LineDataSet;
 import no.rutebanken.extime.model.ScheduledFlight;
 import no.rutebanken.extime.model.ScheduledStopover;
+import no.rutebanken.extime.model.StopTimesPattern;
+import no.rutebanken.extime.netex.NetexStreamWriter;
+import no.rutebanken.extime.netex.StreamedContent;
+import no.rutebanken.extime.netex.StreamedDelivery;
 import no.rutebanken.extime.util.ExtimeException;
+import no.rutebanken.extime.util.DeterministicConversion;
 import no.rutebanken.extime.util.NetexObjectFactory;
 import no.rutebanken.extime.util.NetexObjectIdCreator;
 import org.apache.commons.lang3.StringUtils;
@@ -49,6 +54,7 @@ import org.rutebanken.netex.model.Vias_RelStructure;
 import org.springframework.stereotype.Component;
 
 import jakarta.xml.bind.JAXBElement;
+import javax.xml.stream.XMLStreamException;
 import java.math.BigInteger;
 import java.time.Instant;
 import java.time.LocalDate;
@@ -57,31 +63,28 @@ import java.time.format.DateTimeFormatter;
 import java.util.ArrayList;
 import java.util.Comparator;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
-import java.util.stream.Collectors;
+import java.util.Set;
 
 import static no.rutebanken.extime.Constants.AVINOR_XMLNS;
 import static no.rutebanken.extime.Constants.COLON;
 import static no.rutebanken.extime.Constants.DASH;
 import static no.rutebanken.extime.Constants.DAY_TYPE_PATTERN;
 import static no.rutebanken.extime.Constants.UNDERSCORE;
+import static no.rutebanken.extime.Constants.VERSION_ONE;
+import static no.rutebanken.extime.converter.PatternGrouping.groupingByPattern;
 import static no.rutebanken.extime.util.NetexObjectIdCreator.hashObjectId;
 import static no.rutebanken.extime.util.NetexObjectIdTypes.DESTINATION_DISPLAY;
 
 @Component(value = "lineDataToNetexConverter")
 public class LineDataToNetexConverter {
 
-    private static final String AIRLINE_IATA = "airline_iata";
-    private static final String LINE_DESIGNATION = "line_designation";
-
-    private final Map<String, String> localContext = new HashMap<>();
-    private final Map<String, String> routeIdDesignationMap = new HashMap<>();
-    private final Map<String, JourneyPattern> routeDesignationPatternMap = new HashMap<>();
-    private final Map<String, DayType> dayTypes = new HashMap<>();
-    private final Map<String, DayTypeAssignment> dayTypeAssignments = new HashMap<>();
-    private final Map<String, OperatingPeriod> operatingPeriods = new HashMap<>();
+    private static final String VEHICLE_JOURNEYS_PLACEHOLDER = "vehicleJourneys";
+    private static final String DAY_TYPES_PLACEHOLDER = "dayTypes";
+    private static final String DAY_TYPE_ASSIGNMENTS_PLACEHOLDER = "dayTypeAssignments";
 
     private final NetexStaticDataSet netexStaticDataSet;
 
@@ -99,73 +102,91 @@ public class LineDataToNetexConverter {
     }
 
 
+    /**
+     * Thread-safe: everything built up while converting one line lives in a {@link LineConversionContext}
+     * of its own, so that lines can be converted concurrently.
+     */
     public JAXBElement<PublicationDeliveryStructure> convertToNetex(LineDataSet lineDataSet) {
-        try {
+        return convertToNetex(lineDataSet, false).publicationDelivery();
+    }
 
-            netexObjectFactory.clearReferentials();
+    /**
+     * As {@link #convertToNetex(LineDataSet)}, but the service journeys, day types and day type
+     * assignments, most of a line's objects, are not built: they are written straight from the line data
+     * set by the returned delivery's streamed content, when it is marshalled, into placeholders left in
+     * the timetable and service calendar frames. The document is the same, but for the random ids.
+     *
+     * <p>The streamed content is written once, by one thread, as the delivery is marshalled.
+     */
+    public StreamedDelivery convertToStreamedNetex(LineDataSet lineDataSet) {
+        return convertToNetex(lineDataSet, true);
+    }
 
-            localContext.put(AIRLINE_IATA, lineDataSet.getAirlineIata());
-            localContext.put(LINE_DESIGNATION, lineDataSet.getLineDesignation());
+    private StreamedDelivery convertToNetex(LineDataSet lineDataSet, boolean streamJourneys) {
+        LineConversionContext context = new LineConversionContext(lineDataSet);
 
-            Instant publicationTimestamp = Instant.now();
-            AvailabilityPeriod availabilityPeriod = lineDataSet.getAvailabilityPeriod();
-            String airlineIata = lineDataSet.getAirlineIata();
+        Instant publicationTimestamp = DeterministicConversion.publicationTimestamp();
+        AvailabilityPeriod availabilityPeriod = lineDataSet.getAvailabilityPeriod();
+        String airlineIata = lineDataSet.getAirlineIata();
 
-            String operatorId = NetexObjectIdCreator.createOperatorId(AVINOR_XMLNS, airlineIata);
+        String operatorId = NetexObjectIdCreator.createOperatorId(AVINOR_XMLNS, airlineIata);
 
-            Line line = netexObjectFactory.createLine(lineDataSet.getAirlineIata(), lineDataSet.getLineDesignation(), lineDataSet.getLineName());
-            line.setOperatorRef(netexObjectFactory.createOperatorRefStructure(operatorId, Boolean.FALSE));
+        Line line = netexObjectFactory.createLine(lineDataSet.getAirlineIata(), lineDataSet.getLineDesignation(), lineDataSet.getLineName());
+        line.setOperatorRef(netexObjectFactory.createOperatorRefStructure(operatorId, Boolean.FALSE));
 
-            List<Route> routes = createRoutes(line, lineDataSet.getFlightRoutes());
-            List<RouteRefStructure> routeRefStructures = netexObjectFactory.createRouteRefStructures(routes);
-            RouteRefs_RelStructure routeRefStruct = objectFactory.createRouteRefs_RelStructure().withRouteRef(routeRefStructures);
-            line.setRoutes(routeRefStruct);
+        List<Route> routes = createRoutes(context, line, lineDataSet.getFlightRoutes());
+        List<RouteRefStructure> routeRefStructures = netexObjectFactory.createRouteRefStructures(routes);
+        RouteRefs_RelStructure routeRefStruct = objectFactory.createRouteRefs_RelStructure().withRouteRef(routeRefStructures);
+        line.setRoutes(routeRefStruct);
 
-            List<JourneyPattern> journeyPatterns = createJourneyPatterns(routes);
-            List<DestinationDisplay> destinationDisplaysForStops = createDestinationDisplaysForStopPoints(lineDataSet.getFlightRoutes());
-            List<DestinationDisplay> destinationDisplaysForPatterns = createDestinationDisplaysForPatterns(journeyPatterns);
-            List<DestinationDisplay> destinationDisplays = Lists.newArrayList(Iterables.concat(destinationDisplaysForPatterns, destinationDisplaysForStops));
-            List<ServiceJourney> serviceJourneys = createServiceJourneys(line, lineDataSet.getRouteJourneys());
+        List<JourneyPattern> journeyPatterns = createJourneyPatterns(context, routes);
+        List<DestinationDisplay> destinationDisplaysForStops = createDestinationDisplaysForStopPoints(context, lineDataSet.getFlightRoutes());
+        List<DestinationDisplay> destinationDisplaysForPatterns = createDestinationDisplaysForPatterns(context, journeyPatterns);
+        List<DestinationDisplay> destinationDisplays = Lists.newArrayList(Iterables.concat(destinationDisplaysForPatterns, destinationDisplaysForStops));
+        List<ServiceJourney> serviceJourneys = streamJourneys
+                ? List.of()
+                : createServiceJourneys(context, line, lineDataSet.getRouteJourneys());
 
-            Frames_RelStructure frames = objectFactory.createFrames_RelStructure();
+        Frames_RelStructure frames = objectFactory.createFrames_RelStructure();
 
-            JAXBElement<ServiceFrame> serviceFrame = netexObjectFactory.createServiceFrame(
-                    routes, line, destinationDisplays, journeyPatterns);
-            frames.getCommonFrame().add(serviceFrame);
+        JAXBElement<ServiceFrame> serviceFrame = netexObjectFactory.createServiceFrame(
+                routes, line, destinationDisplays, journeyPatterns);
+        frames.getCommonFrame().add(serviceFrame);
 
-            JAXBElement<TimetableFrame> timetableFrame = netexObjectFactory.createTimetableFrame(serviceJourneys);
-            frames.getCommonFrame().add(timetableFrame);
+        JAXBElement<TimetableFrame> timetableFrame = netexObjectFactory.createTimetableFrame(serviceJourneys);
+        frames.getCommonFrame().add(timetableFrame);
 
-            JAXBElement<ServiceCalendarFrame> serviceCalendarFrame = netexObjectFactory.createServiceCalendarFrame(dayTypes, dayTypeAssignments, operatingPeriods);
-            frames.getCommonFrame().add(serviceCalendarFrame);
+        JAXBElement<ServiceCalendarFrame> serviceCalendarFrame = netexObjectFactory.createServiceCalendarFrame(
+                context.dayTypes, context.dayTypeAssignments, context.operatingPeriods);
+        frames.getCommonFrame().add(serviceCalendarFrame);
 
-            JAXBElement<CompositeFrame> compositeFrame = netexObjectFactory.createCompositeFrame(publicationTimestamp,
-                    availabilityPeriod, lineDataSet.getAirlineIata(), lineDataSet.getLineDesignation(), frames);
+        Map<String, StreamedContent> streamedContent = Map.of();
+        if (streamJourneys) {
+            streamedContent = streamServiceJourneys(context, line, lineDataSet.getRouteJourneys());
+            if (streamedContent.containsKey(DAY_TYPE_ASSIGNMENTS_PLACEHOLDER)) {
+                serviceCalendarFrame.getValue().withDayTypeAssignments(objectFactory.createDayTypeAssignmentsInFrame_RelStructure());
+            }
+        }
 
-            PublicationDeliveryStructure publicationDeliveryStructure = netexObjectFactory.createPublicationDeliveryStructure(
-                    publicationTimestamp, compositeFrame, lineDataSet.getLineName());
+        JAXBElement<CompositeFrame> compositeFrame = netexObjectFactory.createCompositeFrame(publicationTimestamp,
+                availabilityPeriod, lineDataSet.getAirlineIata(), lineDataSet.getLineDesignation(), frames);
 
-            return objectFactory.createPublicationDelivery(publicationDeliveryStructure);
-        } finally {
-            // Empty all session data
-            clearAll();
-        }
+        PublicationDeliveryStructure publicationDeliveryStructure = netexObjectFactory.createPublicationDeliveryStructure(
+                publicationTimestamp, compositeFrame, lineDataSet.getLineName());
+
+        return new StreamedDelivery(objectFactory.createPublicationDelivery(publicationDeliveryStructure), streamedContent);
     }
 
-    private List<Route> createRoutes(Line line, List<FlightRoute> flightRoutes) {
+    private List<Route> createRoutes(LineConversionContext context, Line line, List<FlightRoute> flightRoutes) {
         Map<String, RoutePoint> routePointMap = netexCommonDataSet.getRoutePointMap();
         List<Route> routes = Lists.newArrayList();
 
-        if (!routeIdDesignationMap.isEmpty()) {
-            routeIdDesignationMap.clear();
-        }
-
         for (FlightRoute flightRoute : flightRoutes) {
             PointsOnRoute_RelStructure pointsOnRoute = objectFactory.createPointsOnRoute_RelStructure();
             List<String> routePointsInSequence = flightRoute.getRoutePointsInSequence();
             String[] idSequence = NetexObjectIdCreator.generateIdSequence(routePointsInSequence.size());
 
-            String objectId = Joiner.on(UNDERSCORE).skipNulls().join(localContext.get(AIRLINE_IATA), flightRoute.routeDesignation());
+            String objectId = Joiner.on(UNDERSCORE).skipNulls().join(context.airlineIata, flightRoute.routeDesignation());
             String hashedObjectId = hashObjectId(objectId, 10);
 
             for (int i = 0; i < routePointsInSequence.size(); i++) {
@@ -178,22 +199,18 @@ public class LineDataToNetexConverter {
             Route route = netexObjectFactory.createRoute(line.getId(), hashedObjectId, flightRoute.routeName(), pointsOnRoute);
             routes.add(route);
 
-            if (!routeIdDesignationMap.containsKey(route.getId())) {
-                routeIdDesignationMap.put(route.getId(), flightRoute.routeDesignation());
+            if (!context.routeIdDesignationMap.containsKey(route.getId())) {
+                context.routeIdDesignationMap.put(route.getId(), flightRoute.routeDesignation());
             }
         }
 
         return routes;
     }
 
-    private List<JourneyPattern> createJourneyPatterns(List<Route> routes) {
+    private List<JourneyPattern> createJourneyPatterns(LineConversionContext context, List<Route> routes) {
         Map<String, ScheduledStopPoint> stopPointMap = netexCommonDataSet.getStopPointMap();
        List<JourneyPattern> journeyPatterns = Lists.newArrayList();
 
-        if (!routeDesignationPatternMap.isEmpty()) {
-            routeDesignationPatternMap.clear();
-        }
-
         for (Route route : routes) {
             PointsInJourneyPattern_RelStructure pointsInJourneyPattern = objectFactory.createPointsInJourneyPattern_RelStructure();
             List<PointOnRoute> pointsOnRoute = route.getPointsInSequence().getPointOnRoute();
@@ -223,10 +240,10 @@ public class LineDataToNetexConverter {
             JourneyPattern journeyPattern = netexObjectFactory.createJourneyPattern(objectId, route.getId(), pointsInJourneyPattern);
             journeyPatterns.add(journeyPattern);
 
-            if (routeIdDesignationMap.containsKey(route.getId())) {
-                String routeDesignation = routeIdDesignationMap.get(route.getId());
-                if (!routeDesignationPatternMap.containsKey(routeDesignation)) {
-                    routeDesignationPatternMap.put(routeDesignation, journeyPattern);
+            if (context.routeIdDesignationMap.containsKey(route.getId())) {
+                String routeDesignation = context.routeIdDesignationMap.get(route.getId());
+                if (!context.routeDesignationPatternMap.containsKey(routeDesignation)) {
+                    context.routeDesignationPatternMap.put(routeDesignation, journeyPattern);
                 }
             }
         }
@@ -235,19 +252,20 @@ public class LineDataToNetexConverter {
         return journeyPatterns;
     }
 
-    private List<DestinationDisplay> createDestinationDisplaysForStopPoints(List<FlightRoute> flightRoutes) {
+    private List<DestinationDisplay> createDestinationDisplaysForStopPoints(LineConversionContext context, List<FlightRoute> flightRoutes) {
         Map<String, NetexStaticDataSet.StopPlaceDataSet> stopPlaceDataSets = netexStaticDataSet.getStopPlaces();
-        String objectIdPrefix = localContext.get(AIRLINE_IATA) + StringUtils.remove(localContext.get(LINE_DESIGNATION), DASH) + DASH;
+        String objectIdPrefix = context.lineIdPart() + DASH;
 
         return flightRoutes.stream()
                 .flatMap(flightRoute -> flightRoute.getRoutePointsInSequence().stream())
                 .distinct()
                 .sorted(Comparator.comparing(iata -> iata))
-                .map(iata -> netexObjectFactory.createDestinationDisplay(objectIdPrefix + iata, stopPlaceDataSets.get(iata.toLowerCase()).getShortName(), true))
+                .map(iata -> netexObjectFactory.createDestinationDisplay(objectIdPrefix + iata, stopPlaceDataSets.get(iata.toLowerCase()).getShortName()))
+                .map(context::registerStopDestinationDisplay)
                 .toList();
     }
 
-    private List<DestinationDisplay> createDestinationDisplaysForPatterns(List<JourneyPattern> journeyPatterns) {
+    private List<DestinationDisplay> createDestinationDisplaysForPatterns(LineConversionContext context, List<JourneyPattern> journeyPatterns) {
         Map<String, NetexStaticDataSet.StopPlaceDataSet> stopPlaceDataSets = netexStaticDataSet.getStopPlaces();
        List<DestinationDisplay> destinationDisplays = Lists.newArrayList();
 
@@ -285,10 +303,10 @@ public class LineDataToNetexConverter {
                         StopPointInJourneyPattern stopPointInJourneyPattern = (StopPointInJourneyPattern) pointsInLinkSequence.get(i);
                         String stopPointIdRef = stopPointInJourneyPattern.getScheduledStopPointRef().getValue().getRef();
                         String stopPointObjectId = Iterables.getLast(Splitter.on(COLON).trimResults().split(stopPointIdRef));
-                        String objectIdRef = localContext.get(AIRLINE_IATA) + StringUtils.remove(localContext.get(LINE_DESIGNATION), DASH) + DASH + stopPointObjectId;
+                        String objectIdRef = context.lineIdPart() + DASH + stopPointObjectId;
 
                         String destinationDisplayIdRef = Joiner.on(COLON).skipNulls().join(AVINOR_XMLNS, DESTINATION_DISPLAY, objectIdRef);
-                        DestinationDisplay destinationDisplay = netexObjectFactory.getDestinationDisplay(destinationDisplayIdRef);
+                        DestinationDisplay destinationDisplay = context.getStopDestinationDisplay(destinationDisplayIdRef);
 
                         if (destinationDisplay != null) {
                             DestinationDisplayRefStructure viaRefStruct = netexObjectFactory.createDestinationDisplayRefStructure(destinationDisplay.getId());
@@ -313,77 +331,69 @@ public class LineDataToNetexConverter {
         return destinationDisplays;
     }
 
-    private List<ServiceJourney> createServiceJourneys(Line line, Map<String, Map<String, List<ScheduledFlight>>> routeJourneys) {
+    private List<ServiceJourney> createServiceJourneys(LineConversionContext context, Line line, Map<String, Map<String, List<ScheduledFlight>>> routeJourneys) {
         List<ServiceJourney> serviceJourneyList = new ArrayList<>();
 
-        if (!dayTypes.isEmpty()) {
-            dayTypes.clear();
-        }
-        if (!dayTypeAssignments.isEmpty()) {
-            dayTypeAssignments.clear();
-        }
-        if (!operatingPeriods.isEmpty()) {
-            operatingPeriods.clear();
-        }
-
-        for (Map.Entry<String, Map<String, List<ScheduledFlight>>> entry : routeJourneys.entrySet()) {
-            String routeDesignation = entry.getKey();
-            JourneyPattern journeyPattern;
+        forEachServiceJourney(context, routeJourneys, (objectId, flightId, journeyPattern, journeyFlights) -> {
+            TimetabledPassingTimes_RelStructure passingTimesRelStruct = aggregateJourneyPassingTimes(journeyFlights, pointsInSequenceOf(journeyPattern));
+            DayTypeRefs_RelStructure dayTypeRefsStruct = collectDayTypesAndAssignments(context, journeyFlights);
+            ServiceJourney serviceJourney = netexObjectFactory.createServiceJourney(objectId, line.getId(), flightId, dayTypeRefsStruct, journeyPattern.getId(), passingTimesRelStruct, journeyFlights.getFirst().getArrivalAirportName());
+            serviceJourneyList.add(serviceJourney);
+        });
 
-            if (routeDesignationPatternMap.containsKey(routeDesignation)) {
-                journeyPattern = routeDesignationPatternMap.get(routeDesignation);
-            } else {
-                throw new ExtimeException("Route not found: " + routeDesignation);
-            }
+        return serviceJourneyList;
+    }
 
-            Map<String, List<ScheduledFlight>> flightsById = entry.getValue();
+    /**
+     * Visits the service journeys of a line in the order they are written: by route, then by flight id,
+     * then by the pattern of stop times the journey's flights share.
+     */
+    private <E extends Exception> void forEachServiceJourney(LineConversionContext context, Map<String, Map<String, List<ScheduledFlight>>> routeJourneys, ServiceJourneyVisitor<E> visitor) throws E {
+        for (Map.Entry<String, Map<String, List<ScheduledFlight>>> entry : routeJourneys.entrySet()) {
+            JourneyPattern journeyPattern = context.getJourneyPattern(entry.getKey());
+            String journeyPatternIdSuffix = NetexObjectIdCreator.getObjectIdSuffix(journeyPattern.getId());
 
-            for (Map.Entry<String, List<ScheduledFlight>> subEntry : flightsById.entrySet()) {
+            for (Map.Entry<String, List<ScheduledFlight>> subEntry : entry.getValue().entrySet()) {
                 String flightId = subEntry.getKey();
-                List<ScheduledFlight> flights = subEntry.getValue();
-
-                Map<String, List<ScheduledFlight>> flightsByStopTimes = flights.stream()
-                        .collect(Collectors.groupingBy(ScheduledFlight::getStopTimesPattern));
-
-                List<ServiceJourney> serviceJourneys = createServiceJourneys(line, flightId, journeyPattern, flightsByStopTimes);
-                serviceJourneyList.addAll(serviceJourneys);
+                Map<String, List<ScheduledFlight>> flightsByStopTimes = subEntry.getValue().stream()
+                        .collect(groupingByPattern(ScheduledFlight::getStopTimesPattern, StopTimesPattern::designation));
+
+                String[] idSequence = NetexObjectIdCreator.generateIdSequence(flightsByStopTimes.size());
+                int index = 0;
+                for (List<ScheduledFlight> journeyFlights : flightsByStopTimes.values()) {
+                    String journeyIdSequence = StringUtils.leftPad(idSequence[index++], 2, "0");
+                    String objectId = Joiner.on(DASH).skipNulls().join(flightId, journeyIdSequence, journeyPatternIdSuffix);
+                    visitor.visit(objectId, flightId, journeyPattern, journeyFlights);
+                }
             }
         }
-
-        return serviceJourneyList;
     }
 
-    private List<ServiceJourney> createServiceJourneys(Line line, String flightId, JourneyPattern journeyPattern, Map<String, List<ScheduledFlight>> flightsByStopTimes) {
-        List<ServiceJourney> serviceJourneys = new ArrayList<>();
-        String journeyPatternId = journeyPattern.getId();
-
-        List<PointInLinkSequence_VersionedChildStructure> pointsInLinkSequence = journeyPattern.getPointsInSequence()
+    private static List<PointInLinkSequence_VersionedChildStructure> pointsInSequenceOf(JourneyPattern journeyPattern) {
+        return journeyPattern.getPointsInSequence()
                 .getPointInJourneyPatternOrStopPointInJourneyPatternOrTimingPointInJourneyPattern();
-
-        String[] idSequence = NetexObjectIdCreator.generateIdSequence(flightsByStopTimes.size());
-
-        int index = 0;
-        for (Map.Entry<String, List<ScheduledFlight>> entry : flightsByStopTimes.entrySet()) {
-            List<ScheduledFlight> journeyFlights = entry.getValue();
-
-            TimetabledPassingTimes_RelStructure passingTimesRelStruct = aggregateJourneyPassingTimes(journeyFlights, pointsInLinkSequence);
-
-            DayTypeRefs_RelStructure dayTypeRefsStruct;
-            dayTypeRefsStruct = collectDayTypesAndAssignments(journeyFlights);
-
-            String journeyIdSequence = StringUtils.leftPad(idSequence[index++], 2, "0");
-            String objectId = Joiner.on(DASH).skipNulls().join(flightId, journeyIdSequence, NetexObjectIdCreator.getObjectIdSuffix(journeyPatternId));
-            ServiceJourney serviceJourney = netexObjectFactory.createServiceJourney(objectId, line.getId(), flightId, dayTypeRefsStruct, journeyPatternId, passingTimesRelStruct,journeyFlights.getFirst().getArrivalAirportName());
-            serviceJourneys.add(serviceJourney);
-        }
-
-        return serviceJourneys;
     }
 
     private TimetabledPassingTimes_RelStructure aggregateJourneyPassingTimes(List<ScheduledFlight> journeyFlights, List<PointInLinkSequence_VersionedChildStructure> pointsInLinkSequence) {
-        ScheduledFlight guidingFlight = journeyFlights.getFirst();
         TimetabledPassingTimes_RelStructure passingTimesRelStructure = objectFactory.createTimetabledPassingTimes_RelStructure();
 
+        forEachPassingTime(journeyFlights.getFirst(), pointsInLinkSequence, (pointInJourneyPatternId, arrivalTime, arrivalDayOffset, departureTime, departureDayOffset) -> {
+            TimetabledPassingTime passingTime = netexObjectFactory.createTimetabledPassingTime(pointInJourneyPatternId);
+            passingTime.setArrivalTime(arrivalTime);
+            passingTime.setArrivalDayOffset(arrivalDayOffset);
+            passingTime.setDepartureTime(departureTime);
+            passingTime.setDepartureDayOffset(departureDayOffset);
+            passingTimesRelStructure.withTimetabledPassingTime(passingTime);
+        });
+
+        return passingTimesRelStructure;
+    }
+
+    /**
+     * Visits the passing times of a journey, those of its guiding flight. A day offset is null rather than
+     * zero, as it is left out of the passing time then.
+     */
+    private static <E extends Exception> void forEachPassingTime(ScheduledFlight guidingFlight, List<PointInLinkSequence_VersionedChildStructure> pointsInLinkSequence, PassingTimeVisitor<E> visitor) throws E {
         if (guidingFlight.hasStopovers()) {
             List<ScheduledStopover> scheduledStopovers = guidingFlight.getScheduledStopovers();
             Iterator<ScheduledStopover> stopoverIterator = scheduledStopovers.iterator();
@@ -391,102 +401,267 @@ public class LineDataToNetexConverter {
 
             LocalTime previousArrivalOrDepartureTime = null;
             BigInteger dayOffset = BigInteger.ZERO;
-            
+
             while (stopoverIterator.hasNext() && pointInLinkSequenceIterator.hasNext()) {
                 ScheduledStopover scheduledStopover = stopoverIterator.next();
                 PointInLinkSequence_VersionedChildStructure pointInLinkSequence = pointInLinkSequenceIterator.next();
-                TimetabledPassingTime passingTime = netexObjectFactory.createTimetabledPassingTime(pointInLinkSequence.getId());
+                LocalTime arrivalTime = scheduledStopover.getArrivalTime();
+                BigInteger arrivalDayOffset = null;
+                LocalTime departureTime = scheduledStopover.getDepartureTime();
+                BigInteger departureDayOffset = null;
 
-                if (scheduledStopover.getArrivalTime() != null) {
-                    passingTime.setArrivalTime(scheduledStopover.getArrivalTime());
-                    if(previousArrivalOrDepartureTime != null && scheduledStopover.getArrivalTime().isBefore(previousArrivalOrDepartureTime)) {
+                if (arrivalTime != null) {
+                    if (previousArrivalOrDepartureTime != null && arrivalTime.isBefore(previousArrivalOrDepartureTime)) {
                         dayOffset = dayOffset.add(BigInteger.ONE);
                     }
-                    if(!dayOffset.equals(BigInteger.ZERO)) {
-                    	passingTime.setArrivalDayOffset(dayOffset);
+                    if (!dayOffset.equals(BigInteger.ZERO)) {
+                        arrivalDayOffset = dayOffset;
                     }
-                    previousArrivalOrDepartureTime = scheduledStopover.getArrivalTime();
+                    previousArrivalOrDepartureTime = arrivalTime;
                 }
 
-                if (scheduledStopover.getDepartureTime() != null) {
-                    passingTime.setDepartureTime(scheduledStopover.getDepartureTime());
-                    if(previousArrivalOrDepartureTime != null && scheduledStopover.getDepartureTime().isBefore(previousArrivalOrDepartureTime)) {
+                if (departureTime != null) {
+                    if (previousArrivalOrDepartureTime != null && departureTime.isBefore(previousArrivalOrDepartureTime)) {
                         dayOffset = dayOffset.add(BigInteger.ONE);
                     }
-                    if(!dayOffset.equals(BigInteger.ZERO)) {
-                    	passingTime.setDepartureDayOffset(dayOffset);
+                    if (!dayOffset.equals(BigInteger.ZERO)) {
+                        departureDayOffset = dayOffset;
                     }
-                    previousArrivalOrDepartureTime = scheduledStopover.getDepartureTime();
+                    previousArrivalOrDepartureTime = departureTime;
                 }
 
-                passingTimesRelStructure.withTimetabledPassingTime(passingTime);
+                visitor.visit(pointInLinkSequence.getId(), arrivalTime, arrivalDayOffset, departureTime, departureDayOffset);
             }
         } else {
-            TimetabledPassingTime departurePassingTime = netexObjectFactory.createTimetabledPassingTime(pointsInLinkSequence.getFirst().getId());
-            departurePassingTime.setDepartureTime(guidingFlight.getTimeOfDeparture());
-            passingTimesRelStructure.withTimetabledPassingTime(departurePassingTime);
-            
-            TimetabledPassingTime arrivalPassingTime = netexObjectFactory.createTimetabledPassingTime(pointsInLinkSequence.get(1).getId());
-            arrivalPassingTime.setArrivalTime(guidingFlight.getTimeOfArrival());
-            passingTimesRelStructure.withTimetabledPassingTime(arrivalPassingTime);
-            if(guidingFlight.getTimeOfArrival().isBefore(guidingFlight.getTimeOfDeparture())) {
-            	arrivalPassingTime.setArrivalDayOffset(BigInteger.ONE);
-            }
+            visitor.visit(pointsInLinkSequence.getFirst().getId(), null, null, guidingFlight.getTimeOfDeparture(), null);
+            BigInteger arrivalDayOffset = guidingFlight.getTimeOfArrival().isBefore(guidingFlight.getTimeOfDeparture()) ? BigInteger.ONE : null;
+            visitor.visit(pointsInLinkSequence.get(1).getId(), guidingFlight.getTimeOfArrival(), arrivalDayOffset, null, null);
         }
-        
-     
-
-        return passingTimesRelStructure;
     }
 
-    private DayTypeRefs_RelStructure collectDayTypesAndAssignments(List<ScheduledFlight> journeyFlights) {
+    private DayTypeRefs_RelStructure collectDayTypesAndAssignments(LineConversionContext context, List<ScheduledFlight> journeyFlights) {
         DayTypeRefs_RelStructure dayTypeStructure = objectFactory.createDayTypeRefs_RelStructure();
-        List<LocalDate> datesOfOperation = journeyFlights.stream().map(ScheduledFlight::getDateOfOperation).sorted().toList();
-        collectDayTypesAndAssignments(dayTypeStructure, datesOfOperation);
+
+        forEachDayType(context, journeyFlights, (dayTypeId, dayTypeIdSuffix, order, dateOfOperation) -> {
+            if (!context.dayTypes.containsKey(dayTypeId)) {
+                context.dayTypes.put(dayTypeId, netexObjectFactory.createDayType(dayTypeId));
+            }
+
+            DayTypeRefStructure dayTypeRefStruct = netexObjectFactory.createDayTypeRefStructure(dayTypeId);
+            JAXBElement<DayTypeRefStructure> dayTypeRefStructElement = objectFactory.createDayTypeRef(dayTypeRefStruct);
+            dayTypeStructure.getDayTypeRef().add(dayTypeRefStructElement);
+
+            DayTypeAssignment dayTypeAssignment;
+            if (!context.dayTypeAssignments.containsKey(dayTypeId)) {
+                dayTypeAssignment = netexObjectFactory.createDayTypeAssignment(dayTypeIdSuffix, order, dateOfOperation, dayTypeId);
+                context.dayTypeAssignments.put(dayTypeAssignment.getId(), dayTypeAssignment);
+            }
+        });
+
         return dayTypeStructure;
     }
 
-    private void collectDayTypesAndAssignments(DayTypeRefs_RelStructure dayTypeStructure, List<LocalDate> datesOfOperation) {
+    /**
+     * Visits the day types of a journey, one per date of operation in date order, each with the order of
+     * its assignment.
+     */
+    private <E extends Exception> void forEachDayType(LineConversionContext context, List<ScheduledFlight> journeyFlights, DayTypeVisitor<E> visitor) throws E {
+        List<LocalDate> datesOfOperation = journeyFlights.stream().map(ScheduledFlight::getDateOfOperation).sorted().toList();
+        String dayTypeIdLinePart = getIdLinePart(context);
+        DateTimeFormatter dayTypeFormatter = DateTimeFormatter.ofPattern(DAY_TYPE_PATTERN);
+
         for (int i = 0; i < datesOfOperation.size(); i++) {
             LocalDate dateOfOperation = datesOfOperation.get(i);
-
-            String dayTypeIdLinePart = getIdLinePart();
-            String formattedDateOfOperation = dateOfOperation.format(DateTimeFormatter.ofPattern(DAY_TYPE_PATTERN));
+            String formattedDateOfOperation = dateOfOperation.format(dayTypeFormatter);
             String dayTypeIdSuffix = Joiner.on(DASH).skipNulls().join(dayTypeIdLinePart, formattedDateOfOperation);
             String dayTypeId = NetexObjectIdCreator.createDayTypeId(AVINOR_XMLNS, dayTypeIdSuffix);
+            visitor.visit(dayTypeId, dayTypeIdSuffix, i + 1, dateOfOperation);
+        }
+    }
 
-            DayType dayType;
-            if (!dayTypes.containsKey(dayTypeId)) {
-                dayType = netexObjectFactory.createDayType(dayTypeId);
-                dayTypes.put(dayTypeId, dayType);
+    /**
+     * The streamed counterpart of {@link #createServiceJourneys} and of the day types and assignments it
+     * collects, writing what {@link NetexObjectFactory} would have built. The journey patterns are looked
+     * up now, so that a missing route fails the conversion as it does without streaming.
+     */
+    private Map<String, StreamedContent> streamServiceJourneys(LineConversionContext context, Line line, Map<String, Map<String, List<ScheduledFlight>>> routeJourneys) {
+        routeJourneys.keySet().forEach(context::getJourneyPattern);
+
+        Map<String, StreamedContent> streamedContent = new HashMap<>();
+        streamedContent.put(VEHICLE_JOURNEYS_PLACEHOLDER, writer -> {
+            forEachServiceJourney(context, routeJourneys, (objectId, flightId, journeyPattern, journeyFlights) ->
+                    writeServiceJourney(writer, context, line, objectId, flightId, journeyPattern, journeyFlights));
+            context.journeysStreamed = true;
+        });
+        streamedContent.put(DAY_TYPES_PLACEHOLDER, writer -> {
+            context.checkJourneysStreamed();
+            for (String dayTypeId : context.streamedDayTypeIds) {
+                writer.startElement("DayType");
+                writer.attribute("version", VERSION_ONE);
+                writer.attribute("id", dayTypeId);
+                writer.endElement();
             }
+        });
+        boolean hasJourneys = routeJourneys.values().stream()
+                .flatMap(flightsById -> flightsById.values().stream())
+                .anyMatch(flights -> !flights.isEmpty());
+        if (hasJourneys) {
+            streamedContent.put(DAY_TYPE_ASSIGNMENTS_PLACEHOLDER, writer -> {
+                context.checkJourneysStreamed();
+                List<StreamedDayTypeAssignment> dayTypeAssignments = new ArrayList<>(context.streamedDayTypeAssignments.values());
+                dayTypeAssignments.sort(Comparator.comparingInt(StreamedDayTypeAssignment::order));
+                for (StreamedDayTypeAssignment dayTypeAssignment : dayTypeAssignments) {
+                    writeDayTypeAssignment(writer, dayTypeAssignment);
+                }
+            });
+        }
+        return streamedContent;
+    }
 
-            DayTypeRefStructure dayTypeRefStruct = netexObjectFactory.createDayTypeRefStructure(dayTypeId);
-            JAXBElement<DayTypeRefStructure> dayTypeRefStructElement = objectFactory.createDayTypeRef(dayTypeRefStruct);
-            dayTypeStructure.getDayTypeRef().add(dayTypeRefStructElement);
-
-            DayTypeAssignment dayTypeAssignment;
-            if (!dayTypeAssignments.containsKey(dayTypeId)) {
-                dayTypeAssignment = netexObjectFactory.createDayTypeAssignment(dayTypeIdSuffix, i + 1, dateOfOperation, dayTypeId);
-                dayTypeAssignments.put(dayTypeAssignment.getId(), dayTypeAssignment);
+    private void writeServiceJourney(NetexStreamWriter writer, LineConversionContext context, Line line, String objectId, String flightId, JourneyPattern journeyPattern, List<ScheduledFlight> journeyFlights) throws XMLStreamException {
+        writer.startElement("ServiceJourney");
+        writer.attribute("version", VERSION_ONE);
+        writer.attribute("id", NetexObjectIdCreator.createServiceJourneyId(AVINOR_XMLNS, objectId));
+        writer.textElement("Name", journeyFlights.getFirst().getArrivalAirportName());
+        writer.textElement("PublicCode", flightId);
+
+        writer.startElement("dayTypes");
+        forEachDayType(context, journeyFlights, (dayTypeId, dayTypeIdSuffix, order, dateOfOperation) -> {
+            context.streamedDayTypeIds.add(dayTypeId);
+            String dayTypeAssignmentId = NetexObjectIdCreator.createDayTypeAssignmentId(AVINOR_XMLNS, dayTypeIdSuffix);
+            context.streamedDayTypeAssignments.put(dayTypeAssignmentId,
+                    new StreamedDayTypeAssignment(dayTypeAssignmentId, order, dateOfOperation, dayTypeId));
+            writer.refElement("DayTypeRef", dayTypeId, VERSION_ONE);
+        });
+        writer.endElement();
+
+        writer.refElement("JourneyPatternRef", journeyPattern.getId(), VERSION_ONE);
+        writer.refElement("LineRef", line.getId(), VERSION_ONE);
+
+        writer.startElement("passingTimes");
+        forEachPassingTime(journeyFlights.getFirst(), pointsInSequenceOf(journeyPattern), (pointInJourneyPatternId, arrivalTime, arrivalDayOffset, departureTime, departureDayOffset) -> {
+            writer.startElement("TimetabledPassingTime");
+            writer.attribute("version", VERSION_ONE);
+            writer.attribute("id", NetexObjectIdCreator.createTimetabledPassingTimeId(AVINOR_XMLNS, NetexObjectIdCreator.generateRandomUuid()));
+            writer.refElement("StopPointInJourneyPatternRef", pointInJourneyPatternId, VERSION_ONE);
+            if (arrivalTime != null) {
+                writer.timeElement("ArrivalTime", arrivalTime);
+            }
+            if (arrivalDayOffset != null) {
+                writer.textElement("ArrivalDayOffset", arrivalDayOffset.toString());
             }
+            if (departureTime != null) {
+                writer.timeElement("DepartureTime", departureTime);
+            }
+            if (departureDayOffset != null) {
+                writer.textElement("DepartureDayOffset", departureDayOffset.toString());
+            }
+            writer.endElement();
+        });
+        writer.endElement();
+
+        writer.endElement();
+    }
+
+    private static void writeDayTypeAssignment(NetexStreamWriter writer, StreamedDayTypeAssignment dayTypeAssignment) throws XMLStreamException {
+        writer.startElement("DayTypeAssignment");
+        writer.attribute("order", String.valueOf(dayTypeAssignment.order()));
+        writer.attribute("version", VERSION_ONE);
+        writer.attribute("id", dayTypeAssignment.id());
+        if (dayTypeAssignment.date() != null) {
+            writer.dateElement("Date", dayTypeAssignment.date().atStartOfDay());
         }
+        writer.refElement("DayTypeRef", dayTypeAssignment.dayTypeId(), VERSION_ONE);
+        writer.endElement();
     }
 
 
-    private String getIdLinePart() {
-        return hashObjectId(localContext.get(AIRLINE_IATA) + StringUtils.remove(localContext.get(LINE_DESIGNATION), DASH), 10);
+    private String getIdLinePart(LineConversionContext context) {
+        return hashObjectId(context.lineIdPart(), 10);
     }
 
-    private void clearAll() {
-        localContext.clear();
-        routeIdDesignationMap.clear();
-        routeDesignationPatternMap.clear();
-        dayTypes.clear();
-        dayTypeAssignments.clear();
-        operatingPeriods.clear();
-        if (netexObjectFactory != null) {
-            netexObjectFactory.clearReferentials();
+    /**
+     * What the conversion of one line accumulates on its way. This used to live in fields of the converter,
+     * which is a singleton, and was cleared after each line: lines could only be converted one at a time.
+     */
+    private static final class LineConversionContext {
+
+        private final String airlineIata;
+        private final String lineDesignation;
+        private final Map<String, String> routeIdDesignationMap = new HashMap<>();
+        private final Map<String, JourneyPattern> routeDesignationPatternMap = new HashMap<>();
+        private final Map<String, DestinationDisplay> stopDestinationDisplays = new HashMap<>();
+        private final Map<String, DayType> dayTypes = new HashMap<>();
+        private final Map<String, DayTypeAssignment> dayTypeAssignments = new HashMap<>();
+        private final Map<String, OperatingPeriod> operatingPeriods = new HashMap<>();
+        private final Set<String> streamedDayTypeIds = new HashSet<>();
+        private final Map<String, StreamedDayTypeAssignment> streamedDayTypeAssignments = new HashMap<>();
+        private boolean journeysStreamed;
+
+        private LineConversionContext(LineDataSet lineDataSet) {
+            this.airlineIata = lineDataSet.getAirlineIata();
+            this.lineDesignation = lineDataSet.getLineDesignation();
+        }
+
+        /**
+         * @return the airline and the line designation without its dash, e.g. {@code DYOSLBGO}.
+         */
+        private String lineIdPart() {
+            return airlineIata + StringUtils.remove(lineDesignation, DASH);
+        }
+
+        /**
+         * The day types are collected as the journeys are written, so the timetable frame has to come
+         * before the service calendar frame in the delivery.
+         */
+        private void checkJourneysStreamed() {
+            if (!journeysStreamed) {
+                throw new ExtimeException("The day types of line " + lineDesignation + " are written before its service journeys");
+            }
+        }
+
+        private JourneyPattern getJourneyPattern(String routeDesignation) {
+            JourneyPattern journeyPattern = routeDesignationPatternMap.get(routeDesignation);
+            if (journeyPattern == null) {
+                throw new ExtimeException("Route not found: " + routeDesignation);
+            }
+            return journeyPattern;
+        }
+
+        private DestinationDisplay registerStopDestinationDisplay(DestinationDisplay destinationDisplay) {
+            stopDestinationDisplays.putIfAbsent(destinationDisplay.getId(), destinationDisplay);
+            return destinationDisplay;
+        }
+
+        private DestinationDisplay getStopDestinationDisplay(String destinationDisplayId) {
+            DestinationDisplay destinationDisplay = stopDestinationDisplays.get(destinationDisplayId);
+            if (destinationDisplay == null) {
+                throw new IllegalArgumentException("Missing reference to destination display");
+            }
+            return destinationDisplay;
         }
     }
+
+    /**
+     * The day type assignments of a streamed line, held until the service calendar frame is written, after
+     * the journeys that refer to them. The same date gives the same id, and the last journey to assign it
+     * its order, as with the assignments built as objects.
+     */
+    private record StreamedDayTypeAssignment(String id, int order, LocalDate date, String dayTypeId) {
+    }
+
+    @FunctionalInterface
+    private interface ServiceJourneyVisitor<E extends Exception> {
+        void visit(String objectId, String flightId, JourneyPattern journeyPattern, List<ScheduledFlight> journeyFlights) throws E;
+    }
+
+    @FunctionalInterface
+    private interface PassingTimeVisitor<E extends Exception> {
+        void visit(String pointInJourneyPatternId, LocalTime arrivalTime, BigInteger arrivalDayOffset, LocalTime departureTime, BigInteger departureDayOffset) throws E;
+    }
+
+    @FunctionalInterface
+    private interface DayTypeVisitor<E extends Exception> {
+        void visit(String dayTypeId, String dayTypeIdSuffix, int order, LocalDate dateOfOperation) throws E;
+    }
 }
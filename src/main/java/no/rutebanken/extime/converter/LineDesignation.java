@@ -0,0 +1,129 @@
+package no.rutebanken.extime.converter;
+
+import no.rutebanken.extime.config.NetexStaticDataSet;
+import no.rutebanken.extime.model.AirportIATA;
+import no.rutebanken.extime.util.ExtimeException;
+
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static no.rutebanken.extime.Constants.DASH;
+import static no.rutebanken.extime.model.AirportIATA.BGO;
+import static no.rutebanken.extime.model.AirportIATA.BOO;
+import static no.rutebanken.extime.model.AirportIATA.OSL;
+import static no.rutebanken.extime.model.AirportIATA.SVG;
+import static no.rutebanken.extime.model.AirportIATA.TRD;
+
+/**
+ * A line between two whitelisted airports, {@code "OSL-BGO"}, with what the conversion asks of it: the
+ * line in the opposite direction, the direction named after the more significant airport, which the two
+ * are merged under, and the line's name.
+ *
+ * <p>The airports are few, so every pair is built once, when the converter is, and looked up by
+ * designation, rather than the designation being split and the airports validated each time.
+ */
+final class LineDesignation {
+
+    private static final Set<AirportIATA> LARGE_SIZED_AIRPORTS = EnumSet.of(OSL);
+    private static final Set<AirportIATA> MEDIUM_SIZED_AIRPORTS = EnumSet.of(BGO, BOO, SVG, TRD);
+
+    private final AirportIATA firstAirport;
+    private final AirportIATA secondAirport;
+    private final String designation;
+    private final String name;
+    private LineDesignation opposite;
+    private LineDesignation mostSignificant;
+
+    private LineDesignation(AirportIATA firstAirport, AirportIATA secondAirport, String name) {
+        this.firstAirport = firstAirport;
+        this.secondAirport = secondAirport;
+        this.designation = firstAirport.name() + DASH + secondAirport.name();
+        this.name = name;
+    }
+
+    /**
+     * @param stopPlaces the stop places of the static data set, by lower-case IATA code.
+     * @return every line between two whitelisted airports, by designation.
+     */
+    static Map<String, LineDesignation> allOf(Map<String, NetexStaticDataSet.StopPlaceDataSet> stopPlaces) {
+        AirportIATA[] airports = AirportIATA.values();
+        LineDesignation[][] lines = new LineDesignation[airports.length][airports.length];
+        Map<String, LineDesignation> linesByDesignation = new HashMap<>();
+
+        for (AirportIATA first : airports) {
+            for (AirportIATA second : airports) {
+                LineDesignation line = new LineDesignation(first, second, lineName(first, second, stopPlaces));
+                lines[first.ordinal()][second.ordinal()] = line;
+                linesByDesignation.put(line.designation, line);
+            }
+        }
+        for (LineDesignation[] linesFromAirport : lines) {
+            for (LineDesignation line : linesFromAirport) {
+                line.opposite = lines[line.secondAirport.ordinal()][line.firstAirport.ordinal()];
+                line.mostSignificant = significance(line.secondAirport) > significance(line.firstAirport)
+                        ? line.opposite
+                        : line;
+            }
+        }
+        return Collections.unmodifiableMap(linesByDesignation);
+    }
+
+    /**
+     * The short names of the two airports joined by a dash, skipping a missing short name, or null when an
+     * airport has no stop place at all, which only matters if the line is ever named.
+     */
+    private static String lineName(AirportIATA first, AirportIATA second,
+                                   Map<String, NetexStaticDataSet.StopPlaceDataSet> stopPlaces) {
+        NetexStaticDataSet.StopPlaceDataSet firstStopPlace = stopPlaces.get(first.name().toLowerCase());
+        NetexStaticDataSet.StopPlaceDataSet secondStopPlace = stopPlaces.get(second.name().toLowerCase());
+        if (firstStopPlace == null || secondStopPlace == null) {
+            return null;
+        }
+        return Stream.of(firstStopPlace.getShortName(), secondStopPlace.getShortName())
+                .filter(Objects::nonNull)
+                .collect(Collectors.joining(DASH));
+    }
+
+    private static int significance(AirportIATA airport) {
+        if (LARGE_SIZED_AIRPORTS.contains(airport)) {
+            return 3;
+        } else if (MEDIUM_SIZED_AIRPORTS.contains(airport)) {
+            return 2;
+        }
+        return 1;
+    }
+
+    String designation() {
+        return designation;
+    }
+
+    LineDesignation opposite() {
+        return opposite;
+    }
+
+    /**
+     * @return the direction that starts at the more significant airport, this one when they are as
+     * significant.
+     */
+    LineDesignation mostSignificant() {
+        return mostSignificant;
+    }
+
+    String name() {
+        if (name == null) {
+            throw new ExtimeException("No stop place for an airport of the line " + designation);
+        }
+        return name;
+    }
+
+    @Override
+    public String toString() {
+        return designation;
+    }
+}
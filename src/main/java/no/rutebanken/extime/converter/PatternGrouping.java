@@ -0,0 +1,48 @@
+package no.rutebanken.extime.converter;
+
+import no.rutebanken.extime.model.ScheduledFlight;
+import no.rutebanken.extime.util.ExtimeException;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.stream.Collector;
+import java.util.stream.Collectors;
+
+/**
+ * Groups scheduled flights by one of their patterns, and keys the groups by the pattern's designation, as
+ * the line data sets and the NeTEx conversion expect.
+ *
+ * <p>The grouping itself compares the patterns, so a designation is built once per group rather than once
+ * per flight. The result is the map that grouping by designation used to give, down to its iteration
+ * order, which decides the order and the ids of the NeTEx objects: a hash map filled with the same keys in
+ * the same order, that of the first flight of each group.
+ */
+final class PatternGrouping {
+
+    private PatternGrouping() {
+    }
+
+    static <K> Collector<ScheduledFlight, ?, Map<String, List<ScheduledFlight>>> groupingByPattern(
+            Function<ScheduledFlight, K> pattern, Function<K, String> designation) {
+        return groupingByPattern(pattern, designation, Collectors.toList());
+    }
+
+    static <K, D> Collector<ScheduledFlight, ?, Map<String, D>> groupingByPattern(
+            Function<ScheduledFlight, K> pattern, Function<K, String> designation,
+            Collector<ScheduledFlight, ?, D> downstream) {
+        return Collectors.collectingAndThen(
+                Collectors.groupingBy(pattern, LinkedHashMap::new, downstream),
+                groups -> {
+                    Map<String, D> groupsByDesignation = new HashMap<>();
+                    groups.forEach((key, group) -> {
+                        if (groupsByDesignation.put(designation.apply(key), group) != null) {
+                            throw new ExtimeException("Two patterns share the designation " + designation.apply(key));
+                        }
+                    });
+                    return groupsByDesignation;
+                });
+    }
+}
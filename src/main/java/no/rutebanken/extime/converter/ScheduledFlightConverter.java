@@ -8,7 +8,6 @@ import no.rutebanken.extime.model.*;
 import no.rutebanken.extime.config.NetexStaticDataSet;
 import no.rutebanken.extime.util.DateUtils;
 import no.rutebanken.extime.util.ExtimeException;
-import org.apache.commons.lang3.EnumUtils;
 import org.apache.commons.lang3.tuple.ImmutableTriple;
 import org.apache.commons.lang3.tuple.Triple;
 import org.slf4j.Logger;
@@ -18,20 +17,15 @@ import org.springframework.util.CollectionUtils;
 
 import java.time.LocalTime;
 import java.util.*;
-import java.util.function.Function;
-import java.util.function.Predicate;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
 import static no.rutebanken.extime.Constants.DASH;
-import static no.rutebanken.extime.model.AirportIATA.*;
+import static no.rutebanken.extime.converter.PatternGrouping.groupingByPattern;
 
 @Component(value = "scheduledFlightConverter")
 public class ScheduledFlightConverter {
 
-    private static final Set<AirportIATA> LARGE_SIZED_AIRPORTS = EnumSet.of(OSL);
-    private static final Set<AirportIATA> MEDIUM_SIZED_AIRPORTS = EnumSet.of(BGO, BOO, SVG, TRD);
-
     private static final Logger LOGGER = LoggerFactory.getLogger(ScheduledFlightConverter.class);
 
     private final NetexStaticDataSet netexStaticDataSet;
@@ -42,11 +36,14 @@ public class ScheduledFlightConverter {
 
     private final Map<String, NetexStaticDataSet.StopPlaceDataSet> stopPlaceDataSets;
 
+    private final Map<String, LineDesignation> lineDesignations;
+
     public ScheduledFlightConverter(NetexStaticDataSet netexStaticDataSet, DateUtils dateUtils) {
         this.netexStaticDataSet = netexStaticDataSet;
         this.dateUtils = dateUtils;
         this.flightLegMapper = new FlightLegMapper();
         this.stopPlaceDataSets = netexStaticDataSet.getStopPlaces();
+        this.lineDesignations = LineDesignation.allOf(stopPlaceDataSets);
     }
 
     public List<LineDataSet> convertFlightEventsToLineCentricDataSets(List<FlightEvent> flightEvents) {
@@ -54,15 +51,14 @@ public class ScheduledFlightConverter {
         return convertFlightLegsToLineCentricDataSets(flightLegs);
     }
 
-    List<LineDataSet> convertFlightLegsToLineCentricDataSets(List<FlightLeg> flightLegs) {
-        Map<String, List<FlightLeg>> flightsByDepartureAirport = flightLegs.stream()
-                .collect(Collectors.groupingBy(FlightLeg::getDepartureAirport));
+    public List<LineDataSet> convertFlightLegsToLineCentricDataSets(List<FlightLeg> flightLegs) {
+        FlightLegIndex flightLegIndex = new FlightLegIndex(flightLegs);
 
         Set<Long> distinctFlightLegIds = Sets.newHashSet();
         List<ScheduledFlight> mergedScheduledFlights = Lists.newArrayList();
 
         for (FlightLeg flight : flightLegs) {
-            List<FlightLeg> connectingFlightLegs = findConnectingFlightLegs(flight, flightsByDepartureAirport, distinctFlightLegIds);
+            List<FlightLeg> connectingFlightLegs = findConnectingFlightLegs(flight, flightLegIndex, distinctFlightLegIds);
 
             if (CollectionUtils.isEmpty(connectingFlightLegs)) {
                 continue;
@@ -90,7 +86,7 @@ public class ScheduledFlightConverter {
         // group by airline iata and unique lines
         Map<String, Map<String, List<ScheduledFlight>>> flightsByAirlineAndLine = mergedScheduledFlights.stream()
                 .collect(Collectors.groupingBy(ScheduledFlight::getAirlineIATA,
-                        Collectors.groupingBy(ScheduledFlight::getOperatingLine)));
+                        groupingByPattern(ScheduledFlight::getOperatingLine, RoutePattern::designation)));
 
         // find and merge all flights belonging to equivalent lines, and update map
         for (Map.Entry<String, Map<String, List<ScheduledFlight>>> entry : flightsByAirlineAndLine.entrySet()) {
@@ -116,7 +112,7 @@ public class ScheduledFlightConverter {
         String lineDesignation = flightsByLineEntry.getKey();
         lineDataSet.setLineDesignation(lineDesignation);
 
-        String lineName = getLineNameFromDesignation(lineDesignation);
+        String lineName = lineDesignationOf(lineDesignation).name();
         lineDataSet.setLineName(lineName);
 
         List<ScheduledFlight> flights = flightsByLineEntry.getValue();
@@ -124,13 +120,15 @@ public class ScheduledFlightConverter {
         lineDataSet.setAvailabilityPeriod(dateUtils.generateAvailabilityPeriod());
 
         List<FlightRoute> flightRoutes = flights.stream()
-                .map(flight -> new FlightRoute(flight.getRoutePattern(), getRouteNameFromDesignation(flight.getRoutePattern())))
-                .filter(distinctByKey(FlightRoute::routeDesignation))
+                .map(ScheduledFlight::getRoutePattern)
+                .distinct()
+                .map(RoutePattern::designation)
+                .map(routeDesignation -> new FlightRoute(routeDesignation, getRouteNameFromDesignation(routeDesignation)))
                 .toList();
         lineDataSet.setFlightRoutes(flightRoutes);
 
         Map<String, Map<String, List<ScheduledFlight>>> journeysByRouteAndFlightId = flights.stream()
-                .collect(Collectors.groupingBy(ScheduledFlight::getRoutePattern,
+                .collect(groupingByPattern(ScheduledFlight::getRoutePattern, RoutePattern::designation,
                         Collectors.groupingBy(ScheduledFlight::getAirlineFlightId)));
 
         lineDataSet.setRouteJourneys(journeysByRouteAndFlightId);
@@ -138,19 +136,6 @@ public class ScheduledFlightConverter {
         return lineDataSet;
     }
 
-    private String getLineNameFromDesignation(String lineDesignation) {
-        List<String> airportIatas = Splitter.on(DASH)
-                .trimResults()
-                .omitEmptyStrings()
-                .limit(2)
-                .splitToList(lineDesignation);
-
-        String firstAirportName = stopPlaceDataSets.get(airportIatas.get(0).toLowerCase()).getShortName();
-        String secondAirportName = stopPlaceDataSets.get(airportIatas.get(1).toLowerCase()).getShortName();
-
-        return Joiner.on(DASH).skipNulls().join(firstAirportName, secondAirportName);
-    }
-
     private String getRouteNameFromDesignation(String routeDesignation) {
         List<String> airportNames = Splitter.on(DASH)
                 .trimResults()
@@ -169,8 +154,9 @@ public class ScheduledFlightConverter {
         for (String lineDesignation : flightsByLineDesignation.keySet()) {
             if (!lineDesignations.contains(lineDesignation)) {
                 List<ScheduledFlight> lineFlights = flightsByLineDesignation.get(lineDesignation);
-                String oppositeLineDesignation = getOppositeLineDesignation(lineDesignation);
-                String mostSignificantLineDesignation = findMostSignificantLineDesignation(lineDesignation);
+                LineDesignation line = lineDesignationOf(lineDesignation);
+                String oppositeLineDesignation = line.opposite().designation();
+                String mostSignificantLineDesignation = line.mostSignificant().designation();
 
                 if (!lineDesignation.equals(oppositeLineDesignation)) {
                     if (flightsByLineDesignation.containsKey(oppositeLineDesignation)) {
@@ -196,72 +182,14 @@ public class ScheduledFlightConverter {
         return mergedFlightsByLineDesignation;
     }
 
-    private String getOppositeLineDesignation(String lineDesignation) {
-        List<String> lineAirportIatas = Splitter.on(DASH)
-                .trimResults()
-                .omitEmptyStrings()
-                .limit(2)
-                .splitToList(lineDesignation);
-        return Joiner.on(DASH).skipNulls().join(Lists.reverse(lineAirportIatas));
-    }
-
-    private String findMostSignificantLineDesignation(String lineDesignation) {
-        List<AirportWithSize> airportsWithSize = new ArrayList<>(2);
-
-        List<String> lineAirportIatas = Splitter.on(DASH)
-                .trimResults()
-                .omitEmptyStrings()
-                .limit(2)
-                .splitToList(lineDesignation);
-
-        lineAirportIatas.forEach(iata -> {
-            AirportWithSize airportWithSize = getAirportWithSize(iata);
-            airportsWithSize.add(airportWithSize);
-        });
-
-        AirportIATA largestAirport = findLargestAirport(airportsWithSize);
-
-        return largestAirport.name().equals(lineAirportIatas.getFirst()) ? lineDesignation :
-                Joiner.on(DASH).skipNulls().join(Lists.reverse(lineAirportIatas));
-    }
-
-    private AirportWithSize getAirportWithSize(String airportIataCode) {
-        boolean validEnum = EnumUtils.isValidEnum(AirportIATA.class, airportIataCode);
-
-        if (validEnum) {
-            AirportIATA airportIata = AirportIATA.valueOf(airportIataCode);
-            if (LARGE_SIZED_AIRPORTS.contains(airportIata)) {
-                return new AirportWithSize(airportIata, 3);
-            } else if (MEDIUM_SIZED_AIRPORTS.contains(airportIata)) {
-                return new AirportWithSize(airportIata, 2);
-            } else {
-                return new AirportWithSize(airportIata, 1);
-            }
-        } else {
-            throw new ExtimeException("Invalid IATA code " + airportIataCode);
-        }
-    }
-
-    private AirportIATA findLargestAirport(List<AirportWithSize> airportWithSizeList) {
-        AirportWithSize airportWithSize1 = airportWithSizeList.get(0);
-        AirportWithSize airportWithSize2 = airportWithSizeList.get(1);
-
-        if (airportWithSize1.size() > airportWithSize2.size()) {
-            return airportWithSize1.airportIata();
-        } else if (airportWithSize1.size() < airportWithSize2.size()) {
-            return airportWithSize2.airportIata();
+    private LineDesignation lineDesignationOf(String lineDesignation) {
+        LineDesignation line = lineDesignations.get(lineDesignation);
+        if (line == null) {
+            throw new ExtimeException("Invalid IATA code in line " + lineDesignation);
         }
-        return airportWithSize1.airportIata();
+        return line;
     }
 
-    private <T> Predicate<T> distinctByKey(Function<? super T, ?> keyExtractor) {
-        Set<Object> seen = new HashSet<>();
-        return t -> seen.add(keyExtractor.apply(t));
-    }
-
-
-
-
     List<ScheduledStopover> createScheduledStopovers(List<Triple<StopVisitType, String, LocalTime>> stopovers) {
         List<ScheduledStopover> multiLegFlights = Lists.newArrayList();
         Triple<StopVisitType, String, LocalTime> tempArrivalStopover = null;
@@ -301,7 +229,7 @@ public class ScheduledFlightConverter {
         return !CollectionUtils.isEmpty(flights) && flights.size() == 1;
     }
 
-    List<FlightLeg> findConnectingFlightLegs(FlightLeg currentFlightLeg, Map<String, List<FlightLeg>> flightsByDepartureAirportIata,
+    List<FlightLeg> findConnectingFlightLegs(FlightLeg currentFlightLeg, FlightLegIndex flightLegIndex,
                                                     Set<Long> distinctFlightLegIds) {
 
         if (distinctFlightLegIds.contains(currentFlightLeg.getId())) {
@@ -310,29 +238,22 @@ public class ScheduledFlightConverter {
 
         List<FlightLeg> connectingFlightLegs = Lists.newArrayList(currentFlightLeg);
 
-        connectingFlightLegs.addAll(findNextFlightLegs(currentFlightLeg, flightsByDepartureAirportIata, Lists.newArrayList()));
+        connectingFlightLegs.addAll(findNextFlightLegs(currentFlightLeg, flightLegIndex, Lists.newArrayList()));
 
         if (connectingFlightLegs.size() > 1) {
-            connectingFlightLegs.sort(Comparator.comparing(FlightLeg::getStd));
+            connectingFlightLegs.sort(Comparator.comparingLong(FlightLeg::getStdEpochSecond));
             connectingFlightLegs.forEach(flight -> distinctFlightLegIds.add(flight.getId()));
         }
 
         return connectingFlightLegs;
     }
 
-    List<FlightLeg> findNextFlightLegs(FlightLeg currentFlightLeg, Map<String, List<FlightLeg>> flightsByDepartureAirportIata, List<FlightLeg> nextFlightLegs) {
-        String arrivalAirportIata = currentFlightLeg.getArrivalAirport();
-        List<FlightLeg> flightLegsForIata = flightsByDepartureAirportIata.get(arrivalAirportIata);
-
-        if (flightLegsForIata != null) {
-            Optional<FlightLeg> optionalFlightLeg = flightLegsForIata.stream().filter(f -> f.isNextLegOf(currentFlightLeg)).findFirst();
-            optionalFlightLeg.ifPresent(flight -> {
-                LOGGER.trace("Found next flight leg: {} for current flight leg {}", flight, currentFlightLeg);
-                FlightLeg flightLeg = optionalFlightLeg.get();
-                nextFlightLegs.add(flightLeg);
-                findNextFlightLegs(flightLeg, flightsByDepartureAirportIata, nextFlightLegs);
-            });
-        }
+    List<FlightLeg> findNextFlightLegs(FlightLeg currentFlightLeg, FlightLegIndex flightLegIndex, List<FlightLeg> nextFlightLegs) {
+        flightLegIndex.findNextLegOf(currentFlightLeg).ifPresent(flightLeg -> {
+            LOGGER.trace("Found next flight leg: {} for current flight leg {}", flightLeg, currentFlightLeg);
+            nextFlightLegs.add(flightLeg);
+            findNextFlightLegs(flightLeg, flightLegIndex, nextFlightLegs);
+        });
 
         return nextFlightLegs;
     }
@@ -376,9 +297,6 @@ public class ScheduledFlightConverter {
         return scheduledFlight;
     }
 
-    private record AirportWithSize(AirportIATA airportIata, int size) {
-    }
-
     /**
      * @return the airline's name from the static data set, or the IATA designator when it has no entry.
      * Falling back to the designator is what the {@code direct:enrichWithAirlineName} route did: its
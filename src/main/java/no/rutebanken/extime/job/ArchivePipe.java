@@ -0,0 +1,179 @@
+package no.rutebanken.extime.job;
+
+import no.rutebanken.extime.util.ExtimeException;
+
+import java.io.BufferedOutputStream;
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Hands an archive from the thread writing it to the thread uploading it through a pipe, so that the
+ * upload starts with the first entry instead of after the last one, and the archive never touches disk.
+ *
+ * <p>The part that needs care is failure. The writer ends the pipe whether it finished or not, and a
+ * reader that took that end for the end of the archive would upload a truncated one as if it were
+ * whole. So a writer failure is recorded before the pipe is closed, and the stream the reader gets
+ * throws it instead of returning the end.
+ *
+ * <p>The two sides fail differently as far as the caller is concerned: a failed write is a failed
+ * conversion and will fail again, a failed read is the upload, which is worth retrying. A failed read
+ * is therefore reported as {@link ReadFailedException}, anything else as the writer threw it.
+ */
+final class ArchivePipe {
+
+    /** Enough for the writer to run ahead of a reader waiting on the network by a few entries. */
+    private static final int PIPE_SIZE = 1024 * 1024;
+    private static final int WRITE_BUFFER_SIZE = 64 * 1024;
+
+    private ArchivePipe() {
+    }
+
+    static void transfer(Writer writer, Reader reader) {
+        AtomicReference<Throwable> writeFailure = new AtomicReference<>();
+        try (ExecutorService executor = Executors.newSingleThreadExecutor(
+                Thread.ofPlatform().name("netex-archive-writer").factory())) {
+            PipedInputStream pipe = new PipedInputStream(PIPE_SIZE);
+            PipedOutputStream pipeEnd = new PipedOutputStream(pipe);
+            Future<Void> writing = executor.submit(() -> write(writer, pipeEnd, writeFailure));
+            WriterCheckingInputStream archive = new WriterCheckingInputStream(pipe, writeFailure);
+            try {
+                reader.readFrom(archive);
+                if (!archive.endReached) {
+                    throw new IOException("The reader returned before the end of the archive");
+                }
+            } catch (IOException | RuntimeException e) {
+                // Looked at before closing the pipe, which fails the writer's next write in turn.
+                Throwable failedWrite = writeFailure.get();
+                pipe.close();
+                writing.cancel(true);
+                if (failedWrite != null) {
+                    throw rethrown(failedWrite);
+                }
+                throw new ReadFailedException(e);
+            }
+            pipe.close();
+            awaitWriter(writing);
+        } catch (IOException e) {
+            throw new ExtimeException("Could not pipe the archive", e);
+        }
+    }
+
+    private static Void write(Writer writer, PipedOutputStream pipeEnd, AtomicReference<Throwable> writeFailure)
+            throws IOException {
+        try {
+            OutputStream out = new BufferedOutputStream(pipeEnd, WRITE_BUFFER_SIZE);
+            writer.writeTo(new UnclosableOutputStream(out));
+            out.flush();
+        } catch (Throwable e) {
+            writeFailure.set(e);
+            throw e;
+        } finally {
+            // Only now, with any failure recorded.
+            pipeEnd.close();
+        }
+        return null;
+    }
+
+    private static void awaitWriter(Future<Void> writing) {
+        try {
+            writing.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ExtimeException("Interrupted while writing the archive", e);
+        } catch (ExecutionException e) {
+            throw rethrown(e.getCause());
+        }
+    }
+
+    private static RuntimeException rethrown(Throwable failure) {
+        if (failure instanceof RuntimeException runtimeException) {
+            return runtimeException;
+        }
+        if (failure instanceof Error error) {
+            throw error;
+        }
+        return new ExtimeException("Could not write the archive", failure);
+    }
+
+    @FunctionalInterface
+    interface Writer {
+        void writeTo(OutputStream out) throws IOException;
+    }
+
+    @FunctionalInterface
+    interface Reader {
+        void readFrom(InputStream in) throws IOException;
+    }
+
+    /**
+     * The reading side failed while the writing side had not.
+     */
+    static final class ReadFailedException extends ExtimeException {
+        ReadFailedException(Exception cause) {
+            super("Could not read the archive from the pipe", cause);
+        }
+    }
+
+    /**
+     * Lets the writer close what it wrote through, a zip stream in a try-with-resources say, without
+     * ending the pipe before a failure has been recorded.
+     */
+    private static final class UnclosableOutputStream extends FilterOutputStream {
+
+        private UnclosableOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+        }
+
+        @Override
+        public void close() throws IOException {
+            flush();
+        }
+    }
+
+    private static final class WriterCheckingInputStream extends FilterInputStream {
+
+        private final AtomicReference<Throwable> writeFailure;
+        private boolean endReached;
+
+        private WriterCheckingInputStream(InputStream in, AtomicReference<Throwable> writeFailure) {
+            super(in);
+            this.writeFailure = writeFailure;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int read = super.read();
+            return read == -1 ? endOfArchive() : read;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int read = super.read(b, off, len);
+            return read == -1 ? endOfArchive() : read;
+        }
+
+        private int endOfArchive() throws IOException {
+            Throwable failure = writeFailure.get();
+            if (failure != null) {
+                throw new IOException("The archive was not written to the end", failure);
+            }
+            endReached = true;
+            return -1;
+        }
+    }
+}
@@ -0,0 +1,157 @@
+package no.rutebanken.extime.job;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.EnumMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * The meters of an export below the single {@code extime.timetable.export} timer: how long each stage
+ * took, how much it allocated, and how large its input and output were, so that an export getting slower
+ * can be traced to the step that did.
+ *
+ * <p>A stage is timed on the thread that runs it. The stages run per line, conversion and marshalling,
+ * run on the conversion threads, so their timers hold one sample per line and their total is the time
+ * spent across threads, not the wall-clock time of the stage. Allocation is measured the same way, and
+ * only where the JVM can count the bytes a thread allocates: a stage that hands its work to other
+ * threads, the fetch say, only shows what its own thread allocated.
+ *
+ * <p>A stage that fails is not recorded: the failure counter already tells, and its duration would only
+ * blur the stage's.
+ */
+final class ExportMetrics {
+
+    static final String STAGE_TIMER = "extime.timetable.export.stage";
+    static final String STAGE_ALLOCATED_BYTES = "extime.timetable.export.stage.allocated";
+
+    enum Stage {
+        STOPS, FETCH, LEGS, LINES, COMMON, CONVERT, MARSHAL, COMPRESS, UPLOAD, NOTIFY;
+
+        String tag() {
+            return name().toLowerCase(Locale.ROOT);
+        }
+    }
+
+    private final Map<Stage, Timer> timers = new EnumMap<>(Stage.class);
+    private final Map<Stage, DistributionSummary> allocatedBytes = new EnumMap<>(Stage.class);
+    private final com.sun.management.ThreadMXBean allocationCounter;
+
+    private final AtomicLong flightEvents = new AtomicLong();
+    private final AtomicLong flightLegs = new AtomicLong();
+    private final AtomicLong lineDataSets = new AtomicLong();
+    private final AtomicLong outputBytes = new AtomicLong();
+
+    ExportMetrics(MeterRegistry meterRegistry) {
+        allocationCounter = threadAllocationCounter();
+        for (Stage stage : Stage.values()) {
+            timers.put(stage, Timer.builder(STAGE_TIMER)
+                    .description("Duration of a stage of the Avinor timetable export")
+                    .tag("stage", stage.tag())
+                    .register(meterRegistry));
+            if (allocationCounter != null) {
+                allocatedBytes.put(stage, DistributionSummary.builder(STAGE_ALLOCATED_BYTES)
+                        .description("Bytes allocated by the thread running a stage of the Avinor timetable export")
+                        .baseUnit("bytes")
+                        .tag("stage", stage.tag())
+                        .register(meterRegistry));
+            }
+        }
+        gauge(meterRegistry, "extime.timetable.export.flight.events", flightEvents, "Flight events in the last export", null);
+        gauge(meterRegistry, "extime.timetable.export.flight.legs", flightLegs, "Flight legs in the last export", null);
+        gauge(meterRegistry, "extime.timetable.export.line.datasets", lineDataSets, "Lines in the last export", null);
+        gauge(meterRegistry, "extime.timetable.export.output", outputBytes, "Size of the last NeTEx archive", "bytes");
+    }
+
+    /**
+     * Counting the allocations of a thread is a HotSpot extension, which may be unsupported or switched
+     * off; the timers do without it.
+     */
+    private static com.sun.management.ThreadMXBean threadAllocationCounter() {
+        ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+        if (threadMXBean instanceof com.sun.management.ThreadMXBean counter
+                && counter.isThreadAllocatedMemorySupported()
+                && counter.isThreadAllocatedMemoryEnabled()) {
+            return counter;
+        }
+        return null;
+    }
+
+    private static void gauge(MeterRegistry meterRegistry, String name, AtomicLong value, String description,
+                              String baseUnit) {
+        Gauge.builder(name, value, AtomicLong::get)
+                .description(description)
+                .baseUnit(baseUnit)
+                .register(meterRegistry);
+    }
+
+    <T> T record(Stage stage, Supplier<T> step) {
+        StageSample sample = start(stage);
+        T result = step.get();
+        sample.stop();
+        return result;
+    }
+
+    void record(Stage stage, Runnable step) {
+        StageSample sample = start(stage);
+        step.run();
+        sample.stop();
+    }
+
+    /**
+     * For a stage that throws a checked exception. {@link StageSample#stop()} must be called on the
+     * thread that started it, as the allocation is that thread's.
+     */
+    StageSample start(Stage stage) {
+        return new StageSample(stage, System.nanoTime(), allocatedByCurrentThread());
+    }
+
+    void flightEvents(int count) {
+        flightEvents.set(count);
+    }
+
+    void flightLegs(int count) {
+        flightLegs.set(count);
+    }
+
+    void lineDataSets(int count) {
+        lineDataSets.set(count);
+    }
+
+    void outputBytes(long bytes) {
+        outputBytes.set(bytes);
+    }
+
+    private long allocatedByCurrentThread() {
+        return allocationCounter != null ? allocationCounter.getCurrentThreadAllocatedBytes() : 0;
+    }
+
+    final class StageSample {
+
+        private final Stage stage;
+        private final long startNanos;
+        private final long startAllocatedBytes;
+
+        private StageSample(Stage stage, long startNanos, long startAllocatedBytes) {
+            this.stage = stage;
+            this.startNanos = startNanos;
+            this.startAllocatedBytes = startAllocatedBytes;
+        }
+
+        void stop() {
+            timers.get(stage).record(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+            DistributionSummary allocated = allocatedBytes.get(stage);
+            if (allocated != null) {
+                allocated.record(allocatedByCurrentThread() - startAllocatedBytes);
+            }
+        }
+    }
+}
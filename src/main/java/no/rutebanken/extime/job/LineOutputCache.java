@@ -0,0 +1,386 @@
+package no.rutebanken.extime.job;
+
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import no.rutebanken.extime.model.AvailabilityPeriod;
+import no.rutebanken.extime.model.FlightRoute;
+import no.rutebanken.extime.model.LineDataSet;
+import no.rutebanken.extime.model.ScheduledFlight;
+import no.rutebanken.extime.model.ScheduledStopover;
+import no.rutebanken.extime.util.ExtimeException;
+import org.rutebanken.util.LocalDateTimeISO8601XmlAdapter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * The marshalled NeTEx of the lines of earlier exports on local disk, by a fingerprint of the line's input,
+ * so that a line whose flights did not change is neither converted nor marshalled again.
+ *
+ * <p>The fingerprint covers the line data set, but for its availability period, and the settings that
+ * shape the output. The ids of a delivery are only the same from one conversion to the next in a
+ * deterministic export, which the cache therefore implies. What does move daily, the publication timestamp
+ * and the availability period, is kept out of the fingerprint: a line is cached as a {@link LineTemplate},
+ * its bytes with the places of those values marked, and the values of the day are filled in when it is
+ * reused. An unchanged line is therefore reused by the exports of the following days, not only by a rerun.
+ *
+ * <p>The cache is bounded by size. A line read from it is touched, and {@link #evict()} deletes the lines
+ * least recently written or read until the cache fits. A cache that cannot be read or written costs a
+ * conversion, never the export.
+ */
+final class LineOutputCache {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(LineOutputCache.class);
+
+    private static final String ENTRY_SUFFIX = ".line";
+
+    private final Path directory;
+    private final long maxSizeBytes;
+
+    LineOutputCache(Path directory, long maxSizeBytes) {
+        this.directory = directory;
+        this.maxSizeBytes = maxSizeBytes;
+        try {
+            Files.createDirectories(directory);
+        } catch (IOException e) {
+            throw new ExtimeException("Could not create the NeTEx line cache " + directory, e);
+        }
+    }
+
+    /**
+     * @param outputSettings what else decides the bytes of a delivery, such as the output format.
+     */
+    static String fingerprint(LineDataSet lineDataSet, String outputSettings) {
+        Hasher hasher = Hashing.sha256().newHasher();
+        putString(hasher, outputSettings);
+        putString(hasher, lineDataSet.getAirlineIata());
+        putString(hasher, lineDataSet.getLineDesignation());
+        putString(hasher, lineDataSet.getLineName());
+
+        hasher.putInt(lineDataSet.getFlightRoutes().size());
+        for (FlightRoute flightRoute : lineDataSet.getFlightRoutes()) {
+            putString(hasher, flightRoute.routeDesignation());
+            putString(hasher, flightRoute.routeName());
+        }
+
+        // In iteration order, which is the order the journeys are written in.
+        hasher.putInt(lineDataSet.getRouteJourneys().size());
+        for (Map.Entry<String, Map<String, List<ScheduledFlight>>> route : lineDataSet.getRouteJourneys().entrySet()) {
+            putString(hasher, route.getKey());
+            hasher.putInt(route.getValue().size());
+            for (Map.Entry<String, List<ScheduledFlight>> flights : route.getValue().entrySet()) {
+                putString(hasher, flights.getKey());
+                hasher.putInt(flights.getValue().size());
+                for (ScheduledFlight flight : flights.getValue()) {
+                    putFlight(hasher, flight);
+                }
+            }
+        }
+        return hasher.hash().toString();
+    }
+
+    private static void putFlight(Hasher hasher, ScheduledFlight flight) {
+        putString(hasher, flight.getAirlineIATA());
+        putString(hasher, flight.getAirlineFlightId());
+        putString(hasher, flight.getRoutePattern().designation());
+        putString(hasher, flight.getArrivalAirportName());
+        putString(hasher, String.valueOf(flight.getDateOfOperation()));
+        putString(hasher, String.valueOf(flight.getTimeOfDeparture()));
+        putString(hasher, String.valueOf(flight.getTimeOfArrival()));
+        hasher.putInt(flight.getScheduledStopovers().size());
+        for (ScheduledStopover stopover : flight.getScheduledStopovers()) {
+            putString(hasher, stopover.getAirportIATA());
+            putString(hasher, String.valueOf(stopover.getArrivalTime()));
+            putString(hasher, String.valueOf(stopover.getDepartureTime()));
+        }
+    }
+
+    /**
+     * Length-prefixed, so that no two sequences of values hash the same bytes.
+     */
+    private static void putString(Hasher hasher, String value) {
+        if (value == null) {
+            hasher.putInt(-1);
+        } else {
+            hasher.putInt(value.length()).putString(value, StandardCharsets.UTF_8);
+        }
+    }
+
+    Optional<LineTemplate> get(String fingerprint) {
+        Path entry = directory.resolve(fingerprint + ENTRY_SUFFIX);
+        try (DataInputStream in = new DataInputStream(Files.newInputStream(entry))) {
+            String name = in.readUTF();
+            int slotCount = in.readInt();
+            List<Slot> slots = new ArrayList<>();
+            for (int i = 0; i < slotCount; i++) {
+                slots.add(new Slot(DayValue.valueOf(in.readUTF()), in.readInt(), in.readInt()));
+            }
+            LineTemplate line = new LineTemplate(name, in.readAllBytes(), slots);
+            if (!line.fits()) {
+                throw new IOException("The slots of the line " + name + " do not fit it");
+            }
+            Files.setLastModifiedTime(entry, FileTime.from(Instant.now()));
+            return Optional.of(line);
+        } catch (NoSuchFileException e) {
+            return Optional.empty();
+        } catch (IOException | IllegalArgumentException e) {
+            LOGGER.warn("Could not read {} from the NeTEx line cache, converting the line again", entry, e);
+            return Optional.empty();
+        }
+    }
+
+    /**
+     * Written aside and moved in place, so that a reader never sees half a line.
+     */
+    void put(String fingerprint, LineTemplate line) {
+        Path entry = directory.resolve(fingerprint + ENTRY_SUFFIX);
+        try {
+            ByteArrayOutputStream header = new ByteArrayOutputStream();
+            try (DataOutputStream out = new DataOutputStream(header)) {
+                out.writeUTF(line.name());
+                out.writeInt(line.slots().size());
+                for (Slot slot : line.slots()) {
+                    out.writeUTF(slot.value().name());
+                    out.writeInt(slot.offset());
+                    out.writeInt(slot.length());
+                }
+            }
+            Path written = Files.createTempFile(directory, fingerprint, ".tmp");
+            try {
+                Files.write(written, header.toByteArray());
+                Files.write(written, line.content(), StandardOpenOption.APPEND);
+                Files.move(written, entry, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } finally {
+                Files.deleteIfExists(written);
+            }
+        } catch (IOException e) {
+            LOGGER.warn("Could not write {} to the NeTEx line cache", entry, e);
+        }
+    }
+
+    /**
+     * Deletes the least recently used lines until the cache is within its size. Called between exports,
+     * when nothing is written to the cache.
+     */
+    void evict() {
+        List<CacheFile> files = new ArrayList<>();
+        try (Stream<Path> entries = Files.list(directory)) {
+            for (Path entry : entries.toList()) {
+                BasicFileAttributes attributes = Files.readAttributes(entry, BasicFileAttributes.class);
+                if (attributes.isRegularFile()) {
+                    files.add(new CacheFile(entry, attributes.size(), attributes.lastModifiedTime()));
+                }
+            }
+        } catch (IOException e) {
+            LOGGER.warn("Could not list the NeTEx line cache {}, leaving it as it is", directory, e);
+            return;
+        }
+
+        long size = files.stream().mapToLong(CacheFile::size).sum();
+        files.sort(Comparator.comparing(CacheFile::lastModified));
+        int evicted = 0;
+        for (CacheFile file : files) {
+            if (size <= maxSizeBytes) {
+                break;
+            }
+            try {
+                Files.deleteIfExists(file.path());
+                size -= file.size();
+                evicted++;
+            } catch (IOException e) {
+                LOGGER.warn("Could not evict {} from the NeTEx line cache", file.path(), e);
+            }
+        }
+        LOGGER.info("Evicted {} lines from the NeTEx line cache, which holds {} bytes", evicted, size);
+    }
+
+    /**
+     * A marshalled line and the name of its file, without extension.
+     */
+    record CachedLine(String name, byte[] content) {
+    }
+
+    /**
+     * The values of a line that move from one export day to the next, as the marshaller writes them.
+     */
+    enum DayValue {
+        PUBLICATION_TIMESTAMP, AVAILABLE_FROM, AVAILABLE_TO
+    }
+
+    /**
+     * The text of each {@link DayValue} of one export day, null for a value the line does not have.
+     */
+    record DayValues(String publicationTimestamp, String availableFrom, String availableTo) {
+
+        private static final LocalDateTimeISO8601XmlAdapter DATE_TIME_ADAPTER = new LocalDateTimeISO8601XmlAdapter();
+
+        /**
+         * @param publicationTimestamp the publication timestamp, in the time zone of the export.
+         */
+        static DayValues of(LocalDateTime publicationTimestamp, AvailabilityPeriod availabilityPeriod) {
+            return new DayValues(
+                    format(publicationTimestamp),
+                    availabilityPeriod != null ? format(availabilityPeriod.periodFromDateTime()) : null,
+                    availabilityPeriod != null ? format(availabilityPeriod.periodToDateTime()) : null);
+        }
+
+        /**
+         * Through the adapter the NeTEx model marshals its date-times with, so that the text is the
+         * marshaller's to the byte.
+         */
+        private static String format(LocalDateTime dateTime) {
+            try {
+                return DATE_TIME_ADAPTER.marshal(dateTime);
+            } catch (Exception e) {
+                throw new ExtimeException("Could not format " + dateTime + " as NeTEx does", e);
+            }
+        }
+
+        String text(DayValue value) {
+            return switch (value) {
+                case PUBLICATION_TIMESTAMP -> publicationTimestamp;
+                case AVAILABLE_FROM -> availableFrom;
+                case AVAILABLE_TO -> availableTo;
+            };
+        }
+    }
+
+    /**
+     * Where a {@link DayValue} is written in a line, in bytes.
+     */
+    record Slot(DayValue value, int offset, int length) {
+    }
+
+    /**
+     * A marshalled line with the places of its {@link DayValue}s, which the values of another day can be
+     * filled into.
+     *
+     * <p>The values are found by where the converter writes them: the publication timestamp as the
+     * {@code PublicationTimestamp} and as the {@code created} and {@code changed} attributes, the
+     * availability period as the dates of the {@code AvailabilityCondition}. A line is only made a
+     * template if every value found there is the one of the day it was converted on, and if the values
+     * of that day appear nowhere else in the line, so that a value written anywhere else, or in another
+     * way, makes the line uncacheable rather than stale. A date of the line's own that happens to be one
+     * of the day's costs the caching of the line too, as the two cannot be told apart.
+     */
+    record LineTemplate(String name, byte[] content, List<Slot> slots) {
+
+        private static final Pattern PUBLICATION_TIMESTAMP =
+                Pattern.compile("<(?:[\\w.-]+:)?PublicationTimestamp>([^<]*)<|\\s(?:created|changed)=\"([^\"]*)\"");
+        private static final Pattern AVAILABILITY_CONDITION = Pattern.compile(
+                "<((?:[\\w.-]+:)?AvailabilityCondition)[\\s>].*?</\\1>", Pattern.DOTALL);
+        private static final Pattern AVAILABLE_FROM = Pattern.compile("<(?:[\\w.-]+:)?FromDate>([^<]*)<");
+        private static final Pattern AVAILABLE_TO = Pattern.compile("<(?:[\\w.-]+:)?ToDate>([^<]*)<");
+
+        /**
+         * @param dayValues the values of the day the line was converted on.
+         * @return the line as a template, or empty if its day values are not all where they were looked for.
+         */
+        static Optional<LineTemplate> of(CachedLine line, DayValues dayValues) {
+            // One char per byte, so that the offsets in the text are those in the bytes.
+            String text = new String(line.content(), StandardCharsets.ISO_8859_1);
+            List<Slot> slots = new ArrayList<>();
+            Matcher timestamps = PUBLICATION_TIMESTAMP.matcher(text);
+            while (timestamps.find()) {
+                int group = timestamps.start(1) >= 0 ? 1 : 2;
+                slots.add(new Slot(DayValue.PUBLICATION_TIMESTAMP, timestamps.start(group),
+                        timestamps.end(group) - timestamps.start(group)));
+            }
+            Matcher conditions = AVAILABILITY_CONDITION.matcher(text);
+            while (conditions.find()) {
+                addSlot(slots, DayValue.AVAILABLE_FROM, AVAILABLE_FROM.matcher(text).region(conditions.start(), conditions.end()));
+                addSlot(slots, DayValue.AVAILABLE_TO, AVAILABLE_TO.matcher(text).region(conditions.start(), conditions.end()));
+            }
+            slots.sort(Comparator.comparingInt(Slot::offset));
+
+            boolean published = slots.stream().anyMatch(slot -> slot.value() == DayValue.PUBLICATION_TIMESTAMP);
+            boolean ofTheDay = slots.stream().allMatch(slot -> text.substring(slot.offset(), slot.offset() + slot.length())
+                    .equals(dayValues.text(slot.value())));
+            Map<String, Long> slotsByText = slots.stream()
+                    .collect(Collectors.groupingBy(slot -> dayValues.text(slot.value()), Collectors.counting()));
+            boolean onlyInSlots = ofTheDay && Stream.of(DayValue.values())
+                    .map(dayValues::text)
+                    .filter(Objects::nonNull)
+                    .distinct()
+                    .allMatch(dayText -> occurrences(text, dayText) == slotsByText.getOrDefault(dayText, 0L));
+            return published && onlyInSlots
+                    ? Optional.of(new LineTemplate(line.name(), line.content(), List.copyOf(slots)))
+                    : Optional.empty();
+        }
+
+        private static long occurrences(String text, String value) {
+            long occurrences = 0;
+            for (int from = text.indexOf(value); from >= 0; from = text.indexOf(value, from + value.length())) {
+                occurrences++;
+            }
+            return occurrences;
+        }
+
+        private static void addSlot(List<Slot> slots, DayValue value, Matcher matcher) {
+            if (matcher.find()) {
+                slots.add(new Slot(value, matcher.start(1), matcher.end(1) - matcher.start(1)));
+            }
+        }
+
+        /**
+         * @return the line of the day, or empty if the day has no value for one of its slots.
+         */
+        Optional<CachedLine> fill(DayValues dayValues) {
+            ByteArrayOutputStream filled = new ByteArrayOutputStream(content.length + 64);
+            int position = 0;
+            for (Slot slot : slots) {
+                String text = dayValues.text(slot.value());
+                if (text == null) {
+                    return Optional.empty();
+                }
+                filled.write(content, position, slot.offset() - position);
+                filled.writeBytes(text.getBytes(StandardCharsets.UTF_8));
+                position = slot.offset() + slot.length();
+            }
+            filled.write(content, position, content.length - position);
+            return Optional.of(new CachedLine(name, filled.toByteArray()));
+        }
+
+        /**
+         * @return whether the slots are in order and within the content, as they are in a template this
+         * class wrote.
+         */
+        private boolean fits() {
+            int position = 0;
+            for (Slot slot : slots) {
+                if (slot.offset() < position || slot.length() < 0 || slot.offset() + slot.length() > content.length) {
+                    return false;
+                }
+                position = slot.offset() + slot.length();
+            }
+            return true;
+        }
+    }
+
+    private record CacheFile(Path path, long size, FileTime lastModified) {
+    }
+}
@@ -1,5 +1,8 @@
 package no.rutebanken.extime.job;
 
+import com.google.common.hash.Hashing;
+import com.google.common.io.CountingOutputStream;
+import com.google.common.io.MoreFiles;
 import io.micrometer.core.instrument.MeterRegistry;
 import io.micrometer.core.instrument.Timer;
 import jakarta.xml.bind.JAXBElement;
@@ -7,14 +10,24 @@ import no.rutebanken.extime.avinor.FlightEventFetcher;
 import no.rutebanken.extime.converter.CommonDataToNetexConverter;
 import no.rutebanken.extime.converter.LineDataToNetexConverter;
 import no.rutebanken.extime.converter.ScheduledFlightConverter;
+import no.rutebanken.extime.job.ExportMetrics.Stage;
+import no.rutebanken.extime.job.LineOutputCache.CachedLine;
+import no.rutebanken.extime.job.LineOutputCache.DayValues;
+import no.rutebanken.extime.job.LineOutputCache.LineTemplate;
 import no.rutebanken.extime.model.FlightEvent;
+import no.rutebanken.extime.model.FlightLeg;
+import no.rutebanken.extime.model.FlightLegMapper;
 import no.rutebanken.extime.model.LineDataSet;
 import no.rutebanken.extime.netex.NetexMarshaller;
+import no.rutebanken.extime.netex.StreamedDelivery;
 import no.rutebanken.extime.pubsub.MardukNotifier;
 import no.rutebanken.extime.services.MardukExchangeBlobStoreService;
 import no.rutebanken.extime.stop.StopAreaRepository;
 import no.rutebanken.extime.util.AvinorTimetableUtils;
 import no.rutebanken.extime.util.DateUtils;
+import no.rutebanken.extime.util.DeterministicConversion;
+import no.rutebanken.extime.util.DeflatedZipWriter;
+import no.rutebanken.extime.util.DeflatedZipWriter.DeflatedEntry;
 import no.rutebanken.extime.util.ExtimeException;
 import no.rutebanken.extime.util.Retry;
 import no.rutebanken.extime.util.RetrySettings;
@@ -22,17 +35,40 @@ import org.rutebanken.netex.model.PublicationDeliveryStructure;
 import org.rutebanken.netex.model.Quay;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.ObjectProvider;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.info.BuildProperties;
 import org.springframework.stereotype.Component;
+import org.springframework.util.unit.DataSize;
 
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Supplier;
 import java.util.stream.Stream;
 
 /**
@@ -50,6 +86,11 @@ public class TimetableExportJob {
 
     private static final String COMMON_ELEMENTS_FILENAME = "_avinor_common_elements";
     private static final String NETEX_ARCHIVE_PREFIX = "avinor-netex_";
+    private static final String PUBLISHED_DIGEST_FILENAME = "avinor-netex.sha256";
+    /** The earliest time a zip entry can hold, for the entries of a deterministic archive. */
+    private static final LocalDateTime DETERMINISTIC_ENTRY_TIME = LocalDateTime.of(1980, 1, 1, 0, 0);
+    private static final Comparator<LineDataSet> LINE_ORDER =
+            Comparator.comparing(LineDataSet::getAirlineIata).thenComparing(LineDataSet::getLineDesignation);
 
     private final StopAreaRepository stopAreaRepository;
     private final FlightEventFetcher flightEventFetcher;
@@ -63,8 +104,19 @@ public class TimetableExportJob {
     private final DateUtils dateUtils;
     private final RetrySettings retrySettings;
     private final Path generatedOutputPath;
+    private final Path compressedOutputPath;
     private final String blobPath;
+    private final int convertThreads;
+    private final boolean streamingExport;
+    private final boolean pipedUpload;
+    private final boolean streamedJourneys;
+    private final int compressionLevel;
+    private final boolean deterministicPublication;
+    private final LineOutputCache lineOutputCache;
+    private final String lineCacheSettings;
+    private final FlightLegMapper flightLegMapper = new FlightLegMapper();
     private final Timer exportTimer;
+    private final ExportMetrics exportMetrics;
     private final MeterRegistry meterRegistry;
     private final AtomicBoolean running = new AtomicBoolean();
 
@@ -82,8 +134,18 @@ public class TimetableExportJob {
             DateUtils dateUtils,
             RetrySettings retrySettings,
             MeterRegistry meterRegistry,
+            ObjectProvider<BuildProperties> buildProperties,
             @Value("${netex.generated.output.path}") String generatedOutputPath,
-            @Value("${blobstore.blob.path}") String blobPath) {
+            @Value("${netex.compressed.output.path}") String compressedOutputPath,
+            @Value("${blobstore.blob.path}") String blobPath,
+            @Value("${extime.timetable.convert.threads:0}") int convertThreads,
+            @Value("${extime.netex.export.streaming:false}") boolean streamingExport,
+            @Value("${extime.netex.upload.piped:false}") boolean pipedUpload,
+            @Value("${extime.netex.journeys.streamed:false}") boolean streamedJourneys,
+            @Value("${extime.netex.compression.level:-1}") int compressionLevel,
+            @Value("${extime.netex.publication.deterministic:false}") boolean deterministicPublication,
+            @Value("${extime.netex.line.cache.path:}") String lineCachePath,
+            @Value("${extime.netex.line.cache.max.size:512MB}") DataSize lineCacheMaxSize) {
         this.stopAreaRepository = stopAreaRepository;
         this.flightEventFetcher = flightEventFetcher;
         this.scheduledFlightConverter = scheduledFlightConverter;
@@ -97,10 +159,28 @@ public class TimetableExportJob {
         this.retrySettings = retrySettings;
         this.meterRegistry = meterRegistry;
         this.generatedOutputPath = Path.of(generatedOutputPath);
+        this.compressedOutputPath = Path.of(compressedOutputPath);
         this.blobPath = blobPath;
+        this.convertThreads = convertThreads > 0 ? convertThreads : Runtime.getRuntime().availableProcessors();
+        this.streamingExport = streamingExport;
+        this.pipedUpload = pipedUpload;
+        this.streamedJourneys = streamedJourneys;
+        this.compressionLevel = compressionLevel;
+        BuildProperties build = buildProperties.getIfAvailable();
+        if (!lineCachePath.isBlank() && build == null) {
+            LOGGER.warn("No build info to tell the lines of this build from those of another, converting every line"
+                    + " rather than using the NeTEx line cache {}", lineCachePath);
+        }
+        this.lineOutputCache = lineCachePath.isBlank() || build == null
+                ? null
+                : new LineOutputCache(Path.of(lineCachePath), lineCacheMaxSize.toBytes());
+        this.lineCacheSettings = lineOutputCache != null ? lineCacheSettings(build) : null;
+        // A cached line is only the line converted again if its ids are drawn the same way.
+        this.deterministicPublication = deterministicPublication || lineOutputCache != null;
         this.exportTimer = Timer.builder("extime.timetable.export")
                 .description("Duration of a complete Avinor timetable export")
                 .register(meterRegistry);
+        this.exportMetrics = new ExportMetrics(meterRegistry);
     }
 
     /**
@@ -131,17 +211,33 @@ public class TimetableExportJob {
         String correlationId = UUID.randomUUID().toString();
         LOGGER.info("Starting the Avinor timetable export, correlationId={}", correlationId);
         try {
-            Map<String, Quay> nsrQuayMap = stopAreaRepository.loadQuayMap();
-            List<FlightEvent> flightEvents = flightEventFetcher.fetchFlightEvents();
+            Map<String, Quay> nsrQuayMap = exportMetrics.record(Stage.STOPS, stopAreaRepository::loadQuayMap);
+            List<FlightEvent> flightEvents = exportMetrics.record(Stage.FETCH, flightEventFetcher::fetchFlightEvents);
+            exportMetrics.flightEvents(flightEvents.size());
 
             LOGGER.info("Converting to line centric flight data sets");
-            List<LineDataSet> lineDataSets =
-                    scheduledFlightConverter.convertFlightEventsToLineCentricDataSets(flightEvents);
+            List<FlightLeg> flightLegs = exportMetrics.record(Stage.LEGS, () -> flightLegMapper.map(flightEvents));
+            exportMetrics.flightLegs(flightLegs.size());
+            List<LineDataSet> lineDataSets = exportMetrics.record(Stage.LINES,
+                    () -> scheduledFlightConverter.convertFlightLegsToLineCentricDataSets(flightLegs));
+            exportMetrics.lineDataSets(lineDataSets.size());
+            if (deterministicPublication) {
+                lineDataSets = lineDataSets.stream().sorted(LINE_ORDER).toList();
+            }
 
-            cleanOutputDirectory();
-            convertCommonDataToNetex(nsrQuayMap);
-            convertLineDataSetsToNetex(lineDataSets);
-            compressAndSendToStorage(correlationId);
+            String archiveName = NETEX_ARCHIVE_PREFIX + dateUtils.timestamp() + ".zip";
+            // The digest of a piped archive is only known once it is uploaded, too late to skip the upload.
+            if (pipedUpload && !deterministicPublication) {
+                pipeToStorage(archiveName, nsrQuayMap, lineDataSets, correlationId);
+            } else {
+                Path archive = streamingExport
+                        ? writeArchive(archiveName, nsrQuayMap, lineDataSets)
+                        : writeFilesAndCompress(archiveName, nsrQuayMap, lineDataSets);
+                sendToStorage(archiveName, archive, correlationId);
+            }
+            if (lineOutputCache != null) {
+                lineOutputCache.evict();
+            }
 
             meterRegistry.counter("extime.timetable.export.result", "result", "success").increment();
             LOGGER.info("Finished the Avinor timetable export, correlationId={}", correlationId);
@@ -155,6 +251,22 @@ public class TimetableExportJob {
         }
     }
 
+    private Path writeFilesAndCompress(String archiveName, Map<String, Quay> nsrQuayMap, List<LineDataSet> lineDataSets) {
+        cleanOutputDirectory();
+        convertCommonDataToNetex(nsrQuayMap);
+        convertLineDataSetsToNetex(lineDataSets);
+
+        LOGGER.info("Compressing XML files");
+        Path archive = exportMetrics.record(Stage.COMPRESS, () -> avinorTimetableUtils.compressNetexFiles(archiveName, entryTime()));
+        LOGGER.info("Done compressing all files to zip archive : {}", archiveName);
+        try {
+            exportMetrics.outputBytes(Files.size(archive));
+        } catch (IOException e) {
+            throw new ExtimeException("Could not read the size of the NeTEx archive " + archive, e);
+        }
+        return archive;
+    }
+
     /**
      * The archive is built by globbing this directory, so a file left behind from an earlier run ships as
      * part of today's dataset. If it belongs to a line that no longer exists, nothing overwrites it and
@@ -177,33 +289,327 @@ public class TimetableExportJob {
 
     private void convertCommonDataToNetex(Map<String, Quay> nsrQuayMap) {
         LOGGER.info("Converting common aviation data to NeTEx");
-        JAXBElement<PublicationDeliveryStructure> commonData =
-                commonDataToNetexConverter.convertToNetex(nsrQuayMap);
-        netexMarshaller.marshalToFile(commonData, generatedOutputPath.resolve(COMMON_ELEMENTS_FILENAME + ".xml"));
+        publish(COMMON_ELEMENTS_FILENAME, () -> {
+            JAXBElement<PublicationDeliveryStructure> commonData =
+                    exportMetrics.record(Stage.COMMON, () -> commonDataToNetexConverter.convertToNetex(nsrQuayMap));
+            exportMetrics.record(Stage.MARSHAL, () ->
+                    netexMarshaller.marshalToFile(commonData, generatedOutputPath.resolve(COMMON_ELEMENTS_FILENAME + ".xml")));
+            return null;
+        });
     }
 
+    /**
+     * Lines are independent of each other, each one a file of its own, so they are converted and written
+     * in parallel on {@code extime.timetable.convert.threads}, by default one per available processor.
+     * Each task drops its object tree once the file is written, so at most one tree per thread is held.
+     *
+     * <p>As with the fetch, a line that fails fails the export: a dataset missing a line would replace
+     * the previous one in marduk. The lines not yet started are cancelled rather than converted for
+     * nothing.
+     */
     private void convertLineDataSetsToNetex(List<LineDataSet> lineDataSets) {
-        LOGGER.info("Converting line centric data sets to NeTEx");
-        for (LineDataSet lineDataSet : lineDataSets) {
+        LOGGER.info("Converting {} line centric data sets to NeTEx on {} threads", lineDataSets.size(), convertThreads);
+        List<Future<?>> pending = new ArrayList<>(lineDataSets.size());
+        try (ExecutorService executor = newConvertExecutor()) {
+            try {
+                for (LineDataSet lineDataSet : lineDataSets) {
+                    pending.add(executor.submit(() -> convertLineDataSetToFile(lineDataSet)));
+                }
+                pending.forEach(TimetableExportJob::await);
+            } catch (RuntimeException e) {
+                // Before the executor's close, which would otherwise wait for every line to be converted.
+                pending.forEach(conversion -> conversion.cancel(true));
+                throw e;
+            }
+        }
+    }
+
+    private void convertLineDataSetToFile(LineDataSet lineDataSet) {
+        if (lineOutputCache != null) {
+            CachedLine line = cachedLine(lineDataSet);
+            Path file = generatedOutputPath.resolve(line.name() + ".xml");
+            try {
+                Files.write(file, line.content());
+            } catch (IOException e) {
+                throw new ExtimeException("Could not write the NeTEx file " + file, e);
+            }
+            return;
+        }
+        publish(lineKey(lineDataSet), () -> {
+            StreamedDelivery lineData = convertLineDataSet(lineDataSet);
+            String filename = avinorTimetableUtils.generateFilename(lineData.publicationDelivery());
+            exportMetrics.record(Stage.MARSHAL, () ->
+                    netexMarshaller.marshalToFile(lineData, generatedOutputPath.resolve(filename + ".xml")));
+            return null;
+        });
+    }
+
+    /**
+     * Converts and marshals a delivery, which with {@code extime.netex.publication.deterministic} draws
+     * its ids from a sequence seeded by {@code key} and is published at the start of the day, so that an
+     * unchanged line makes the same file. The marshalling is included, as streamed content draws ids too.
+     */
+    private <T> T publish(String key, Supplier<T> delivery) {
+        return deterministicPublication
+                ? DeterministicConversion.run(key, dateUtils.startOfExportDay(), delivery)
+                : delivery.get();
+    }
+
+    /**
+     * With {@code extime.netex.line.cache.path}, a line whose input was marshalled before is taken from the
+     * cache with the publication timestamp and availability period of the day filled in, and any other line
+     * is converted and marshalled to bytes and added to it.
+     */
+    private CachedLine cachedLine(LineDataSet lineDataSet) {
+        Instant publicationTimestamp = dateUtils.startOfExportDay();
+        DayValues dayValues = DayValues.of(dateUtils.toExportLocalDateTime(publicationTimestamp),
+                lineDataSet.getAvailabilityPeriod());
+        String fingerprint = LineOutputCache.fingerprint(lineDataSet, lineCacheSettings);
+        Optional<CachedLine> cached = lineOutputCache.get(fingerprint).flatMap(template -> template.fill(dayValues));
+        meterRegistry.counter("extime.timetable.export.line.cache", "result", cached.isPresent() ? "hit" : "miss")
+                .increment();
+        return cached.orElseGet(() -> {
+            CachedLine line = DeterministicConversion.run(lineKey(lineDataSet), publicationTimestamp, () -> {
+                StreamedDelivery lineData = convertLineDataSet(lineDataSet);
+                ByteArrayOutputStream content = new ByteArrayOutputStream();
+                exportMetrics.record(Stage.MARSHAL, () -> netexMarshaller.marshal(lineData, content));
+                return new CachedLine(avinorTimetableUtils.generateFilename(lineData.publicationDelivery()),
+                        content.toByteArray());
+            });
+            LineTemplate.of(line, dayValues).ifPresentOrElse(
+                    template -> lineOutputCache.put(fingerprint, template),
+                    () -> LOGGER.warn("Not caching the line {}: its day values are not all where the NeTEx line cache"
+                            + " looks for them", line.name()));
+            return line;
+        });
+    }
+
+    /**
+     * What shapes the bytes of a line besides its input. The build keeps a line cached by an earlier
+     * release, which may have converted it differently, from being reused after a deploy: its time as well
+     * as its version, so that two builds of one snapshot version are told apart too.
+     */
+    private String lineCacheSettings(BuildProperties build) {
+        return "build=" + build.getVersion() + "@" + build.getTime()
+                + ",compact=" + netexMarshaller.isCompactOutput()
+                + ",streamed=" + streamedJourneys;
+    }
+
+    private static String lineKey(LineDataSet lineDataSet) {
+        return lineDataSet.getAirlineIata() + "-" + lineDataSet.getLineDesignation();
+    }
+
+    private LocalDateTime entryTime() {
+        return deterministicPublication ? DETERMINISTIC_ENTRY_TIME : LocalDateTime.now();
+    }
+
+    /**
+     * With {@code extime.netex.journeys.streamed}, the service journeys and day types are left out of the
+     * delivery and written as it is marshalled, so that part of the conversion is timed as marshalling.
+     */
+    private StreamedDelivery convertLineDataSet(LineDataSet lineDataSet) {
+        return exportMetrics.record(Stage.CONVERT, () -> {
             lineDataSet.setAirlineName(scheduledFlightConverter.resolveAirlineName(lineDataSet.getAirlineIata()));
-            JAXBElement<PublicationDeliveryStructure> lineData =
-                    lineDataToNetexConverter.convertToNetex(lineDataSet);
-            String filename = avinorTimetableUtils.generateFilename(lineData);
-            netexMarshaller.marshalToFile(lineData, generatedOutputPath.resolve(filename + ".xml"));
+            return streamedJourneys
+                    ? lineDataToNetexConverter.convertToStreamedNetex(lineDataSet)
+                    : StreamedDelivery.of(lineDataToNetexConverter.convertToNetex(lineDataSet));
+        });
+    }
+
+    /**
+     * The streaming alternative to {@link #writeFilesAndCompress}: each publication delivery is marshalled
+     * straight into its entry of the archive, so nothing is written to {@code netex.generated.output.path}
+     * or read back from it, and no file left behind by an earlier run can end up in the archive.
+     */
+    private Path writeArchive(String archiveName, Map<String, Quay> nsrQuayMap, List<LineDataSet> lineDataSets) {
+        LOGGER.info("Converting to NeTEx straight into the zip archive : {}", archiveName);
+        Path archive = compressedOutputPath.resolve(archiveName);
+        try {
+            Files.createDirectories(compressedOutputPath);
+            writeNetexArchive(nsrQuayMap, lineDataSets, new BufferedOutputStream(Files.newOutputStream(archive)));
+        } catch (IOException e) {
+            throw new ExtimeException("Could not write the NeTEx archive " + archive, e);
         }
+        LOGGER.info("Done writing zip archive : {}", archiveName);
+        return archive;
     }
 
-    private void compressAndSendToStorage(String correlationId) {
-        LOGGER.info("Compressing XML files and send to storage");
-        String archiveName = NETEX_ARCHIVE_PREFIX + dateUtils.timestamp() + ".zip";
-        Path archive = avinorTimetableUtils.compressNetexFiles(archiveName);
-        LOGGER.info("Done compressing all files to zip archive : {}", archiveName);
+    private void writeNetexArchive(Map<String, Quay> nsrQuayMap, List<LineDataSet> lineDataSets, OutputStream out)
+            throws IOException {
+        CountingOutputStream counted = new CountingOutputStream(out);
+        try (DeflatedZipWriter zip = new DeflatedZipWriter(counted, entryTime())) {
+            writeNetexEntries(nsrQuayMap, lineDataSets, zip);
+        }
+        exportMetrics.outputBytes(counted.getCount());
+    }
+
+    /**
+     * Lines are still converted, marshalled and deflated in parallel, each to a byte array, and written in
+     * their order on this thread, which is the only one touching the zip stream. At most two lines per thread
+     * are in flight, so a slow line holds back a bounded number of finished ones rather than all of them.
+     */
+    private void writeNetexEntries(Map<String, Quay> nsrQuayMap, List<LineDataSet> lineDataSets, DeflatedZipWriter zip)
+            throws IOException {
+        Set<String> entryNames = new HashSet<>();
+        LOGGER.info("Converting common aviation data to NeTEx");
+        writeEntry(zip, entryNames, publish(COMMON_ELEMENTS_FILENAME, () -> toEntry(COMMON_ELEMENTS_FILENAME,
+                exportMetrics.record(Stage.COMMON, () -> commonDataToNetexConverter.convertToNetex(nsrQuayMap)))));
 
+        LOGGER.info("Converting {} line centric data sets to NeTEx on {} threads", lineDataSets.size(), convertThreads);
+        Deque<Future<DeflatedEntry>> pending = new ArrayDeque<>();
+        try (ExecutorService executor = newConvertExecutor()) {
+            try {
+                Iterator<LineDataSet> remaining = lineDataSets.iterator();
+                while (remaining.hasNext() || !pending.isEmpty()) {
+                    while (remaining.hasNext() && pending.size() < 2 * convertThreads) {
+                        LineDataSet lineDataSet = remaining.next();
+                        pending.add(executor.submit(() -> convertLineDataSetToEntry(lineDataSet)));
+                    }
+                    writeEntry(zip, entryNames, await(pending.removeFirst()));
+                }
+            } catch (IOException | RuntimeException e) {
+                pending.forEach(conversion -> conversion.cancel(true));
+                throw e;
+            }
+        }
+    }
+
+    private DeflatedEntry convertLineDataSetToEntry(LineDataSet lineDataSet) {
+        if (lineOutputCache != null) {
+            CachedLine line = cachedLine(lineDataSet);
+            return exportMetrics.record(Stage.COMPRESS, () ->
+                    DeflatedZipWriter.deflate(line.name() + ".xml", line.content(), compressionLevel));
+        }
+        return publish(lineKey(lineDataSet), () -> {
+            StreamedDelivery lineData = convertLineDataSet(lineDataSet);
+            return toEntry(avinorTimetableUtils.generateFilename(lineData.publicationDelivery()), lineData);
+        });
+    }
+
+    private DeflatedEntry toEntry(String filename, JAXBElement<PublicationDeliveryStructure> publicationDelivery) {
+        return toEntry(filename, StreamedDelivery.of(publicationDelivery));
+    }
+
+    /**
+     * Deflating happens here, on the thread that marshalled the entry, so this is the compression stage of
+     * the streaming export.
+     */
+    private DeflatedEntry toEntry(String filename, StreamedDelivery publicationDelivery) {
+        ByteArrayOutputStream content = new ByteArrayOutputStream();
+        exportMetrics.record(Stage.MARSHAL, () -> netexMarshaller.marshal(publicationDelivery, content));
+        return exportMetrics.record(Stage.COMPRESS, () ->
+                DeflatedZipWriter.deflate(filename + ".xml", content.toByteArray(), compressionLevel));
+    }
+
+    /**
+     * Two lines with the same file name overwrite each other in the output directory, and which one
+     * survives depends on which thread finishes last. A zip cannot hold both either, so the export fails
+     * with the name rather than with an archive holding the name twice.
+     */
+    private void writeEntry(DeflatedZipWriter zip, Set<String> entryNames, DeflatedEntry entry) throws IOException {
+        if (!entryNames.add(entry.name())) {
+            throw new ExtimeException("More than one NeTEx file named " + entry.name());
+        }
+        zip.write(entry);
+    }
+
+    private ExecutorService newConvertExecutor() {
+        return Executors.newFixedThreadPool(convertThreads, Thread.ofPlatform().name("netex-convert-", 0).factory());
+    }
+
+    /**
+     * Rethrows a conversion's failure as it was thrown. Cancelling the other conversions is left to the
+     * caller, which knows which ones are still pending.
+     */
+    private static <T> T await(Future<T> conversion) {
+        try {
+            return conversion.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ExtimeException("Interrupted while converting line data sets to NeTEx", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException cause) {
+                throw cause;
+            }
+            throw new ExtimeException("Could not convert a line data set to NeTEx", e.getCause());
+        }
+    }
+
+    private void sendToStorage(String archiveName, Path archive, String correlationId) {
+        String digest = deterministicPublication ? digestOf(archive) : null;
+        if (digest != null && digest.equals(publishedDigest())) {
+            LOGGER.info("The NeTEx archive {} is the one last published, sha256={}, skipping its upload and the notification of marduk",
+                    archiveName, digest);
+            meterRegistry.counter("extime.timetable.export.unchanged").increment();
+            return;
+        }
+
+        LOGGER.info("Sending zip archive to storage : {}", archiveName);
         String fileHandle = blobPath + archiveName;
-        Retry.withRetry(retrySettings, "Uploading " + fileHandle, () -> uploadBlob(fileHandle, archive));
+        exportMetrics.record(Stage.UPLOAD, () ->
+                Retry.withRetry(retrySettings, "Uploading " + fileHandle, () -> uploadBlob(fileHandle, archive)));
         LOGGER.info("Done storage upload of file : {}", archiveName);
 
-        mardukNotifier.notifyMarduk(archiveName, fileHandle, correlationId);
+        exportMetrics.record(Stage.NOTIFY, () -> mardukNotifier.notifyMarduk(archiveName, fileHandle, correlationId));
+
+        if (digest != null) {
+            // Only once marduk was told: an archive that was uploaded but never announced is not published.
+            Retry.withRetry(retrySettings, "Recording the published digest", () ->
+                    mardukExchangeBlobStoreService.replaceBlob(blobPath + PUBLISHED_DIGEST_FILENAME,
+                            new ByteArrayInputStream(digest.getBytes(StandardCharsets.US_ASCII))));
+        }
+    }
+
+    /**
+     * The archive of a deterministic export depends on nothing but the NeTEx it holds, so its digest
+     * stands for its content, and an archive with the digest last published has nothing new for marduk.
+     */
+    private static String digestOf(Path archive) {
+        try {
+            return MoreFiles.asByteSource(archive).hash(Hashing.sha256()).toString();
+        } catch (IOException e) {
+            throw new ExtimeException("Could not read the NeTEx archive " + archive, e);
+        }
+    }
+
+    /**
+     * @return the digest of the archive last published, null if none was recorded.
+     */
+    private String publishedDigest() {
+        String digestHandle = blobPath + PUBLISHED_DIGEST_FILENAME;
+        return Retry.withRetry(retrySettings, "Reading " + digestHandle, () -> {
+            try (InputStream in = mardukExchangeBlobStoreService.getBlob(digestHandle)) {
+                return in != null ? new String(in.readAllBytes(), StandardCharsets.US_ASCII).trim() : null;
+            }
+        });
+    }
+
+    /**
+     * Uploads the archive while it is being written, which implies the streaming export: compression
+     * overlaps the network and the archive never touches disk.
+     *
+     * <p>A piped upload cannot be replayed, so it gets a single attempt. If that fails, the archive is
+     * written to {@code netex.compressed.output.path} after all, converted again since nothing of the
+     * first pass was kept, and the upload retried from the file as usual. A failed conversion is not
+     * retried: it fails the export as it would have without the pipe.
+     *
+     * <p>The upload stage is timed over the whole transfer, so with the pipe it spans the conversion it
+     * overlaps.
+     */
+    private void pipeToStorage(String archiveName, Map<String, Quay> nsrQuayMap, List<LineDataSet> lineDataSets,
+                               String correlationId) {
+        String fileHandle = blobPath + archiveName;
+        LOGGER.info("Piping zip archive to storage : {}", archiveName);
+        try {
+            exportMetrics.record(Stage.UPLOAD, () -> ArchivePipe.transfer(
+                    out -> writeNetexArchive(nsrQuayMap, lineDataSets, out),
+                    in -> mardukExchangeBlobStoreService.uploadBlob(fileHandle, in)));
+            LOGGER.info("Done storage upload of file : {}", archiveName);
+            exportMetrics.record(Stage.NOTIFY, () -> mardukNotifier.notifyMarduk(archiveName, fileHandle, correlationId));
+        } catch (ArchivePipe.ReadFailedException e) {
+            LOGGER.warn("Piped upload of {} failed, writing the archive to disk to retry it", fileHandle, e.getCause());
+            sendToStorage(archiveName, writeArchive(archiveName, nsrQuayMap, lineDataSets), correlationId);
+        }
     }
 
     private void uploadBlob(String fileHandle, Path archive) throws IOException {
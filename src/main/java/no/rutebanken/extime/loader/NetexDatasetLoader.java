@@ -1,18 +1,35 @@
 package no.rutebanken.extime.loader;
 
 import no.rutebanken.extime.util.ExtimeException;
+import org.apache.commons.io.input.CloseShieldInputStream;
 import org.entur.netex.NetexParser;
 import org.entur.netex.index.api.NetexEntitiesIndex;
 import org.entur.netex.index.impl.NetexEntitiesIndexImpl;
+import org.rutebanken.netex.model.KeyListStructure;
+import org.rutebanken.netex.model.KeyValueStructure;
+import org.rutebanken.netex.model.Quay;
 
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipInputStream;
 
+import static javax.xml.stream.XMLStreamConstants.END_ELEMENT;
+import static javax.xml.stream.XMLStreamConstants.START_ELEMENT;
+
 public class NetexDatasetLoader {
 
+    private static final String NETEX_NAMESPACE = "http://www.netex.org.uk/netex";
+
+    private static final XMLInputFactory XML_INPUT_FACTORY = createXmlInputFactory();
+
     public NetexEntitiesIndex load(InputStream timetableDataset) {
         try (ZipInputStream zipInputStream = new ZipInputStream(timetableDataset)) {
             NetexEntitiesIndex index = new NetexEntitiesIndexImpl();
@@ -42,4 +59,116 @@ public class NetexDatasetLoader {
             zipEntry = zipInputStream.getNextEntry();
         }
     }
+
+    /**
+     * Reads the quays of a NeTEx archive and nothing else.
+     *
+     * <p>{@link #load} builds every entity of the archive into an index, from a copy of each entry in
+     * memory, when the stop export needs the quays' ids and key lists only. This streams each entry
+     * through StAX instead and keeps one small {@link Quay} per quay id.
+     *
+     * @return the latest version of each quay, carrying its id, version and key list and nothing else.
+     */
+    public Collection<Quay> loadQuays(InputStream stopDataset) {
+        Map<String, Quay> latestQuays = new HashMap<>();
+        try (ZipInputStream zipInputStream = new ZipInputStream(stopDataset)) {
+            //NOSONAR
+            for (ZipEntry zipEntry = zipInputStream.getNextEntry(); zipEntry != null; zipEntry = zipInputStream.getNextEntry()) {
+                readQuays(CloseShieldInputStream.wrap(zipInputStream), latestQuays);
+            }
+        } catch (IOException | XMLStreamException e) {
+            throw new ExtimeException("Error while parsing the quays of the NeTEx stop dataset", e);
+        }
+        return latestQuays.values();
+    }
+
+    /**
+     * The entry is shielded from being closed: the JDK's StAX reader closes the stream it reads once it
+     * reaches the end of the document, which for a zip entry is the whole archive.
+     */
+    private static void readQuays(InputStream entry, Map<String, Quay> latestQuays) throws XMLStreamException {
+        XMLStreamReader reader = XML_INPUT_FACTORY.createXMLStreamReader(entry);
+        try {
+            while (reader.hasNext()) {
+                if (reader.next() == START_ELEMENT && isNetexElement(reader, "Quay")) {
+                    Quay quay = readQuay(reader);
+                    latestQuays.merge(quay.getId(), quay, NetexDatasetLoader::latestVersion);
+                }
+            }
+        } finally {
+            reader.close();
+        }
+    }
+
+    /**
+     * Reads from the start of a quay to its end. Only the quay's own key list is kept: the elements
+     * inside it, boarding positions say, have key lists of their own.
+     */
+    private static Quay readQuay(XMLStreamReader reader) throws XMLStreamException {
+        Quay quay = new Quay()
+                .withId(reader.getAttributeValue(null, "id"))
+                .withVersion(reader.getAttributeValue(null, "version"));
+        int depth = 1;
+        while (depth > 0) {
+            int event = reader.next();
+            if (event == START_ELEMENT) {
+                if (depth == 1 && isNetexElement(reader, "keyList")) {
+                    quay.setKeyList(readKeyList(reader));
+                } else {
+                    depth++;
+                }
+            } else if (event == END_ELEMENT) {
+                depth--;
+            }
+        }
+        return quay;
+    }
+
+    /**
+     * Reads from the start of a key list to its end.
+     */
+    private static KeyListStructure readKeyList(XMLStreamReader reader) throws XMLStreamException {
+        KeyListStructure keyList = new KeyListStructure();
+        while (reader.nextTag() == START_ELEMENT) {
+            KeyValueStructure keyValue = new KeyValueStructure();
+            while (reader.nextTag() == START_ELEMENT) {
+                String name = reader.getLocalName();
+                String text = reader.getElementText();
+                if ("Key".equals(name)) {
+                    keyValue.setKey(text);
+                } else if ("Value".equals(name)) {
+                    keyValue.setValue(text);
+                }
+            }
+            keyList.getKeyValue().add(keyValue);
+        }
+        return keyList;
+    }
+
+    private static boolean isNetexElement(XMLStreamReader reader, String localName) {
+        return localName.equals(reader.getLocalName()) && NETEX_NAMESPACE.equals(reader.getNamespaceURI());
+    }
+
+    /**
+     * The same choice as {@code NetexEntitiesIndex.getQuayIndex().getLatestVersion}: the highest version
+     * number, the first one read on a tie.
+     */
+    private static Quay latestVersion(Quay current, Quay candidate) {
+        return versionOf(candidate) > versionOf(current) ? candidate : current;
+    }
+
+    private static long versionOf(Quay quay) {
+        try {
+            return Long.parseLong(quay.getVersion());
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private static XMLInputFactory createXmlInputFactory() {
+        XMLInputFactory factory = XMLInputFactory.newFactory();
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+        return factory;
+    }
 }
@@ -0,0 +1,69 @@
+package no.rutebanken.extime.model;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Numbers the codes a {@link FlightLeg} refers to, airports, airlines and flight numbers, so that a leg
+ * holds and compares ints instead of strings.
+ *
+ * <p>A table seeded with an enum numbers its constants by ordinal, so that the id of a whitelisted airport
+ * is its {@link AirportIATA} ordinal. Codes outside the enum, which tests and invalid input produce, are
+ * numbered after it as they are first seen. A code keeps its id for the life of the JVM: the tables only
+ * grow with the distinct codes ever seen, a few thousand flight numbers at most.
+ *
+ * <p>Looking up a known code is a read of a concurrent map. Numbering a new one takes a lock and
+ * publishes the codes through a volatile array, so that reading a code back by id needs no lock.
+ */
+final class CodeTable {
+
+    static final int NO_CODE = -1;
+
+    private final Map<String, Integer> ids = new ConcurrentHashMap<>();
+    private volatile String[] codes;
+    private int size;
+
+    private CodeTable(String[] seed) {
+        codes = Arrays.copyOf(seed, Math.max(16, seed.length * 2));
+        size = seed.length;
+        for (int id = 0; id < seed.length; id++) {
+            ids.put(seed[id], id);
+        }
+    }
+
+    static CodeTable of(Enum<?>[] constants) {
+        return new CodeTable(Arrays.stream(constants).map(Enum::name).toArray(String[]::new));
+    }
+
+    static CodeTable empty() {
+        return new CodeTable(new String[0]);
+    }
+
+    int idOf(String code) {
+        if (code == null) {
+            return NO_CODE;
+        }
+        Integer id = ids.get(code);
+        return id != null ? id : register(code);
+    }
+
+    String codeOf(int id) {
+        return id == NO_CODE ? null : codes[id];
+    }
+
+    private synchronized int register(String code) {
+        Integer registered = ids.get(code);
+        if (registered != null) {
+            return registered;
+        }
+        String[] current = codes;
+        if (size == current.length) {
+            current = Arrays.copyOf(current, current.length * 2);
+        }
+        current[size] = code;
+        codes = current;
+        ids.put(code, size);
+        return size++;
+    }
+}
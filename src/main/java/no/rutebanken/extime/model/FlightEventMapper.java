@@ -3,24 +3,24 @@ package no.rutebanken.extime.model;
 import no.avinor.flydata.xjc.model.scheduled.Flight;
 import no.avinor.flydata.xjc.model.scheduled.Flights;
 
+import java.time.LocalTime;
+import java.time.ZonedDateTime;
 import java.util.Arrays;
 import java.util.List;
-import java.util.Set;
-import java.util.stream.Collectors;
 
 public class FlightEventMapper {
 
-    private final Set<String> whitelistedAirports;
-    private final Set<String> whitelistedAirlines;
+    /**
+     * The codes of the whitelists packed by {@link #pack}, sorted, so that the text of a flight can be
+     * looked up without being made into a string.
+     */
+    private static final long[] WHITELISTED_AIRPORTS = packed(AirportIATA.values());
+    private static final long[] WHITELISTED_AIRLINES = packed(AirlineIATA.values());
 
-    public FlightEventMapper() {
-        whitelistedAirports = Arrays.stream(AirportIATA.values())
-                .map(Enum::name)
-                .collect(Collectors.toUnmodifiableSet());
-        whitelistedAirlines = Arrays.stream(AirlineIATA.values())
-                .map(Enum::name)
-                .collect(Collectors.toUnmodifiableSet());
-    }
+    /**
+     * Codes are at most this long, which {@link #pack} relies on.
+     */
+    private static final int MAX_CODE_LENGTH = 3;
 
     public List<FlightEvent> mapToFlightEvent(Flights flightsInAirport) {
         List<Flight> flights = flightsInAirport.getFlight();
@@ -28,29 +28,83 @@ public class FlightEventMapper {
             return List.of();
         }
         return flights.stream()
-                .filter(flight -> whitelistedAirports.contains(flight.getDepartureStation()))
-                .filter(flight -> whitelistedAirports.contains(flight.getArrivalStation()))
-                .filter(flight -> whitelistedAirlines.contains(flight.getAirlineDesignator()))
+                .filter(flight -> keeps(flight.getDepartureStation(), flight.getArrivalStation(),
+                        flight.getAirlineDesignator(), flight.getServiceType()))
+                .map(flight -> toFlightEvent(
+                        flight.getId().longValue(),
+                        flight.getAirlineDesignator(),
+                        flight.getFlightNumber(),
+                        flight.getDepartureStation(),
+                        flight.getArrivalStation(),
+                        flight.getDateOfOperation(),
+                        flight.getStd(),
+                        flight.getSta()))
+                .toList();
+    }
+
+    /**
+     * The filter of the export, shared with {@link FlightEventReader}, which applies it to the text of a
+     * flight before making strings of it. Null-safe.
+     */
+    static boolean keeps(CharSequence departureStation, CharSequence arrivalStation,
+                         CharSequence airlineDesignator, CharSequence serviceType) {
+        return departureStation != null && arrivalStation != null && airlineDesignator != null
+                && isWhitelisted(WHITELISTED_AIRPORTS, departureStation)
+                && isWhitelisted(WHITELISTED_AIRPORTS, arrivalStation)
+                && isWhitelisted(WHITELISTED_AIRLINES, airlineDesignator)
                 // keeping only scheduled passenger flights (not charter flights)
-                .filter(flight -> "J".equals(flight.getServiceType()) )
+                && serviceType != null && "J".contentEquals(serviceType)
                 // filtering out invalid input data with departure airport == arrival airport
-                .filter(flight -> !flight.getDepartureStation().equals(flight.getArrivalStation()))
-                .map(FlightEventMapper::toFlightEvent)
-                .toList();
+                && CharSequence.compare(departureStation, arrivalStation) != 0;
+    }
+
+    private static boolean isWhitelisted(long[] whitelist, CharSequence code) {
+        return code.length() <= MAX_CODE_LENGTH && Arrays.binarySearch(whitelist, pack(code)) >= 0;
     }
 
-    private static FlightEvent toFlightEvent(Flight flight) {
-        AirlineIATA airline = AirlineIATA.valueOf(flight.getAirlineDesignator());
-        String flightNumber = (airline.name() + flight.getFlightNumber()).intern();
+    private static long[] packed(Enum<?>[] codes) {
+        long[] packed = new long[codes.length];
+        for (int i = 0; i < codes.length; i++) {
+            String code = codes[i].name();
+            if (code.length() > MAX_CODE_LENGTH) {
+                throw new IllegalStateException(code + " is longer than " + MAX_CODE_LENGTH + " characters");
+            }
+            packed[i] = pack(code);
+        }
+        Arrays.sort(packed);
+        return packed;
+    }
+
+    /**
+     * A code of at most {@link #MAX_CODE_LENGTH} characters as a number: its length, then 16 bits per
+     * character.
+     */
+    private static long pack(CharSequence code) {
+        long packed = code.length();
+        for (int i = 0; i < code.length(); i++) {
+            packed = packed << 16 | code.charAt(i);
+        }
+        return packed << 16 * (MAX_CODE_LENGTH - code.length());
+    }
+
+    static FlightEvent toFlightEvent(long flightId,
+                                     String airlineDesignator,
+                                     String flightNumber,
+                                     String departureStation,
+                                     String arrivalStation,
+                                     ZonedDateTime dateOfOperation,
+                                     LocalTime departureTime,
+                                     LocalTime arrivalTime) {
+        AirlineIATA airline = AirlineIATA.valueOf(airlineDesignator);
         return new FlightEvent(
-                flight.getId().longValue(),
-                flightNumber,
+                flightId,
+                (airline.name() + flightNumber).intern(),
                 airline,
-                        AirportIATA.valueOf(flight.getDepartureStation()),
-                        AirportIATA.valueOf(flight.getArrivalStation()),
-                        flight.getDateOfOperation(),
-                        flight.getStd(),
-                        flight.getSta()
-                );
+                AirportIATA.valueOf(departureStation),
+                AirportIATA.valueOf(arrivalStation),
+                dateOfOperation,
+                departureTime,
+                arrivalTime
+        );
     }
 }
@@ -0,0 +1,236 @@
+package no.rutebanken.extime.model;
+
+import no.rutebanken.extime.util.ExtimeException;
+import no.rutebanken.extime.xmladapter.ZonedDateTimeFromDateXmlAdapter;
+import org.rutebanken.util.LocalTimeISO8601XmlAdapter;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.InputStream;
+import java.time.LocalTime;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.List;
+
+import static javax.xml.stream.XMLStreamConstants.CDATA;
+import static javax.xml.stream.XMLStreamConstants.CHARACTERS;
+import static javax.xml.stream.XMLStreamConstants.END_ELEMENT;
+import static javax.xml.stream.XMLStreamConstants.ENTITY_REFERENCE;
+import static javax.xml.stream.XMLStreamConstants.SPACE;
+import static javax.xml.stream.XMLStreamConstants.START_ELEMENT;
+
+/**
+ * Reads the flights of an Avinor response straight into {@link FlightEvent}s, one {@code <flight>} at a
+ * time, as an alternative to unmarshalling the whole {@code Flights} tree and mapping it with
+ * {@link FlightEventMapper}.
+ *
+ * <p>Most of a response is filtered away: other airlines, airports outside Norway, charter flights. A
+ * flight is held as the text of the few elements the export needs, in buffers reused from one flight to
+ * the next, until the filter of {@link FlightEventMapper#keeps} has seen it. Only the flights it keeps
+ * have their text made into strings, and their date and times parsed, and become events. The heap a
+ * response needs is therefore that of the flights kept, not that of the response, and a flight filtered
+ * away allocates next to nothing. Other elements are skipped unread.
+ *
+ * <p>The values are read as the JAXB binding reads them: trimmed, and the date and times through the
+ * same adapters. The one difference is that a date or a time that cannot be parsed fails the read, where
+ * JAXB would have left it null for the conversion to trip over later.
+ */
+public class FlightEventReader {
+
+    private static final XMLInputFactory XML_INPUT_FACTORY = createXmlInputFactory();
+
+    private static final ZonedDateTimeFromDateXmlAdapter DATE_ADAPTER = new ZonedDateTimeFromDateXmlAdapter();
+    private static final LocalTimeISO8601XmlAdapter TIME_ADAPTER = new LocalTimeISO8601XmlAdapter();
+
+    /**
+     * Reads a response, decoded according to its XML declaration. The stream is left open.
+     *
+     * @throws ExtimeException if the response is not well-formed, is not flights, or has a flight that
+     *                         is kept but cannot be parsed.
+     */
+    public List<FlightEvent> read(InputStream response) {
+        try {
+            XMLStreamReader reader = XML_INPUT_FACTORY.createXMLStreamReader(response);
+            try {
+                reader.nextTag();
+                if (!"flights".equals(reader.getLocalName())) {
+                    throw new ExtimeException("The Avinor feed returned a " + reader.getLocalName() + ", not flights");
+                }
+                List<FlightEvent> flightEvents = new ArrayList<>();
+                FlightText flight = new FlightText();
+                while (reader.nextTag() == START_ELEMENT) {
+                    if ("flight".equals(reader.getLocalName())) {
+                        FlightEvent flightEvent = readFlight(reader, flight);
+                        if (flightEvent != null) {
+                            flightEvents.add(flightEvent);
+                        }
+                    } else {
+                        skipElement(reader);
+                    }
+                }
+                return flightEvents;
+            } finally {
+                reader.close();
+            }
+        } catch (XMLStreamException e) {
+            throw new ExtimeException("Error while reading the Avinor feed", e);
+        }
+    }
+
+    /**
+     * @return the flight at the reader, which is left at its end tag, or null if the export does not keep
+     * it.
+     */
+    private static FlightEvent readFlight(XMLStreamReader reader, FlightText flight) throws XMLStreamException {
+        String id = reader.getAttributeValue(null, "id");
+        flight.clear();
+        while (reader.nextTag() == START_ELEMENT) {
+            switch (reader.getLocalName()) {
+                case "airline.designator" -> flight.airlineDesignator.read(reader);
+                case "flight.number" -> flight.flightNumber.read(reader);
+                case "date.of.operation" -> flight.dateOfOperation.read(reader);
+                case "departure.station" -> flight.departureStation.read(reader);
+                case "std" -> flight.std.read(reader);
+                case "arrival.station" -> flight.arrivalStation.read(reader);
+                case "sta" -> flight.sta.read(reader);
+                case "service.type" -> flight.serviceType.read(reader);
+                default -> skipElement(reader);
+            }
+        }
+        if (!FlightEventMapper.keeps(flight.departureStation.text(), flight.arrivalStation.text(),
+                flight.airlineDesignator.text(), flight.serviceType.text())) {
+            return null;
+        }
+        try {
+            return FlightEventMapper.toFlightEvent(
+                    Long.parseLong(id.trim()),
+                    flight.airlineDesignator.string(),
+                    flight.flightNumber.string(),
+                    flight.departureStation.string(),
+                    flight.arrivalStation.string(),
+                    parseDate(flight.dateOfOperation.string()),
+                    parseTime(flight.std.string()),
+                    parseTime(flight.sta.string()));
+        } catch (Exception e) {
+            throw new ExtimeException("Could not read the flight " + id + " of the Avinor feed", e);
+        }
+    }
+
+    private static ZonedDateTime parseDate(String date) {
+        return date != null ? DATE_ADAPTER.unmarshal(date) : null;
+    }
+
+    private static LocalTime parseTime(String time) throws Exception {
+        return time != null ? TIME_ADAPTER.unmarshal(time) : null;
+    }
+
+    /**
+     * Moves the reader from the start tag of an element to its end tag.
+     */
+    private static void skipElement(XMLStreamReader reader) throws XMLStreamException {
+        int depth = 1;
+        while (depth > 0) {
+            int event = reader.next();
+            if (event == START_ELEMENT) {
+                depth++;
+            } else if (event == END_ELEMENT) {
+                depth--;
+            }
+        }
+    }
+
+    /**
+     * The text of the elements of a flight that the export reads, reused from one flight to the next.
+     */
+    private static final class FlightText {
+
+        private final ElementText airlineDesignator = new ElementText();
+        private final ElementText flightNumber = new ElementText();
+        private final ElementText dateOfOperation = new ElementText();
+        private final ElementText departureStation = new ElementText();
+        private final ElementText std = new ElementText();
+        private final ElementText arrivalStation = new ElementText();
+        private final ElementText sta = new ElementText();
+        private final ElementText serviceType = new ElementText();
+
+        void clear() {
+            airlineDesignator.clear();
+            flightNumber.clear();
+            dateOfOperation.clear();
+            departureStation.clear();
+            std.clear();
+            arrivalStation.clear();
+            sta.clear();
+            serviceType.clear();
+        }
+    }
+
+    /**
+     * The trimmed text of an element, or null if the flight has no such element, read as
+     * {@link XMLStreamReader#getElementText} reads it but into a buffer of its own.
+     */
+    private static final class ElementText {
+
+        private final StringBuilder text = new StringBuilder();
+        private boolean present;
+
+        void clear() {
+            text.setLength(0);
+            present = false;
+        }
+
+        /**
+         * Moves the reader from the start tag of an element holding only text to its end tag.
+         */
+        void read(XMLStreamReader reader) throws XMLStreamException {
+            text.setLength(0);
+            present = true;
+            int event;
+            while ((event = reader.next()) != END_ELEMENT) {
+                switch (event) {
+                    case CHARACTERS, CDATA, SPACE ->
+                            text.append(reader.getTextCharacters(), reader.getTextStart(), reader.getTextLength());
+                    case ENTITY_REFERENCE -> text.append(reader.getText());
+                    case START_ELEMENT -> throw new XMLStreamException(
+                            "Expected only text, found the element " + reader.getLocalName(), reader.getLocation());
+                    default -> {
+                        // Comments and processing instructions are not part of the text.
+                    }
+                }
+            }
+            trim();
+        }
+
+        /**
+         * As {@link String#trim}.
+         */
+        private void trim() {
+            int end = text.length();
+            while (end > 0 && text.charAt(end - 1) <= ' ') {
+                end--;
+            }
+            text.setLength(end);
+            int start = 0;
+            while (start < end && text.charAt(start) <= ' ') {
+                start++;
+            }
+            text.delete(0, start);
+        }
+
+        CharSequence text() {
+            return present ? text : null;
+        }
+
+        String string() {
+            return present ? text.toString() : null;
+        }
+    }
+
+    private static XMLInputFactory createXmlInputFactory() {
+        XMLInputFactory factory = XMLInputFactory.newFactory();
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+        return factory;
+    }
+}
@@ -1,6 +1,8 @@
 package no.rutebanken.extime.model;
 
 import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneId;
 import java.time.ZonedDateTime;
 
 
@@ -8,6 +10,12 @@ import java.time.ZonedDateTime;
  * A flight leg describes the movement of a plane from a departure airport to an arrival airport at a given scheduled
  * departure time and a given scheduled arrival time.
  * A flight leg is identified by a unique id.
+ *
+ * <p>The conversion holds every leg of the export window at once, hundreds of thousands of them with a long
+ * forward window, and the chaining of multi-leg flights compares them pairwise. A leg is therefore kept
+ * compact: its airports, airline and flight number as ids from a {@link CodeTable}, and its STD and STA as
+ * epoch seconds plus the zone they were given in. The chaining runs on these primitives only; the getters
+ * rebuild the strings and date-times, for the code that converts a leg into a scheduled flight once.
  */
 public class FlightLeg {
 
@@ -15,24 +23,31 @@ public class FlightLeg {
      * Maximum layover time between 2 flight legs. If the time is shorter, the two flights legs are considered being part of the
      * same multi-leg flight.
      */
-    private static final Duration MAX_LAYOVER_DURATION = Duration.ofHours(3);
+    private static final long MAX_LAYOVER_SECONDS = Duration.ofHours(3).toSeconds();
 
+    static final CodeTable AIRPORTS = CodeTable.of(AirportIATA.values());
+    static final CodeTable AIRLINES = CodeTable.of(AirlineIATA.values());
+    static final CodeTable FLIGHT_NUMBERS = CodeTable.empty();
 
-    private final String departureAirport;
-    private final String arrivalAirport;
-    private final String airlineDesignator;
-    private final String flightNumber;
-    private final ZonedDateTime std;
-    private final ZonedDateTime sta;
     private final long id;
+    private final long stdEpochSecond;
+    private final long staEpochSecond;
+    private final int departureAirportId;
+    private final int arrivalAirportId;
+    private final int airlineId;
+    private final int flightNumberId;
+    private final ZoneId stdZone;
+    private final ZoneId staZone;
 
-    FlightLeg(String departureAirport, String arrivalAirport, String airlineDesignator, String flightNumber, ZonedDateTime std, ZonedDateTime sta, long id) {
-        this.departureAirport = departureAirport;
-        this.arrivalAirport = arrivalAirport;
-        this.airlineDesignator = airlineDesignator;
-        this.flightNumber = flightNumber;
-        this.std = std;
-        this.sta = sta;
+    FlightLeg(int departureAirportId, int arrivalAirportId, int airlineId, int flightNumberId, ZonedDateTime std, ZonedDateTime sta, long id) {
+        this.departureAirportId = departureAirportId;
+        this.arrivalAirportId = arrivalAirportId;
+        this.airlineId = airlineId;
+        this.flightNumberId = flightNumberId;
+        this.stdEpochSecond = std.toEpochSecond();
+        this.staEpochSecond = sta.toEpochSecond();
+        this.stdZone = std.getZone();
+        this.staZone = sta.getZone();
         this.id = id;
     }
 
@@ -40,22 +55,41 @@ public class FlightLeg {
         return id;
     }
     public String getDepartureAirport() {
-        return departureAirport;
+        return AIRPORTS.codeOf(departureAirportId);
     }
     public String getArrivalAirport() {
-        return arrivalAirport;
+        return AIRPORTS.codeOf(arrivalAirportId);
     }
     public String getAirlineDesignator() {
-        return airlineDesignator;
+        return AIRLINES.codeOf(airlineId);
     }
     public ZonedDateTime getStd() {
-        return std;
+        return ZonedDateTime.ofInstant(Instant.ofEpochSecond(stdEpochSecond), stdZone);
     }
     public ZonedDateTime getSta() {
-        return sta;
+        return ZonedDateTime.ofInstant(Instant.ofEpochSecond(staEpochSecond), staZone);
     }
     public String getFlightNumber() {
-        return flightNumber;
+        return FLIGHT_NUMBERS.codeOf(flightNumberId);
+    }
+
+    /**
+     * @return the departure airport's id, its {@link AirportIATA} ordinal if it is whitelisted.
+     */
+    public int getDepartureAirportId() {
+        return departureAirportId;
+    }
+    public int getArrivalAirportId() {
+        return arrivalAirportId;
+    }
+    public int getFlightNumberId() {
+        return flightNumberId;
+    }
+    public long getStdEpochSecond() {
+        return stdEpochSecond;
+    }
+    public long getStaEpochSecond() {
+        return staEpochSecond;
     }
 
     /**
@@ -75,26 +109,26 @@ public class FlightLeg {
     }
 
     boolean hasSameFlightNumberAs(FlightLeg other) {
-        return this.getFlightNumber().equals(other.getFlightNumber());
+        return this.flightNumberId == other.flightNumberId;
     }
 
     boolean departFromArrivalAirportOf(FlightLeg other) {
-        return this.getDepartureAirport().equals(other.getArrivalAirport());
+        return this.departureAirportId == other.arrivalAirportId;
     }
 
     boolean departSoonAfterArrivalOf(FlightLeg other) {
-        Duration layover = Duration.between(other.getSta(), this.getStd());
-        return layover.isPositive() && layover.compareTo(MAX_LAYOVER_DURATION) < 0;
+        long layover = this.stdEpochSecond - other.staEpochSecond;
+        return layover > 0 && layover < MAX_LAYOVER_SECONDS;
     }
 
     @Override
     public String toString() {
         return "FlightLeg{" +
-                "flightNumber='" + flightNumber + '\'' +
-                ", departureAirport='" + departureAirport + '\'' +
-                ", arrivalAirport='" + arrivalAirport + '\'' +
-                ", std=" + std +
-                ", sta=" + sta +
+                "flightNumber='" + getFlightNumber() + '\'' +
+                ", departureAirport='" + getDepartureAirport() + '\'' +
+                ", arrivalAirport='" + getArrivalAirport() + '\'' +
+                ", std=" + getStd() +
+                ", sta=" + getSta() +
                 ", id=" + id +
                 '}';
     }
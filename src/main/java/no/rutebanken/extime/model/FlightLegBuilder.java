@@ -3,31 +3,46 @@ package no.rutebanken.extime.model;
 import java.time.ZonedDateTime;
 
 public class FlightLegBuilder {
-    private String departureAirport;
-    private String arrivalAirport;
-    private String airlineDesignator;
-    private String flightNumber;
+    private int departureAirportId = CodeTable.NO_CODE;
+    private int arrivalAirportId = CodeTable.NO_CODE;
+    private int airlineId = CodeTable.NO_CODE;
+    private int flightNumberId = CodeTable.NO_CODE;
     private ZonedDateTime std;
     private ZonedDateTime sta;
     private long id;
 
     public FlightLegBuilder withDepartureAirport(String departureAirport) {
-        this.departureAirport = departureAirport;
+        this.departureAirportId = FlightLeg.AIRPORTS.idOf(departureAirport);
+        return this;
+    }
+
+    public FlightLegBuilder withDepartureAirport(AirportIATA departureAirport) {
+        this.departureAirportId = departureAirport.ordinal();
         return this;
     }
 
     public FlightLegBuilder withArrivalAirport(String arrivalAirport) {
-        this.arrivalAirport = arrivalAirport;
+        this.arrivalAirportId = FlightLeg.AIRPORTS.idOf(arrivalAirport);
+        return this;
+    }
+
+    public FlightLegBuilder withArrivalAirport(AirportIATA arrivalAirport) {
+        this.arrivalAirportId = arrivalAirport.ordinal();
         return this;
     }
 
     public FlightLegBuilder withAirlineDesignator(String airlineDesignator) {
-        this.airlineDesignator = airlineDesignator;
+        this.airlineId = FlightLeg.AIRLINES.idOf(airlineDesignator);
+        return this;
+    }
+
+    public FlightLegBuilder withAirline(AirlineIATA airline) {
+        this.airlineId = airline.ordinal();
         return this;
     }
 
     public FlightLegBuilder withFlightNumber(String flightNumber) {
-        this.flightNumber = flightNumber;
+        this.flightNumberId = FlightLeg.FLIGHT_NUMBERS.idOf(flightNumber);
         return this;
     }
 
@@ -47,7 +62,7 @@ public class FlightLegBuilder {
     }
 
     public FlightLeg build() {
-        return new FlightLeg(departureAirport, arrivalAirport, airlineDesignator, flightNumber, std, sta, id);
+        return new FlightLeg(departureAirportId, arrivalAirportId, airlineId, flightNumberId, std, sta, id);
     }
 
-}
\ No newline at end of file
+}
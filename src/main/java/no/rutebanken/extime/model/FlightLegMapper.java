@@ -21,14 +21,14 @@ public class FlightLegMapper {
 
         List<FlightLeg> flightLegs = flightEvents.stream().map(flightEvent -> new FlightLegBuilder()
                         .withId(flightEvent.flightId())
-                        .withDepartureAirport(flightEvent.departureAirport().name())
-                        .withArrivalAirport(flightEvent.arrivalAirport().name())
+                        .withDepartureAirport(flightEvent.departureAirport())
+                        .withArrivalAirport(flightEvent.arrivalAirport())
                         .withFlightNumber(flightEvent.flightNumber())
-                        .withAirlineDesignator(flightEvent.airline().name())
+                        .withAirline(flightEvent.airline())
                         .withStd(flightEvent.dateOfOperation().with(flightEvent.departureTime()))
                         .withSta(toSta(flightEvent))
                         .build())
-                .sorted(Comparator.comparing(FlightLeg::getStd))
+                .sorted(Comparator.comparingLong(FlightLeg::getStdEpochSecond))
                 .toList();
 
         LOGGER.info("Mapped {} flight legs", flightLegs.size());
@@ -5,11 +5,25 @@ import org.springframework.stereotype.Component;
 
 import java.time.Duration;
 import java.time.LocalDate;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.EnumSet;
 import java.util.List;
+import java.util.Set;
+import java.util.stream.Stream;
 
 /**
  * Build HTTP request URLs to query the Avinor REST API.
+ *
+ * <p>The busiest airports can be split into windows of {@code extime.timetable.fetch.window.days}, one
+ * request each, so that they are fetched in parallel rather than as one response that the whole fetch
+ * waits for. Consecutive windows share their boundary day, so that no flight falls between two whatever
+ * the feed makes of the ends of a period; the fetcher drops the flights that arrive twice.
+ *
+ * <p>The windows end on multiples of {@code extime.timetable.fetch.window.days} since the epoch rather
+ * than counting from the start of the period, so that they stay put as the period moves: from one day to
+ * the next, only the first and the last window change, and the others are the same requests as the day
+ * before, which the feed response cache can answer.
  */
 @Component
 public class FlightRequestBuilder {
@@ -17,32 +31,59 @@ public class FlightRequestBuilder {
     private final String uri;
     private final Duration durationForward;
     private final Duration durationBack;
+    private final int windowDays;
+    private final Set<AirportIATA> windowedAirports;
 
     /**
      *
      * @param uri URI of the Avinor REST API
      * @param durationForward time window to fetch flights back in time.
      * @param durationBack time window to fetch flights forward in time.
+     * @param windowDays the days of each request for the airports split into windows, 0 not to split any.
+     * @param windowedAirports the airports to split into windows.
      */
     public FlightRequestBuilder(
             @Value("${avinor.timetable.feed.endpoint}") String uri,
             @Value("${avinor.timetable.period.forward:14d}") Duration durationForward,
-            @Value("${avinor.timetable.period.back:2d}") Duration durationBack
+            @Value("${avinor.timetable.period.back:2d}") Duration durationBack,
+            @Value("${extime.timetable.fetch.window.days:0}") int windowDays,
+            @Value("${extime.timetable.fetch.window.airports:OSL}") Set<AirportIATA> windowedAirports
             ) {
         this.uri = uri;
         this.durationForward = durationForward;
         this.durationBack = durationBack;
+        this.windowDays = windowDays;
+        this.windowedAirports = windowedAirports.isEmpty() ? Set.of() : EnumSet.copyOf(windowedAirports);
     }
 
     public List<FlightRequest> generateFlightRequests() {
         return generateFlightRequestsForDay(LocalDate.now());
     }
 
-    List<FlightRequest> generateFlightRequestsForDay(LocalDate today) {
+    public List<FlightRequest> generateFlightRequestsForDay(LocalDate today) {
         LocalDate from = today.minusDays(durationBack.toDays());
         LocalDate to = today.plusDays(durationForward.toDays());
-        return Arrays.stream(AirportIATA.values()).map(airportIATA -> new FlightRequest(uri, airportIATA.name(), from, to)).toList();
+        return Arrays.stream(AirportIATA.values())
+                .flatMap(airportIATA -> requestsFor(airportIATA, from, to))
+                .toList();
+    }
 
+    private Stream<FlightRequest> requestsFor(AirportIATA airportIATA, LocalDate from, LocalDate to) {
+        if (windowDays <= 0 || !windowedAirports.contains(airportIATA)) {
+            return Stream.of(new FlightRequest(uri, airportIATA.name(), from, to));
+        }
+        List<FlightRequest> windows = new ArrayList<>();
+        LocalDate windowFrom = from;
+        do {
+            long boundary = (Math.floorDiv(windowFrom.toEpochDay(), windowDays) + 1) * windowDays;
+            LocalDate windowTo = LocalDate.ofEpochDay(boundary);
+            if (windowTo.isAfter(to)) {
+                windowTo = to;
+            }
+            windows.add(new FlightRequest(uri, airportIATA.name(), windowFrom, windowTo));
+            windowFrom = windowTo;
+        } while (windowFrom.isBefore(to));
+        return windows.stream();
     }
 }
 
@@ -0,0 +1,64 @@
+package no.rutebanken.extime.model;
+
+import java.util.Arrays;
+import java.util.StringJoiner;
+
+import static no.rutebanken.extime.Constants.DASH;
+
+/**
+ * The airports a scheduled flight calls at, in order, as a grouping key: a line is the pattern of its
+ * first and last airport, a route the pattern of all of them.
+ *
+ * <p>The airports are held as {@link CodeTable} ids, the {@link AirportIATA} ordinals for whitelisted
+ * airports, and the hash code is computed once, so that grouping flights by pattern compares small int
+ * arrays. The designation, {@code "OSL-BGO"}, is only built when asked for, once per pattern.
+ */
+public final class RoutePattern {
+
+    private final int[] airportIds;
+    private final int hashCode;
+    private String designation;
+
+    RoutePattern(int... airportIds) {
+        this.airportIds = airportIds;
+        this.hashCode = Arrays.hashCode(airportIds);
+    }
+
+    static RoutePattern of(String... airportIatas) {
+        return new RoutePattern(Arrays.stream(airportIatas).mapToInt(FlightLeg.AIRPORTS::idOf).toArray());
+    }
+
+    /**
+     * @return the airports joined by dashes, skipping any that is missing, as the designation always was.
+     */
+    public String designation() {
+        if (designation == null) {
+            StringJoiner joiner = new StringJoiner(DASH);
+            for (int airportId : airportIds) {
+                if (airportId != CodeTable.NO_CODE) {
+                    joiner.add(FlightLeg.AIRPORTS.codeOf(airportId));
+                }
+            }
+            designation = joiner.toString();
+        }
+        return designation;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        RoutePattern that = (RoutePattern) o;
+        return hashCode == that.hashCode && Arrays.equals(airportIds, that.airportIds);
+    }
+
+    @Override
+    public int hashCode() {
+        return hashCode;
+    }
+
+    @Override
+    public String toString() {
+        return designation();
+    }
+}
@@ -1,20 +1,19 @@
 package no.rutebanken.extime.model;
 
-import com.google.common.base.CharMatcher;
-import com.google.common.base.Joiner;
-
 import java.time.LocalDate;
 import java.time.LocalTime;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Objects;
 
-import static no.rutebanken.extime.Constants.DASH;
-import static no.rutebanken.extime.Constants.EMPTY;
-
 /**
  * A potentially multi-leg flight from a departure airport to a destination airport, with any number of layovers in
  * between.
+ *
+ * <p>The patterns a flight is grouped by, its line, route and stop times, are built on first use and kept,
+ * as the conversion groups every flight by them several times. They are cleared by the setters that
+ * change them; stopovers must all be added, through {@link #getScheduledStopovers()}, before a pattern is
+ * asked for.
  */
 public class ScheduledFlight {
 
@@ -28,6 +27,10 @@ public class ScheduledFlight {
     private LocalTime timeOfArrival;
     private List<ScheduledStopover> scheduledStopovers;
 
+    private RoutePattern operatingLine;
+    private RoutePattern routePattern;
+    private StopTimesPattern stopTimesPattern;
+
     public String getAirlineIATA() {
         return airlineIATA;
     }
@@ -46,10 +49,12 @@ public class ScheduledFlight {
 
     public void setDepartureAirportIATA(String departureAirportIATA) {
         this.departureAirportIATA = departureAirportIATA;
+        clearPatterns();
     }
 
     public void setArrivalAirportIATA(String arrivalAirportIATA) {
         this.arrivalAirportIATA = arrivalAirportIATA;
+        clearPatterns();
     }
 
     public String getArrivalAirportName() {
@@ -74,6 +79,7 @@ public class ScheduledFlight {
 
     public void setTimeOfDeparture(LocalTime timeOfDeparture) {
         this.timeOfDeparture = timeOfDeparture;
+        clearPatterns();
     }
 
     public LocalTime getTimeOfArrival() {
@@ -82,6 +88,7 @@ public class ScheduledFlight {
 
     public void setTimeOfArrival(LocalTime timeOfArrival) {
         this.timeOfArrival = timeOfArrival;
+        clearPatterns();
     }
 
     public List<ScheduledStopover> getScheduledStopovers() {
@@ -95,37 +102,43 @@ public class ScheduledFlight {
         return this.scheduledStopovers != null && !this.scheduledStopovers.isEmpty();
     }
 
-    public String getOperatingLine() {
-        Joiner joiner = Joiner.on(DASH).skipNulls();
-        return hasStopovers() ?
-                joiner.join(scheduledStopovers.getFirst().getAirportIATA(), scheduledStopovers.getLast().getAirportIATA()) :
-                joiner.join(departureAirportIATA, arrivalAirportIATA);
+    /**
+     * @return the first and the last airport of the flight.
+     */
+    public RoutePattern getOperatingLine() {
+        if (operatingLine == null) {
+            operatingLine = hasStopovers()
+                    ? RoutePattern.of(scheduledStopovers.getFirst().getAirportIATA(), scheduledStopovers.getLast().getAirportIATA())
+                    : RoutePattern.of(departureAirportIATA, arrivalAirportIATA);
+        }
+        return operatingLine;
     }
 
-    public String getRoutePattern() {
-        Joiner joiner = Joiner.on(DASH).skipNulls();
-        if (hasStopovers()) {
-            List<String> airportIatas = scheduledStopovers.stream()
-                    .map(ScheduledStopover::getAirportIATA)
-                    .toList();
-            return joiner.join(airportIatas);
+    /**
+     * @return every airport of the flight.
+     */
+    public RoutePattern getRoutePattern() {
+        if (routePattern == null) {
+            routePattern = hasStopovers()
+                    ? RoutePattern.of(scheduledStopovers.stream().map(ScheduledStopover::getAirportIATA).toArray(String[]::new))
+                    : RoutePattern.of(departureAirportIATA, arrivalAirportIATA);
         }
-        return joiner.join(departureAirportIATA, arrivalAirportIATA);
+        return routePattern;
     }
 
-    public String getStopTimesPattern() {
-        CharMatcher charMatcher = CharMatcher.anyOf(":Z");
-        Joiner dashJoiner = Joiner.on(DASH).skipNulls();
-
-        if (hasStopovers()) {
-            Joiner emptyJoiner = Joiner.on(EMPTY).skipNulls();
-            List<String> stopTimes = scheduledStopovers.stream()
-                    .map(stop -> emptyJoiner.join(stop.getArrivalTime(), stop.getDepartureTime()))
-                    .toList();
-            return charMatcher.removeFrom(dashJoiner.join(stopTimes));
+    public StopTimesPattern getStopTimesPattern() {
+        if (stopTimesPattern == null) {
+            stopTimesPattern = hasStopovers()
+                    ? StopTimesPattern.ofStopovers(scheduledStopovers)
+                    : StopTimesPattern.ofDirectFlight(timeOfDeparture, timeOfArrival);
         }
+        return stopTimesPattern;
+    }
 
-        return charMatcher.removeFrom(dashJoiner.join(timeOfDeparture, timeOfArrival));
+    private void clearPatterns() {
+        operatingLine = null;
+        routePattern = null;
+        stopTimesPattern = null;
     }
 
     @Override
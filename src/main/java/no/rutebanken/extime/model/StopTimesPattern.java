@@ -0,0 +1,91 @@
+package no.rutebanken.extime.model;
+
+import java.time.LocalTime;
+import java.util.Arrays;
+import java.util.List;
+import java.util.StringJoiner;
+
+import static no.rutebanken.extime.Constants.DASH;
+
+/**
+ * The times a scheduled flight calls at its airports, as a grouping key: flights of the same line, route
+ * and flight number with the same pattern become one service journey.
+ *
+ * <p>The times are packed as seconds of the day, an arrival and a departure per stop, or the departure
+ * and the arrival of a direct flight, and the hash code is computed once. Seconds rather than minutes,
+ * since the pattern used to tell apart times that differ by seconds, and an int holds either.
+ */
+public final class StopTimesPattern {
+
+    private static final int NO_TIME = -1;
+
+    private final boolean stopovers;
+    private final int[] secondsOfDay;
+    private final int hashCode;
+
+    private StopTimesPattern(boolean stopovers, int[] secondsOfDay) {
+        this.stopovers = stopovers;
+        this.secondsOfDay = secondsOfDay;
+        this.hashCode = 31 * Boolean.hashCode(stopovers) + Arrays.hashCode(secondsOfDay);
+    }
+
+    static StopTimesPattern ofDirectFlight(LocalTime timeOfDeparture, LocalTime timeOfArrival) {
+        return new StopTimesPattern(false, new int[]{secondOfDay(timeOfDeparture), secondOfDay(timeOfArrival)});
+    }
+
+    static StopTimesPattern ofStopovers(List<ScheduledStopover> scheduledStopovers) {
+        int[] secondsOfDay = new int[scheduledStopovers.size() * 2];
+        for (int i = 0; i < scheduledStopovers.size(); i++) {
+            ScheduledStopover stopover = scheduledStopovers.get(i);
+            secondsOfDay[2 * i] = secondOfDay(stopover.getArrivalTime());
+            secondsOfDay[2 * i + 1] = secondOfDay(stopover.getDepartureTime());
+        }
+        return new StopTimesPattern(true, secondsOfDay);
+    }
+
+    private static int secondOfDay(LocalTime time) {
+        return time != null ? time.toSecondOfDay() : NO_TIME;
+    }
+
+    /**
+     * @return the pattern in the form it had as a string: the times without colons, those of a stop run
+     * together and the stops joined by dashes, {@code "0700-08000830-0915"}.
+     */
+    public String designation() {
+        StringJoiner joiner = new StringJoiner(DASH);
+        if (stopovers) {
+            for (int i = 0; i < secondsOfDay.length; i += 2) {
+                joiner.add(format(secondsOfDay[i]) + format(secondsOfDay[i + 1]));
+            }
+        } else {
+            for (int secondOfDay : secondsOfDay) {
+                if (secondOfDay != NO_TIME) {
+                    joiner.add(format(secondOfDay));
+                }
+            }
+        }
+        return joiner.toString();
+    }
+
+    private static String format(int secondOfDay) {
+        return secondOfDay == NO_TIME ? "" : LocalTime.ofSecondOfDay(secondOfDay).toString().replace(":", "");
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        StopTimesPattern that = (StopTimesPattern) o;
+        return hashCode == that.hashCode && stopovers == that.stopovers && Arrays.equals(secondsOfDay, that.secondsOfDay);
+    }
+
+    @Override
+    public int hashCode() {
+        return hashCode;
+    }
+
+    @Override
+    public String toString() {
+        return designation();
+    }
+}
@@ -0,0 +1,244 @@
+package no.rutebanken.extime.netex;
+
+import no.rutebanken.extime.util.ExtimeException;
+
+import javax.xml.namespace.NamespaceContext;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Passes what JAXB marshals on to the underlying writer, and fills the NeTEx placeholder elements of a
+ * {@link StreamedDelivery} with their streamed content just before they are closed.
+ *
+ * <p>A placeholder is recognised by its local name, in the NeTEx namespace, so the names must be those
+ * of elements that JAXB only marshals once in the delivery. The streamed content is written to the
+ * underlying writer, not through this one, so that an element it writes is never taken for a
+ * placeholder. Each placeholder is filled once, and one that JAXB never marshalled is an error rather
+ * than content silently left out.
+ */
+final class ContentInjectingStreamWriter implements XMLStreamWriter {
+
+    private final XMLStreamWriter out;
+    private final Map<String, StreamedContent> unwrittenContent;
+
+    private int depth;
+    private int placeholderDepth = -1;
+    private StreamedContent placeholderContent;
+    private String netexPrefix;
+
+    ContentInjectingStreamWriter(XMLStreamWriter out, Map<String, StreamedContent> contentByPlaceholder) {
+        this.out = out;
+        this.unwrittenContent = new HashMap<>(contentByPlaceholder);
+    }
+
+    private void enter(String prefix, String localName, String namespaceURI) {
+        depth++;
+        if (NetexStreamWriter.NETEX_NAMESPACE.equals(namespaceURI)) {
+            if (prefix != null && netexPrefix == null) {
+                netexPrefix = prefix;
+            }
+            StreamedContent content = placeholderContent == null ? unwrittenContent.remove(localName) : null;
+            if (content != null) {
+                placeholderDepth = depth;
+                placeholderContent = content;
+            }
+        }
+    }
+
+    private void leave() throws XMLStreamException {
+        if (depth == placeholderDepth) {
+            StreamedContent content = placeholderContent;
+            placeholderDepth = -1;
+            placeholderContent = null;
+            content.writeTo(new NetexStreamWriter(out, netexPrefix()));
+        }
+        depth--;
+    }
+
+    void checkAllContentWritten() {
+        if (!unwrittenContent.isEmpty()) {
+            throw new ExtimeException("The NeTEx delivery has no element to hold " + unwrittenContent.keySet());
+        }
+    }
+
+    private String netexPrefix() throws XMLStreamException {
+        return netexPrefix != null ? netexPrefix : out.getPrefix(NetexStreamWriter.NETEX_NAMESPACE);
+    }
+
+    @Override
+    public void writeStartElement(String localName) throws XMLStreamException {
+        out.writeStartElement(localName);
+        enter(null, localName, null);
+    }
+
+    @Override
+    public void writeStartElement(String namespaceURI, String localName) throws XMLStreamException {
+        out.writeStartElement(namespaceURI, localName);
+        enter(null, localName, namespaceURI);
+    }
+
+    @Override
+    public void writeStartElement(String prefix, String localName, String namespaceURI) throws XMLStreamException {
+        out.writeStartElement(prefix, localName, namespaceURI);
+        enter(prefix, localName, namespaceURI);
+    }
+
+    @Override
+    public void writeEmptyElement(String namespaceURI, String localName) throws XMLStreamException {
+        if (NetexStreamWriter.NETEX_NAMESPACE.equals(namespaceURI) && unwrittenContent.containsKey(localName)) {
+            writeStartElement(namespaceURI, localName);
+            writeEndElement();
+        } else {
+            out.writeEmptyElement(namespaceURI, localName);
+        }
+    }
+
+    @Override
+    public void writeEmptyElement(String prefix, String localName, String namespaceURI) throws XMLStreamException {
+        if (NetexStreamWriter.NETEX_NAMESPACE.equals(namespaceURI) && unwrittenContent.containsKey(localName)) {
+            writeStartElement(prefix, localName, namespaceURI);
+            writeEndElement();
+        } else {
+            out.writeEmptyElement(prefix, localName, namespaceURI);
+        }
+    }
+
+    @Override
+    public void writeEmptyElement(String localName) throws XMLStreamException {
+        out.writeEmptyElement(localName);
+    }
+
+    @Override
+    public void writeEndElement() throws XMLStreamException {
+        leave();
+        out.writeEndElement();
+    }
+
+    @Override
+    public void writeEndDocument() throws XMLStreamException {
+        out.writeEndDocument();
+    }
+
+    @Override
+    public void close() throws XMLStreamException {
+        out.close();
+    }
+
+    @Override
+    public void flush() throws XMLStreamException {
+        out.flush();
+    }
+
+    @Override
+    public void writeAttribute(String localName, String value) throws XMLStreamException {
+        out.writeAttribute(localName, value);
+    }
+
+    @Override
+    public void writeAttribute(String prefix, String namespaceURI, String localName, String value)
+            throws XMLStreamException {
+        out.writeAttribute(prefix, namespaceURI, localName, value);
+    }
+
+    @Override
+    public void writeAttribute(String namespaceURI, String localName, String value) throws XMLStreamException {
+        out.writeAttribute(namespaceURI, localName, value);
+    }
+
+    @Override
+    public void writeNamespace(String prefix, String namespaceURI) throws XMLStreamException {
+        out.writeNamespace(prefix, namespaceURI);
+    }
+
+    @Override
+    public void writeDefaultNamespace(String namespaceURI) throws XMLStreamException {
+        out.writeDefaultNamespace(namespaceURI);
+    }
+
+    @Override
+    public void writeComment(String data) throws XMLStreamException {
+        out.writeComment(data);
+    }
+
+    @Override
+    public void writeProcessingInstruction(String target) throws XMLStreamException {
+        out.writeProcessingInstruction(target);
+    }
+
+    @Override
+    public void writeProcessingInstruction(String target, String data) throws XMLStreamException {
+        out.writeProcessingInstruction(target, data);
+    }
+
+    @Override
+    public void writeCData(String data) throws XMLStreamException {
+        out.writeCData(data);
+    }
+
+    @Override
+    public void writeDTD(String dtd) throws XMLStreamException {
+        out.writeDTD(dtd);
+    }
+
+    @Override
+    public void writeEntityRef(String name) throws XMLStreamException {
+        out.writeEntityRef(name);
+    }
+
+    @Override
+    public void writeStartDocument() throws XMLStreamException {
+        out.writeStartDocument();
+    }
+
+    @Override
+    public void writeStartDocument(String version) throws XMLStreamException {
+        out.writeStartDocument(version);
+    }
+
+    @Override
+    public void writeStartDocument(String encoding, String version) throws XMLStreamException {
+        out.writeStartDocument(encoding, version);
+    }
+
+    @Override
+    public void writeCharacters(String text) throws XMLStreamException {
+        out.writeCharacters(text);
+    }
+
+    @Override
+    public void writeCharacters(char[] text, int start, int len) throws XMLStreamException {
+        out.writeCharacters(text, start, len);
+    }
+
+    @Override
+    public String getPrefix(String uri) throws XMLStreamException {
+        return out.getPrefix(uri);
+    }
+
+    @Override
+    public void setPrefix(String prefix, String uri) throws XMLStreamException {
+        out.setPrefix(prefix, uri);
+    }
+
+    @Override
+    public void setDefaultNamespace(String uri) throws XMLStreamException {
+        out.setDefaultNamespace(uri);
+    }
+
+    @Override
+    public void setNamespaceContext(NamespaceContext context) throws XMLStreamException {
+        out.setNamespaceContext(context);
+    }
+
+    @Override
+    public NamespaceContext getNamespaceContext() {
+        return out.getNamespaceContext();
+    }
+
+    @Override
+    public Object getProperty(String name) {
+        return out.getProperty(name);
+    }
+}
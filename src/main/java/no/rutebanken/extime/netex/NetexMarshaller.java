@@ -6,30 +6,65 @@ import jakarta.xml.bind.JAXBException;
 import jakarta.xml.bind.Marshaller;
 import no.rutebanken.extime.util.ExtimeException;
 import org.rutebanken.netex.model.PublicationDeliveryStructure;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+import java.io.BufferedOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
 
 /**
- * Writes a NeTEx publication delivery to a file.
+ * Writes a NeTEx publication delivery to a file or a stream.
  *
  * <p>Replaces the {@code netexJaxbDataFormat} plus {@code to("file:...")} pair. The marshaller settings
  * are the ones Camel's {@code JaxbDataFormat} applied for {@code prettyPrint} and {@code encoding}:
  * a context built from the model's package name, {@code JAXB_FORMATTED_OUTPUT} and {@code JAXB_ENCODING},
  * marshalling straight to the output stream.
+ *
+ * <p>Pretty printing stays the default, but {@code extime.netex.output.compact} turns it off: the
+ * indentation is a large share of every line file, and it is compressed, uploaded and parsed again by
+ * marduk only to be thrown away. Files are written through a buffer, as {@link Files#newOutputStream}
+ * is not buffered and the marshaller writes in small pieces.
+ *
+ * <p>Marshallers are not thread-safe, and the lines are marshalled in parallel, so they are pooled as
+ * {@code FlightsUnmarshaller} pools its unmarshallers, rather than created and configured once per line
+ * file: a thread takes an idle one or creates one, configured once and for all, and puts it back when
+ * it is done. One that failed is dropped, in case it was left half-way through a document.
+ *
+ * <p>A {@link StreamedDelivery} is marshalled as a fragment to a StAX writer that writes its streamed
+ * content into the placeholders of its object graph, with marshallers of a pool of their own.
  */
 @Component
 public class NetexMarshaller {
 
     private static final String NETEX_CHARSET_NAME = StandardCharsets.UTF_8.name();
 
+    /**
+     * The declaration the marshaller writes. StAX cannot declare a document standalone, so a delivery
+     * with streamed content is declared by writing this ahead of the writer.
+     */
+    private static final byte[] XML_DECLARATION = ("<?xml version=\"1.0\" encoding=\"" + NETEX_CHARSET_NAME
+            + "\" standalone=\"yes\"?>").getBytes(StandardCharsets.UTF_8);
+
+    private static final int FILE_BUFFER_SIZE = 64 * 1024;
+
+    private static final XMLOutputFactory XML_OUTPUT_FACTORY = XMLOutputFactory.newFactory();
+
     private final JAXBContext netexContext;
+    private final boolean compactOutput;
+    private final Queue<Marshaller> idleMarshallers = new ConcurrentLinkedQueue<>();
+    private final Queue<Marshaller> idleFragmentMarshallers = new ConcurrentLinkedQueue<>();
 
-    public NetexMarshaller() {
+    public NetexMarshaller(@Value("${extime.netex.output.compact:false}") boolean compactOutput) {
+        this.compactOutput = compactOutput;
         try {
             netexContext = JAXBContext.newInstance(PublicationDeliveryStructure.class.getPackage().getName());
         } catch (JAXBException e) {
@@ -37,14 +72,85 @@ public class NetexMarshaller {
         }
     }
 
+    public boolean isCompactOutput() {
+        return compactOutput;
+    }
+
     public void marshalToFile(JAXBElement<PublicationDeliveryStructure> publicationDelivery, Path file) {
-        try (OutputStream out = Files.newOutputStream(file)) {
-            Marshaller marshaller = netexContext.createMarshaller();
-            marshaller.setProperty(Marshaller.JAXB_FORMATTED_OUTPUT, Boolean.TRUE);
-            marshaller.setProperty(Marshaller.JAXB_ENCODING, NETEX_CHARSET_NAME);
-            marshaller.marshal(publicationDelivery, out);
-        } catch (JAXBException | IOException e) {
+        marshalToFile(StreamedDelivery.of(publicationDelivery), file);
+    }
+
+    public void marshalToFile(StreamedDelivery delivery, Path file) {
+        try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(file), FILE_BUFFER_SIZE)) {
+            marshalWithIdleMarshaller(delivery, out);
+        } catch (JAXBException | XMLStreamException | IOException e) {
             throw new ExtimeException("Could not write NeTEx to " + file, e);
         }
     }
+
+    /**
+     * Writes to a stream the caller owns, such as an entry of a zip archive: the stream is neither
+     * flushed nor closed.
+     */
+    public void marshal(JAXBElement<PublicationDeliveryStructure> publicationDelivery, OutputStream out) {
+        marshal(StreamedDelivery.of(publicationDelivery), out);
+    }
+
+    /**
+     * As {@link #marshal(JAXBElement, OutputStream)}. A delivery with streamed content is marshalled to a
+     * StAX writer, which JAXB never indents, so it comes out compact whatever
+     * {@code extime.netex.output.compact} says.
+     */
+    public void marshal(StreamedDelivery delivery, OutputStream out) {
+        try {
+            marshalWithIdleMarshaller(delivery, out);
+        } catch (JAXBException | XMLStreamException | IOException e) {
+            throw new ExtimeException("Could not write NeTEx", e);
+        }
+    }
+
+    private void marshalWithIdleMarshaller(StreamedDelivery delivery, OutputStream out)
+            throws JAXBException, XMLStreamException, IOException {
+        boolean streamed = delivery.hasStreamedContent();
+        Queue<Marshaller> idle = streamed ? idleFragmentMarshallers : idleMarshallers;
+        Marshaller marshaller = idle.poll();
+        if (marshaller == null) {
+            marshaller = streamed ? createFragmentMarshaller() : createMarshaller();
+        }
+        if (streamed) {
+            marshalWithStreamedContent(marshaller, delivery, out);
+        } else {
+            marshaller.marshal(delivery.publicationDelivery(), out);
+        }
+        idle.offer(marshaller);
+    }
+
+    /**
+     * The document is declared and ended here, so that the declaration is the marshaller's to the byte;
+     * the marshaller only writes the root element.
+     */
+    private static void marshalWithStreamedContent(Marshaller marshaller, StreamedDelivery delivery, OutputStream out)
+            throws JAXBException, XMLStreamException, IOException {
+        out.write(XML_DECLARATION);
+        XMLStreamWriter writer = XML_OUTPUT_FACTORY.createXMLStreamWriter(out, NETEX_CHARSET_NAME);
+        ContentInjectingStreamWriter injectingWriter =
+                new ContentInjectingStreamWriter(writer, delivery.contentByPlaceholder());
+        marshaller.marshal(delivery.publicationDelivery(), injectingWriter);
+        injectingWriter.checkAllContentWritten();
+        writer.writeEndDocument();
+        writer.close();
+    }
+
+    private Marshaller createMarshaller() throws JAXBException {
+        Marshaller marshaller = netexContext.createMarshaller();
+        marshaller.setProperty(Marshaller.JAXB_FORMATTED_OUTPUT, !compactOutput);
+        marshaller.setProperty(Marshaller.JAXB_ENCODING, NETEX_CHARSET_NAME);
+        return marshaller;
+    }
+
+    private Marshaller createFragmentMarshaller() throws JAXBException {
+        Marshaller marshaller = netexContext.createMarshaller();
+        marshaller.setProperty(Marshaller.JAXB_FRAGMENT, Boolean.TRUE);
+        return marshaller;
+    }
 }
@@ -0,0 +1,65 @@
+package no.rutebanken.extime.netex;
+
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+
+/**
+ * Writes NeTEx elements with the prefix JAXB bound the NeTEx namespace to in the delivery around them,
+ * which declares it, so that the streamed elements need no declaration of their own.
+ */
+public final class NetexStreamWriter {
+
+    static final String NETEX_NAMESPACE = "http://www.netex.org.uk/netex";
+
+    private final XMLStreamWriter out;
+    private final String prefix;
+
+    NetexStreamWriter(XMLStreamWriter out, String prefix) {
+        this.out = out;
+        this.prefix = prefix != null ? prefix : "";
+    }
+
+    public void startElement(String localName) throws XMLStreamException {
+        out.writeStartElement(prefix, localName, NETEX_NAMESPACE);
+    }
+
+    public void attribute(String localName, String value) throws XMLStreamException {
+        out.writeAttribute(localName, value);
+    }
+
+    /**
+     * Writes an element holding only text, and no text when the value is null, as JAXB marshals an empty
+     * {@code MultilingualString}.
+     */
+    public void textElement(String localName, String value) throws XMLStreamException {
+        startElement(localName);
+        if (value != null) {
+            out.writeCharacters(value);
+        }
+        endElement();
+    }
+
+    public void timeElement(String localName, LocalTime time) throws XMLStreamException {
+        textElement(localName, NetexValueAdapters.passingTime(time));
+    }
+
+    public void dateElement(String localName, LocalDateTime date) throws XMLStreamException {
+        textElement(localName, NetexValueAdapters.assignmentDate(date));
+    }
+
+    /**
+     * Writes a reference element, {@code <LineRef ref="..." version="..."/>}.
+     */
+    public void refElement(String localName, String ref, String version) throws XMLStreamException {
+        startElement(localName);
+        attribute("ref", ref);
+        attribute("version", version);
+        endElement();
+    }
+
+    public void endElement() throws XMLStreamException {
+        out.writeEndElement();
+    }
+}
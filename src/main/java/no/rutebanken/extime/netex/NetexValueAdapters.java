@@ -0,0 +1,61 @@
+package no.rutebanken.extime.netex;
+
+import jakarta.xml.bind.annotation.adapters.XmlAdapter;
+import jakarta.xml.bind.annotation.adapters.XmlJavaTypeAdapter;
+import no.rutebanken.extime.util.ExtimeException;
+import org.rutebanken.netex.model.DayTypeAssignment;
+import org.rutebanken.netex.model.TimetabledPassingTime;
+
+import java.lang.reflect.Field;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+
+/**
+ * Formats times and dates as JAXB does in NeTEx, with the very adapters the NeTEx model declares on its
+ * fields, so that a streamed passing time or date cannot drift from a marshalled one.
+ */
+final class NetexValueAdapters {
+
+    private static final XmlAdapter<String, LocalTime> PASSING_TIME =
+            adapterOf(TimetabledPassingTime.class, "arrivalTime");
+    private static final XmlAdapter<String, LocalDateTime> ASSIGNMENT_DATE =
+            adapterOf(DayTypeAssignment.class, "date");
+
+    private NetexValueAdapters() {
+    }
+
+    static String passingTime(LocalTime time) {
+        return print(PASSING_TIME, time);
+    }
+
+    static String assignmentDate(LocalDateTime date) {
+        return print(ASSIGNMENT_DATE, date);
+    }
+
+    private static <T> String print(XmlAdapter<String, T> adapter, T value) {
+        try {
+            return adapter.marshal(value);
+        } catch (Exception e) {
+            throw new ExtimeException("Could not format " + value + " for NeTEx", e);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> XmlAdapter<String, T> adapterOf(Class<?> type, String fieldName) {
+        for (Class<?> declaring = type; declaring != null; declaring = declaring.getSuperclass()) {
+            try {
+                Field field = declaring.getDeclaredField(fieldName);
+                XmlJavaTypeAdapter annotation = field.getAnnotation(XmlJavaTypeAdapter.class);
+                if (annotation == null) {
+                    break;
+                }
+                return (XmlAdapter<String, T>) annotation.value().getDeclaredConstructor().newInstance();
+            } catch (NoSuchFieldException e) {
+                // declared further up
+            } catch (ReflectiveOperationException e) {
+                throw new ExtimeException("Could not create the NeTEx adapter of " + type.getSimpleName() + "." + fieldName, e);
+            }
+        }
+        throw new ExtimeException("No XML adapter on " + type.getSimpleName() + "." + fieldName);
+    }
+}
@@ -0,0 +1,12 @@
+package no.rutebanken.extime.netex;
+
+import javax.xml.stream.XMLStreamException;
+
+/**
+ * The children of a NeTEx element, written with StAX while the delivery around them is marshalled.
+ */
+@FunctionalInterface
+public interface StreamedContent {
+
+    void writeTo(NetexStreamWriter writer) throws XMLStreamException;
+}
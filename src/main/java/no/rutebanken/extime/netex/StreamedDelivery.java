@@ -0,0 +1,26 @@
+package no.rutebanken.extime.netex;
+
+import jakarta.xml.bind.JAXBElement;
+import org.rutebanken.netex.model.PublicationDeliveryStructure;
+
+import java.util.Map;
+
+/**
+ * A publication delivery whose bulkiest parts are not in its object graph but written as it is
+ * marshalled: each entry fills the empty NeTEx element of that local name, {@code vehicleJourneys} say,
+ * that the graph holds in their place.
+ *
+ * @param contentByPlaceholder the streamed content by the local name of the element it fills, empty
+ *                             when the graph is the whole delivery.
+ */
+public record StreamedDelivery(JAXBElement<PublicationDeliveryStructure> publicationDelivery,
+                               Map<String, StreamedContent> contentByPlaceholder) {
+
+    public static StreamedDelivery of(JAXBElement<PublicationDeliveryStructure> publicationDelivery) {
+        return new StreamedDelivery(publicationDelivery, Map.of());
+    }
+
+    public boolean hasStreamedContent() {
+        return !contentByPlaceholder.isEmpty();
+    }
+}
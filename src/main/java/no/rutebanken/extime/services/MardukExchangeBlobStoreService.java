@@ -21,4 +21,11 @@ public class MardukExchangeBlobStoreService extends AbstractBlobStoreService {
     public void uploadBlob(String targetFile, InputStream sourceFile) {
         repository.uploadNewBlob(targetFile, sourceFile);
     }
+
+    /**
+     * Uploads a blob that may already exist, overwriting it.
+     */
+    public void replaceBlob(String targetFile, InputStream sourceFile) {
+        repository.uploadBlob(targetFile, sourceFile);
+    }
 }
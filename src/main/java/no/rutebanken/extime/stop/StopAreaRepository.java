@@ -13,8 +13,14 @@ import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HexFormat;
 import java.util.Map;
 import java.util.function.Function;
 import java.util.stream.Collectors;
@@ -30,6 +36,16 @@ import java.util.stream.Collectors;
  * which abandoned the exchange: the export produced nothing and the run reported success, so the only
  * signal was the absence of an archive nobody was watching for. It is retried first, because a dataset
  * that is missing because tiamat is mid-upload is genuinely transient, and then fails the export.
+ *
+ * <p>The airports change a few times a year, so the quay map is kept between exports along with the
+ * checksum of the archive it came from, and the archive is only parsed again when the checksum changes.
+ * Only the parse is saved, and only within the life of a pod. The archive itself is still downloaded
+ * every time: the blob store client offers no way to ask for a blob's generation or checksum without
+ * reading it, and a stale stop dataset is worse than a download of a small file.
+ *
+ * <p>With {@code extime.netex.airports.quays.only}, the parse reads the quays with StAX and skips the rest
+ * of the archive, rather than building every entity of it into an index that is then only asked for its
+ * quays.
  */
 @Component
 public class StopAreaRepository {
@@ -40,60 +56,91 @@ public class StopAreaRepository {
     private final NetexDatasetLoader netexDatasetLoader = new NetexDatasetLoader();
     private final RetrySettings retrySettings;
     private final String airportsExportFilename;
+    private final boolean quaysOnly;
+
+    // Guarded by this.
+    private ParsedDataset cached;
 
     public StopAreaRepository(
             MardukBlobStoreService mardukBlobStoreService,
             RetrySettings retrySettings,
-            @Value("${extime.netex.airports.export.filename:tiamat/Airports_latest.zip}") String airportsExportFilename) {
+            @Value("${extime.netex.airports.export.filename:tiamat/Airports_latest.zip}") String airportsExportFilename,
+            @Value("${extime.netex.airports.quays.only:false}") boolean quaysOnly) {
         this.mardukBlobStoreService = mardukBlobStoreService;
         this.retrySettings = retrySettings;
         this.airportsExportFilename = airportsExportFilename;
+        this.quaysOnly = quaysOnly;
     }
 
     /**
      * @return the quays of the NeTEx stop dataset, keyed by their {@code imported-id}, e.g.
      * {@code ["AVI:Quay:234" -> Quay]}.
      */
-    public Map<String, Quay> loadQuayMap() {
+    public synchronized Map<String, Quay> loadQuayMap() {
         LOGGER.debug("Refreshing stop areas.");
-        NetexEntitiesIndex index = Retry.withRetry(retrySettings,
+        byte[] stopDataset = Retry.withRetry(retrySettings,
                 "Downloading the NeTEx stop dataset " + airportsExportFilename,
-                this::downloadAndLoad);
-        Map<String, Quay> quayMap = buildAvinorLocalReferenceToQuayMap(index);
+                this::download);
+        String checksum = sha256(stopDataset);
+
+        if (cached != null && cached.checksum().equals(checksum)) {
+            LOGGER.info("NeTEx stop dataset unchanged, reusing its {} quays", cached.quayMap().size());
+            return cached.quayMap();
+        }
+
+        cached = new ParsedDataset(checksum, buildAvinorLocalReferenceToQuayMap(loadLatestQuays(stopDataset)));
         LOGGER.debug("Refreshed stop areas.");
-        return quayMap;
+        return cached.quayMap();
     }
 
-    private NetexEntitiesIndex downloadAndLoad() {
+    private byte[] download() {
         LOGGER.info("Downloading NeTEx Stop dataset {}", airportsExportFilename);
         try (InputStream stopDataset = mardukBlobStoreService.getBlob(airportsExportFilename)) {
             if (stopDataset == null) {
                 throw new ExtimeException("NeTEx Stopfile not found: " + airportsExportFilename);
             }
-            LOGGER.info("Loading NeTEx entries index for airports");
-            return netexDatasetLoader.load(stopDataset);
+            return stopDataset.readAllBytes();
         } catch (IOException e) {
             throw new ExtimeException("Could not read the NeTEx stop dataset " + airportsExportFilename, e);
         }
     }
 
-    private Map<String, Quay> buildAvinorLocalReferenceToQuayMap(NetexEntitiesIndex index) {
+    private Collection<Quay> loadLatestQuays(byte[] stopDataset) {
+        if (quaysOnly) {
+            LOGGER.info("Loading NeTEx quays for airports");
+            return netexDatasetLoader.loadQuays(new ByteArrayInputStream(stopDataset));
+        }
+        LOGGER.info("Loading NeTEx entries index for airports");
+        NetexEntitiesIndex index = netexDatasetLoader.load(new ByteArrayInputStream(stopDataset));
+        return index.getQuayIndex().getAllVersions()
+                .keySet()
+                .stream()
+                .map(quays -> index.getQuayIndex().getLatestVersion(quays))
+                .toList();
+    }
+
+    private static String sha256(byte[] content) {
+        try {
+            return HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(content));
+        } catch (NoSuchAlgorithmException e) {
+            throw new ExtimeException("SHA-256 is not available", e);
+        }
+    }
+
+    private Map<String, Quay> buildAvinorLocalReferenceToQuayMap(Collection<Quay> latestQuays) {
         Function<Quay, String> findAvinorLocalReference = quay -> {
             if (quay.getKeyList() == null) {
                 return null;
             }
             return quay.getKeyList().getKeyValue().stream()
-                    .filter(keyValueStructure -> keyValueStructure.getKey().equals("imported-id"))
+                    .filter(keyValueStructure -> "imported-id".equals(keyValueStructure.getKey()))
                     .map(KeyValueStructure::getValue)
                     .filter(value -> value != null && !value.isBlank())
                     .findFirst()
                     .orElse(null);
         };
 
-        return index.getQuayIndex().getAllVersions()
-                .keySet()
-                .stream()
-                .map(quays -> index.getQuayIndex().getLatestVersion(quays))
+        return latestQuays.stream()
                 .filter(quay -> {
                     String localReference = findAvinorLocalReference.apply(quay);
                     if (localReference == null) {
@@ -104,4 +151,14 @@ public class StopAreaRepository {
                 })
                 .collect(Collectors.toMap(findAvinorLocalReference, Function.identity()));
     }
+
+    /**
+     * The quay map built from one version of the stop dataset, identified by the checksum of the archive.
+     */
+    private record ParsedDataset(String checksum, Map<String, Quay> quayMap) {
+
+        ParsedDataset {
+            quayMap = Collections.unmodifiableMap(quayMap);
+        }
+    }
 }
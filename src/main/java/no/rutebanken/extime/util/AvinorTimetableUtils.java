@@ -1,7 +1,6 @@
 package no.rutebanken.extime.util;
 
 import com.google.common.collect.Maps;
-import no.avinor.flydata.xjc.model.scheduled.Flights;
 import no.rutebanken.extime.model.*;
 import org.apache.commons.lang3.EnumUtils;
 import org.rutebanken.netex.model.CompositeFrame;
@@ -10,15 +9,9 @@ import org.rutebanken.netex.model.PublicationDeliveryStructure;
 import org.rutebanken.netex.model.ServiceFrame;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
-import org.zeroturnaround.zip.ZipUtil;
 
-import jakarta.xml.bind.JAXBContext;
 import jakarta.xml.bind.JAXBElement;
-import jakarta.xml.bind.JAXBException;
-import javax.xml.transform.stream.StreamSource;
-import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileNotFoundException;
+import java.io.BufferedOutputStream;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.LinkOption;
@@ -27,9 +20,18 @@ import java.nio.file.PathMatcher;
 import java.nio.file.Paths;
 import java.text.CharacterIterator;
 import java.text.StringCharacterIterator;
+import java.time.LocalDateTime;
+import java.util.ArrayDeque;
 import java.util.Collection;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.stream.Stream;
 
 @Component
@@ -43,6 +45,12 @@ public class AvinorTimetableUtils {
     @Value("${netex.compressed.output.path}")
     private String compressedOutputPath;
 
+    @Value("${extime.netex.compression.level:-1}")
+    private int compressionLevel;
+
+    @Value("${extime.netex.compression.threads:0}")
+    private int compressionThreads;
+
     private static final Map<String, String> SPECIAL_ASCII_MAPPING = Maps.newHashMap();
     static {
         SPECIAL_ASCII_MAPPING.put("Ê", "E");
@@ -73,17 +81,6 @@ public class AvinorTimetableUtils {
         SPECIAL_ASCII_MAPPING.put("æ", "e");
     }
 
-    public List<FlightEvent> generateFlightEventsFromFeedDump(String inputDir) throws IOException {
-        FlightEventMapper flightEventMapper = new FlightEventMapper();
-        try (Stream<Path> list = Files.list(Path.of(inputDir))) {
-                    return list
-                    .map(path -> generateObjectsFromXml(path.toFile(), Flights.class))
-                    .map(flightEventMapper::mapToFlightEvent)
-                    .flatMap(Collection::stream)
-                    .toList();
-        }
-    }
-
     public String generateFilename(JAXBElement<PublicationDeliveryStructure> publicationDelivery) {
         List<ServiceFrame> collect = publicationDelivery.getValue().getDataObjects().getCompositeFrameOrCommonFrame().stream()
                 .map(JAXBElement::getValue)
@@ -140,9 +137,21 @@ public class AvinorTimetableUtils {
     }
 
     /**
+     * Deflates the files on {@code extime.netex.compression.threads} threads and writes them into the
+     * archive in the order of their names, so the archive does not depend on which file was deflated
+     * first, nor on the order the directory lists them in. At most two files per thread are deflated
+     * ahead of the one being written, which bounds what is held in memory.
+     *
      * @return the path of the archive.
      */
     public Path compressNetexFiles(String compressedFileName) {
+        return compressNetexFiles(compressedFileName, LocalDateTime.now());
+    }
+
+    /**
+     * @param entryTime the modification time of every entry in the archive.
+     */
+    public Path compressNetexFiles(String compressedFileName, LocalDateTime entryTime) {
         Path netexOutputDirPath = Paths.get(generatedOutputPath);
         Path zipOutputDirPath = Paths.get(compressedOutputPath);
         try {
@@ -155,13 +164,37 @@ public class AvinorTimetableUtils {
         Path zipOutputFilePath = zipOutputDirPath.resolve(compressedFileName);
         PathMatcher matcher = netexOutputDirPath.getFileSystem().getPathMatcher(XML_GLOB);
 
+        List<Path> files;
         try (Stream<Path> stream = Files.list(netexOutputDirPath)) {
-            File[] files = stream
+            files = stream
                     .filter(path -> Files.isRegularFile(path, LinkOption.NOFOLLOW_LINKS))
                     .filter(path -> matcher.matches(path.getFileName()))
-                    .map(Path::toFile)
-                    .toArray(File[]::new);
-            ZipUtil.packEntries(files, zipOutputFilePath.toFile());
+                    .sorted(Comparator.comparing(path -> path.getFileName().toString()))
+                    .toList();
+        } catch (IOException e) {
+            throw new ExtimeException("Error while compressing NeTEx files", e);
+        }
+
+        int threads = compressionThreads > 0 ? compressionThreads : Runtime.getRuntime().availableProcessors();
+        Deque<Future<DeflatedZipWriter.DeflatedEntry>> pending = new ArrayDeque<>();
+        try (ExecutorService executor = Executors.newFixedThreadPool(threads, Thread.ofPlatform().name("netex-deflate-", 0).factory());
+             DeflatedZipWriter zip = new DeflatedZipWriter(
+                     new BufferedOutputStream(Files.newOutputStream(zipOutputFilePath)), entryTime)) {
+            try {
+                Iterator<Path> remaining = files.iterator();
+                while (remaining.hasNext() || !pending.isEmpty()) {
+                    while (remaining.hasNext() && pending.size() < 2 * threads) {
+                        Path file = remaining.next();
+                        pending.add(executor.submit(() ->
+                                DeflatedZipWriter.deflate(file.getFileName().toString(), Files.readAllBytes(file), compressionLevel)));
+                    }
+                    zip.write(awaitDeflated(pending.removeFirst()));
+                }
+            } catch (IOException | RuntimeException e) {
+                // Before the executor's close, which would otherwise wait for every file to be deflated.
+                pending.forEach(deflation -> deflation.cancel(true));
+                throw e;
+            }
         } catch (IOException e) {
             throw new ExtimeException("Error while compressing NeTEx files", e);
         }
@@ -169,7 +202,19 @@ public class AvinorTimetableUtils {
         return zipOutputFilePath;
     }
 
-
+    private static DeflatedZipWriter.DeflatedEntry awaitDeflated(Future<DeflatedZipWriter.DeflatedEntry> deflation) {
+        try {
+            return deflation.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ExtimeException("Interrupted while compressing NeTEx files", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException cause) {
+                throw cause;
+            }
+            throw new ExtimeException("Error while compressing NeTEx files", e.getCause());
+        }
+    }
 
     public static boolean isValidFlight(StopVisitType stopVisitType, FlightLeg newFlight) {
         if (stopVisitType == StopVisitType.ARRIVAL) {
@@ -190,14 +235,5 @@ public class AvinorTimetableUtils {
                 && EnumUtils.isValidEnum(AirportIATA.class, arrivalIATA);
     }
 
-    private <T> T generateObjectsFromXml(File file , Class<T> clazz)   {
-        try {
-            return JAXBContext.newInstance(clazz).createUnmarshaller().unmarshal(
-                    new StreamSource(new FileInputStream(file)), clazz).getValue();
-        } catch (JAXBException | FileNotFoundException e) {
-            throw new ExtimeException("Error while unmarshalling JAXB files", e);
-        }
-    }
-
 
 }
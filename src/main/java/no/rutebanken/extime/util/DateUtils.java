@@ -49,6 +49,14 @@ public class DateUtils {
         return localDate.format(DateTimeFormatter.ofPattern("yyyy-MM-dd"));
     }
 
+    /**
+     * The start of today in the export time zone, which the deliveries of a deterministic export are
+     * published at: a timestamp that only moves with the availability period, which moves daily anyway.
+     */
+    public Instant startOfExportDay() {
+        return LocalDate.now(exportZoneId).atStartOfDay(exportZoneId).toInstant();
+    }
+
     public String timestamp() {
         return LocalDateTime.now().format(DateTimeFormatter.ofPattern("yyyyMMdd-HHmmss"));
     }
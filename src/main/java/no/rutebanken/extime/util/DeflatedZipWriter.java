@@ -0,0 +1,162 @@
+package no.rutebanken.extime.util;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Writes a zip archive of entries deflated beforehand, so that the deflating, which is most of the work
+ * of zipping, can be spread over threads while the archive itself is written in order on one.
+ * {@code ZipOutputStream} cannot do this: it deflates whatever is written to it, on the writing thread.
+ *
+ * <p>Only what the NeTEx archive needs is written: deflated entries under 4 GB each, in an archive under
+ * 4 GB with fewer than 65535 entries, without Zip64. Anything larger fails rather than producing an
+ * archive that marduk cannot read.
+ */
+public final class DeflatedZipWriter implements Closeable {
+
+    private static final int LOCAL_FILE_HEADER = 0x04034b50;
+    private static final int CENTRAL_DIRECTORY_HEADER = 0x02014b50;
+    private static final int END_OF_CENTRAL_DIRECTORY = 0x06054b50;
+    private static final int VERSION = 20;
+    private static final int UTF8_NAMES = 1 << 11;
+    private static final int DEFLATED = 8;
+    private static final long MAX_SIZE = 0xFFFFFFFFL;
+    private static final int MAX_ENTRIES = 0xFFFF;
+
+    private final OutputStream out;
+    private final int dosTime;
+    private final int dosDate;
+    private final List<WrittenEntry> writtenEntries = new ArrayList<>();
+    private long offset;
+
+    /**
+     * @param entryTime the modification time of every entry, as zip stores it: local time to two seconds.
+     */
+    public DeflatedZipWriter(OutputStream out, LocalDateTime entryTime) {
+        this.out = out;
+        this.dosTime = entryTime.getHour() << 11 | entryTime.getMinute() << 5 | entryTime.getSecond() >> 1;
+        this.dosDate = Math.max(entryTime.getYear() - 1980, 0) << 9 | entryTime.getMonthValue() << 5 | entryTime.getDayOfMonth();
+    }
+
+    /**
+     * Deflates the content of an entry, on the calling thread.
+     *
+     * @param level a {@link Deflater} compression level, {@link Deflater#DEFAULT_COMPRESSION} for zip's usual.
+     */
+    public static DeflatedEntry deflate(String name, byte[] content, int level) {
+        CRC32 crc = new CRC32();
+        crc.update(content);
+
+        Deflater deflater = new Deflater(level, true);
+        try {
+            deflater.setInput(content);
+            deflater.finish();
+            ByteArrayOutputStream deflated = new ByteArrayOutputStream(Math.max(content.length / 4, 64));
+            byte[] buffer = new byte[8192];
+            while (!deflater.finished()) {
+                deflated.write(buffer, 0, deflater.deflate(buffer));
+            }
+            return new DeflatedEntry(name, crc.getValue(), content.length, deflated.toByteArray());
+        } finally {
+            deflater.end();
+        }
+    }
+
+    public void write(DeflatedEntry entry) throws IOException {
+        if (entry.size() > MAX_SIZE || offset > MAX_SIZE) {
+            throw new ExtimeException("The NeTEx archive is too large for a zip without Zip64 at " + entry.name());
+        }
+        if (writtenEntries.size() == MAX_ENTRIES) {
+            throw new ExtimeException("The NeTEx archive has too many entries for a zip without Zip64");
+        }
+        byte[] name = entry.name().getBytes(StandardCharsets.UTF_8);
+        writtenEntries.add(new WrittenEntry(entry, name, offset));
+
+        ByteArrayOutputStream header = new ByteArrayOutputStream(30 + name.length);
+        writeInt(header, LOCAL_FILE_HEADER);
+        writeShort(header, VERSION);
+        writeEntryFields(header, entry, name);
+        header.write(name);
+        header.writeTo(out);
+        out.write(entry.deflatedContent());
+        offset += header.size() + entry.deflatedContent().length;
+    }
+
+    /**
+     * Writes the central directory, which makes the archive, and closes the underlying stream.
+     */
+    @Override
+    public void close() throws IOException {
+        try (out) {
+            if (offset > MAX_SIZE) {
+                throw new ExtimeException("The NeTEx archive is too large for a zip without Zip64");
+            }
+            ByteArrayOutputStream directory = new ByteArrayOutputStream();
+            for (WrittenEntry written : writtenEntries) {
+                writeInt(directory, CENTRAL_DIRECTORY_HEADER);
+                writeShort(directory, VERSION);
+                writeShort(directory, VERSION);
+                writeEntryFields(directory, written.entry(), written.name());
+                writeShort(directory, 0); // comment length
+                writeShort(directory, 0); // disk number
+                writeShort(directory, 0); // internal attributes
+                writeInt(directory, 0); // external attributes
+                writeInt(directory, (int) written.offset());
+                directory.write(written.name());
+            }
+            int directorySize = directory.size();
+            writeInt(directory, END_OF_CENTRAL_DIRECTORY);
+            writeShort(directory, 0);
+            writeShort(directory, 0);
+            writeShort(directory, writtenEntries.size());
+            writeShort(directory, writtenEntries.size());
+            writeInt(directory, directorySize);
+            writeInt(directory, (int) offset);
+            writeShort(directory, 0); // comment length
+            directory.writeTo(out);
+        }
+    }
+
+    /**
+     * The fields from the general purpose flags to the extra field length, which the local and the central
+     * headers share.
+     */
+    private void writeEntryFields(ByteArrayOutputStream header, DeflatedEntry entry, byte[] name) {
+        writeShort(header, UTF8_NAMES);
+        writeShort(header, DEFLATED);
+        writeShort(header, dosTime);
+        writeShort(header, dosDate);
+        writeInt(header, (int) entry.crc());
+        writeInt(header, entry.deflatedContent().length);
+        writeInt(header, (int) entry.size());
+        writeShort(header, name.length);
+        writeShort(header, 0); // extra field length
+    }
+
+    private static void writeShort(ByteArrayOutputStream out, int value) {
+        out.write(value);
+        out.write(value >>> 8);
+    }
+
+    private static void writeInt(ByteArrayOutputStream out, int value) {
+        writeShort(out, value);
+        writeShort(out, value >>> 16);
+    }
+
+    /**
+     * An entry ready to be written, deflated and with the CRC of its content.
+     */
+    public record DeflatedEntry(String name, long crc, long size, byte[] deflatedContent) {
+    }
+
+    private record WrittenEntry(DeflatedEntry entry, byte[] name, long offset) {
+    }
+}
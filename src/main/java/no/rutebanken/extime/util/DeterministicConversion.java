@@ -0,0 +1,82 @@
+package no.rutebanken.extime.util;
+
+import com.google.common.hash.Hashing;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.Random;
+import java.util.UUID;
+import java.util.function.Supplier;
+
+/**
+ * Pins what a NeTEx conversion otherwise draws anew on every run: the random part of frame and passing
+ * time ids, and the publication timestamp. A conversion run through {@link #run} on a thread draws its
+ * ids from a sequence seeded by a key of the delivery, and is published at the given time, so the same
+ * data converts to the same bytes and an unchanged archive can be recognised by its digest.
+ *
+ * <p>The scope is the calling thread, as the ids are drawn deep inside {@link NetexObjectFactory}. The
+ * marshalling of a delivery with streamed content draws ids too, so it belongs inside the same run as
+ * the conversion. Outside a run, ids are random and the timestamp is the current time, as before.
+ */
+public final class DeterministicConversion {
+
+    private static final ThreadLocal<DeterministicConversion> CURRENT = new ThreadLocal<>();
+
+    private final Random random;
+    private final Instant publicationTimestamp;
+
+    private DeterministicConversion(Random random, Instant publicationTimestamp) {
+        this.random = random;
+        this.publicationTimestamp = publicationTimestamp;
+    }
+
+    /**
+     * @param key                  what identifies the delivery among those of an export, the same from one
+     *                             export to the next.
+     * @param publicationTimestamp the publication timestamp of the delivery.
+     */
+    public static <T> T run(String key, Instant publicationTimestamp, Supplier<T> conversion) {
+        DeterministicConversion previous = CURRENT.get();
+        long seed = Hashing.farmHashFingerprint64().hashString(key, StandardCharsets.UTF_8).asLong();
+        CURRENT.set(new DeterministicConversion(new Random(seed), publicationTimestamp));
+        try {
+            return conversion.get();
+        } finally {
+            if (previous == null) {
+                CURRENT.remove();
+            } else {
+                CURRENT.set(previous);
+            }
+        }
+    }
+
+    public static void run(String key, Instant publicationTimestamp, Runnable conversion) {
+        run(key, publicationTimestamp, () -> {
+            conversion.run();
+            return null;
+        });
+    }
+
+    public static Instant publicationTimestamp() {
+        DeterministicConversion current = CURRENT.get();
+        return current != null ? current.publicationTimestamp : Instant.now();
+    }
+
+    /**
+     * @return a random generator, the seeded sequence of the current run if any.
+     */
+    static Random random(Random unseeded) {
+        DeterministicConversion current = CURRENT.get();
+        return current != null ? current.random : unseeded;
+    }
+
+    static UUID randomUuid() {
+        DeterministicConversion current = CURRENT.get();
+        if (current == null) {
+            return UUID.randomUUID();
+        }
+        long mostSignificantBits = current.random.nextLong() & ~0xF000L | 0x4000L;
+        long leastSignificantBits = current.random.nextLong() & ~(0xC000L << 48) | 0x8000L << 48;
+        return new UUID(mostSignificantBits, leastSignificantBits);
+    }
+}
@@ -15,11 +15,9 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Comparator;
-import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
-import java.util.UUID;
 import java.util.stream.Collectors;
 
 import static no.rutebanken.extime.Constants.AVINOR_XMLNS;
@@ -43,8 +41,6 @@ public class NetexObjectFactory {
 
     private final DateUtils dateUtils;
 
-    private final Map<String, DestinationDisplay> destinationDisplays = new HashMap<>();
-
     public NetexObjectFactory(ObjectFactory objectFactory, NetexStaticDataSet netexStaticDataSet, DateUtils dateUtils) {
         this.objectFactory = objectFactory;
         this.netexStaticDataSet = netexStaticDataSet;
@@ -490,14 +486,6 @@ public class NetexObjectFactory {
                 .withScheduledStopPointRef(stopPointRefStructElement);
     }
 
-    public DestinationDisplay getDestinationDisplay(String objectId) {
-        if (destinationDisplays.containsKey(objectId)) {
-            return destinationDisplays.get(objectId);
-        } else {
-            throw new IllegalArgumentException("Missing reference to destination display");
-        }
-    }
-
     public DestinationDisplay createDestinationDisplay(String objectId) {
         String destinationDisplayId = NetexObjectIdCreator.createDestinationDisplayId(AVINOR_XMLNS, objectId);
 
@@ -506,19 +494,13 @@ public class NetexObjectFactory {
                 .withId(destinationDisplayId);
     }
 
-    public DestinationDisplay createDestinationDisplay(String objectId, String frontText, boolean isStopDisplay) {
+    public DestinationDisplay createDestinationDisplay(String objectId, String frontText) {
         String destinationDisplayId = NetexObjectIdCreator.createDestinationDisplayId(AVINOR_XMLNS, objectId);
 
-        DestinationDisplay destinationDisplay = objectFactory.createDestinationDisplay()
+        return objectFactory.createDestinationDisplay()
                 .withVersion(VERSION_ONE)
                 .withId(destinationDisplayId)
                 .withFrontText(createMultilingualString(frontText));
-
-        if (isStopDisplay && !destinationDisplays.containsKey(destinationDisplayId)) {
-            destinationDisplays.put(destinationDisplayId, destinationDisplay);
-        }
-
-        return destinationDisplay;
     }
 
     public ServiceJourney createServiceJourney(String objectId, String lineId, String flightId, DayTypeRefs_RelStructure dayTypeRefsStruct,
@@ -553,7 +535,7 @@ public class NetexObjectFactory {
         JAXBElement<StopPointInJourneyPatternRefStructure> stopPointInJourneyPatternRefStructElement = objectFactory
                 .createStopPointInJourneyPatternRef(stopPointInJourneyPatternRefStruct);
 
-        String timetabledPassingTimeId = NetexObjectIdCreator.createTimetabledPassingTimeId(AVINOR_XMLNS, UUID.randomUUID().toString());
+        String timetabledPassingTimeId = NetexObjectIdCreator.createTimetabledPassingTimeId(AVINOR_XMLNS, NetexObjectIdCreator.generateRandomUuid());
 
         return objectFactory.createTimetabledPassingTime().withId(timetabledPassingTimeId).withVersion(VERSION_ONE)
                 .withPointInJourneyPatternRef(stopPointInJourneyPatternRefStructElement);
@@ -657,8 +639,4 @@ public class NetexObjectFactory {
                 .withRef(destinationDisplayId);
     }
 
-    public void clearReferentials() {
-        destinationDisplays.clear();
-    }
-
 }
@@ -149,7 +149,11 @@ public class NetexObjectIdCreator {
 
 
     public static int generateRandomId(int startInclusive, int endExclusive) {
-        return RANDOM.nextInt(endExclusive - startInclusive) + startInclusive;
+        return DeterministicConversion.random(RANDOM).nextInt(endExclusive - startInclusive) + startInclusive;
+    }
+
+    public static String generateRandomUuid() {
+        return DeterministicConversion.randomUuid().toString();
     }
 
     public static String hashObjectId(String objectId, int end) {
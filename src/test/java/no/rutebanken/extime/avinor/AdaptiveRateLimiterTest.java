@@ -0,0 +1,146 @@
+package no.rutebanken.extime.avinor;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Runs the limiter on a clock the test moves, so that the waits it hands out can be checked exactly
+ * rather than slept through.
+ */
+class AdaptiveRateLimiterTest {
+
+    private static final Duration INTERVAL = Duration.ofMillis(100);
+
+    private final AtomicLong now = new AtomicLong();
+
+    @Test
+    void spacesRequestsByTheIntervalWithABurstOfOne() {
+        AdaptiveRateLimiter limiter = limiter(1);
+
+        assertThat(waitOf(limiter)).isZero();
+        assertThat(waitOf(limiter)).isEqualTo(INTERVAL);
+        assertThat(waitOf(limiter)).as("queued behind the previous one").isEqualTo(INTERVAL.multipliedBy(2));
+    }
+
+    @Test
+    void letsABurstThroughAfterAQuietSpell() {
+        AdaptiveRateLimiter limiter = limiter(3);
+        waitOf(limiter);
+        advance(Duration.ofSeconds(1));
+
+        assertThat(waitOf(limiter)).isZero();
+        assertThat(waitOf(limiter)).isZero();
+        assertThat(waitOf(limiter)).isZero();
+        assertThat(waitOf(limiter)).isEqualTo(INTERVAL);
+    }
+
+    @Test
+    void halvesTheRateWhenAvinorIsOverloaded() {
+        AdaptiveRateLimiter limiter = limiter(1);
+        waitOf(limiter);
+
+        limiter.onResponse(503, Optional.empty());
+
+        assertThat(limiter.currentRate()).isEqualTo(5.0);
+        assertThat(waitOf(limiter)).isEqualTo(INTERVAL.multipliedBy(2));
+    }
+
+    @Test
+    void holdsEveryRequestUntilRetryAfterHasPassed() {
+        AdaptiveRateLimiter limiter = limiter(1);
+        waitOf(limiter);
+
+        limiter.onResponse(429, Optional.of(Duration.ofSeconds(7)));
+
+        assertThat(waitOf(limiter)).isEqualTo(Duration.ofSeconds(7));
+        advance(Duration.ofSeconds(7));
+        assertThat(waitOf(limiter)).as("the rate is halved after the pause too").isEqualTo(INTERVAL.multipliedBy(2));
+    }
+
+    /**
+     * Requests already asleep on their reservation when the 429 arrives must not wake up into the pause,
+     * and keep their order behind it, now spaced at the halved rate.
+     */
+    @Test
+    void holdsTheRequestsAlreadyQueuedWhenRetryAfterArrives() {
+        AdaptiveRateLimiter limiter = limiter(1);
+        limiter.reserve();
+        AdaptiveRateLimiter.Reservation second = limiter.reserve();
+        AdaptiveRateLimiter.Reservation third = limiter.reserve();
+        assertThat(Duration.ofNanos(second.waitNanos())).isEqualTo(INTERVAL);
+
+        limiter.onResponse(429, Optional.of(Duration.ofSeconds(5)));
+        advance(INTERVAL);
+
+        assertThat(Duration.ofNanos(limiter.remainingWait(second.ticket())))
+                .as("woken when it was due, it sleeps through the rest of the pause")
+                .isEqualTo(Duration.ofMillis(4900));
+        assertThat(Duration.ofNanos(limiter.remainingWait(third.ticket())))
+                .as("and the next one keeps its place behind it").isEqualTo(Duration.ofMillis(5100));
+        assertThat(waitOf(limiter)).as("a new request queues behind both").isEqualTo(Duration.ofMillis(5300));
+
+        advance(Duration.ofMillis(4900));
+        assertThat(limiter.remainingWait(second.ticket())).isZero();
+        assertThat(Duration.ofNanos(limiter.remainingWait(third.ticket()))).isEqualTo(INTERVAL.multipliedBy(2));
+    }
+
+    @Test
+    void recoversTheConfiguredRateOnSuccessfulResponses() {
+        AdaptiveRateLimiter limiter = limiter(1);
+        limiter.onResponse(503, Optional.empty());
+        limiter.onResponse(503, Optional.empty());
+        assertThat(limiter.currentRate()).isEqualTo(2.5);
+
+        for (int i = 0; i < 7; i++) {
+            limiter.onResponse(200, Optional.empty());
+        }
+        assertThat(limiter.currentRate()).isEqualTo(9.5);
+
+        limiter.onResponse(200, Optional.empty());
+        assertThat(limiter.currentRate()).as("and never more").isEqualTo(10.0);
+    }
+
+    @Test
+    void recoversOnNotModifiedAndClientErrorsButNotOnServerErrors() {
+        AdaptiveRateLimiter limiter = limiter(1);
+        limiter.onResponse(503, Optional.empty());
+
+        limiter.onResponse(500, Optional.empty());
+        assertThat(limiter.currentRate()).isEqualTo(5.0);
+
+        limiter.onResponse(304, Optional.empty());
+        assertThat(limiter.currentRate()).isEqualTo(6.0);
+
+        limiter.onResponse(404, Optional.empty());
+        assertThat(limiter.currentRate()).isEqualTo(7.0);
+    }
+
+    @Test
+    void neverSlowsDownBelowASixteenthOfTheConfiguredRate() {
+        AdaptiveRateLimiter limiter = limiter(1);
+
+        for (int i = 0; i < 10; i++) {
+            limiter.onResponse(503, Optional.empty());
+        }
+
+        assertThat(limiter.currentRate()).isEqualTo(10.0 / 16);
+    }
+
+    private AdaptiveRateLimiter limiter(int burst) {
+        return new AdaptiveRateLimiter(new SimpleMeterRegistry(), INTERVAL, burst, now::get);
+    }
+
+    private static Duration waitOf(AdaptiveRateLimiter limiter) {
+        return Duration.ofNanos(limiter.reserve().waitNanos());
+    }
+
+    private void advance(Duration duration) {
+        now.addAndGet(duration.toNanos());
+    }
+}
@@ -2,7 +2,12 @@ package no.rutebanken.extime.avinor;
 
 import com.sun.net.httpserver.HttpExchange;
 import com.sun.net.httpserver.HttpServer;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import no.rutebanken.extime.model.AirportIATA;
+import no.rutebanken.extime.model.FlightEvent;
 import no.rutebanken.extime.model.FlightRequest;
+import no.rutebanken.extime.model.FlightRequestBuilder;
 import no.rutebanken.extime.util.ExtimeException;
 import no.rutebanken.extime.util.RetrySettings;
 import org.junit.jupiter.api.AfterEach;
@@ -18,10 +23,20 @@ import java.nio.file.Files;
 import java.nio.file.Path;
 import java.time.Duration;
 import java.time.LocalDate;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicReference;
 
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
 
 /**
  * Serves the feed from an in-JVM HTTP server, so the path that talks to Avinor is exercised without the
@@ -33,6 +48,14 @@ class AvinorFeedClientTest {
 
     private HttpServer server;
     private final AtomicReference<Response> response = new AtomicReference<>();
+    private final MeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final AtomicBoolean stallAfterHeaders = new AtomicBoolean();
+    private final AtomicReference<String> retryAfterHeader = new AtomicReference<>();
+    private final AtomicReference<String> etag = new AtomicReference<>();
+    private final AtomicInteger bodiesSent = new AtomicInteger();
+    private RateLimiter rateLimiter = new AdaptiveRateLimiter(meterRegistry, Duration.ZERO, 1, System::nanoTime);
+    private final CountDownLatch released = new CountDownLatch(1);
+    private final FlightsUnmarshaller flightsUnmarshaller = new FlightsUnmarshaller();
 
     private record Response(int status, byte[] body) {
     }
@@ -46,6 +69,7 @@ class AvinorFeedClientTest {
 
     @AfterEach
     void stopServer() {
+        released.countDown();
         server.stop(0);
     }
 
@@ -73,6 +97,25 @@ class AvinorFeedClientTest {
                 .isInstanceOf(ExtimeException.class);
     }
 
+    @Test
+    void readsTheSameFlightEventsWithTheStreamingReader() throws IOException {
+        respondWith(200, Files.readAllBytes(Path.of("src/test/resources/testdata/SOG.xml")));
+
+        List<FlightEvent> unmarshalled = client().fetchFlightEvents(request());
+
+        assertThat(streamingClient().fetchFlightEvents(request()))
+                .isNotEmpty()
+                .containsExactlyElementsOf(unmarshalled);
+    }
+
+    @Test
+    void failsOnAWellFormedResponseThatIsNotTheFeedWithTheStreamingReader() {
+        respondWith(200, "<html><body>Service unavailable</body></html>".getBytes(StandardCharsets.UTF_8));
+
+        assertThatThrownBy(() -> streamingClient().fetchFlightEvents(request()))
+                .isInstanceOf(ExtimeException.class);
+    }
+
     @Test
     void writesTheRawResponseToDiskWhenDumpingIsOn(@TempDir Path dumpDir) throws IOException {
         respondWith(200, Files.readAllBytes(Path.of("src/test/resources/testdata/SOG.xml")));
@@ -80,7 +123,7 @@ class AvinorFeedClientTest {
         assertThat(dumpingClient(dumpDir.toString()).fetchFlightEvents(request())).isNotEmpty();
 
         // The raw bytes, so a dump can be replayed through avinor.timetable.dump.input.
-        assertThat(dumpDir.resolve("SOG.xml"))
+        assertThat(dumpDir.resolve("SOG_2026-08-14_2026-08-28.xml"))
                 .isRegularFile()
                 .hasSameBinaryContentAs(Path.of("src/test/resources/testdata/SOG.xml"));
     }
@@ -95,32 +138,276 @@ class AvinorFeedClientTest {
                         "avinor.timetable.dump.output is enabled but avinor.timetable.dump.output.path is not set");
     }
 
+    /**
+     * The request timeout stops at the headers, so a body that stalls must be given up on by the body
+     * deadline rather than hold the fetch until the deadline of the whole fan-out.
+     */
+    @Test
+    void givesUpOnABodyThatStallsAtTheBodyDeadline() throws IOException {
+        respondWith(200, Files.readAllBytes(Path.of("src/test/resources/testdata/SOG.xml")));
+        stallAfterHeaders.set(true);
+
+        long start = System.nanoTime();
+        assertThatThrownBy(() -> newClient(0, Duration.ofMillis(200), false, "").fetchFlightEvents(request()))
+                .isInstanceOf(ExtimeException.class)
+                .hasRootCauseMessage("Avinor did not send the whole response to %s within PT0.2S",
+                        request().request());
+        assertThat(Duration.ofNanos(System.nanoTime() - start)).isLessThan(Duration.ofSeconds(5));
+    }
+
+    /**
+     * The streaming reader reads the body as it arrives, so it is what the deadline cuts short, and the
+     * timeout rather than the truncated document is what the fetch fails with.
+     */
+    @Test
+    void givesUpOnABodyThatStallsAtTheBodyDeadlineWhileReadingIt() throws IOException {
+        respondWith(200, Files.readAllBytes(Path.of("src/test/resources/testdata/SOG.xml")));
+        stallAfterHeaders.set(true);
+        AvinorFeedClient client = new AvinorFeedClient(meterRegistry, rateLimiter, flightsUnmarshaller,
+                new RetrySettings(0, Duration.ofMillis(1), 1),
+                Duration.ofSeconds(5), Duration.ofSeconds(5), Duration.ofMillis(200), false, true, false, "");
+
+        long start = System.nanoTime();
+        assertThatThrownBy(() -> client.fetchFlightEvents(request()))
+                .isInstanceOf(ExtimeException.class)
+                .hasRootCauseMessage("Avinor did not send the whole response to %s within PT0.2S",
+                        request().request());
+        assertThat(Duration.ofNanos(System.nanoTime() - start)).isLessThan(Duration.ofSeconds(5));
+    }
+
+    @Test
+    void tellsTheRateLimiterToBackOffAsAvinorAsks() throws InterruptedException {
+        rateLimiter = mock(RateLimiter.class);
+        when(rateLimiter.acquire()).thenReturn(Duration.ZERO);
+        respondWith(429, "Too Many Requests".getBytes(StandardCharsets.UTF_8));
+        retryAfterHeader.set("7");
+
+        assertThatThrownBy(() -> client().fetchFlightEvents(request())).isInstanceOf(ExtimeException.class);
+
+        verify(rateLimiter).onResponse(429, Optional.of(Duration.ofSeconds(7)));
+    }
+
+    @Test
+    void reusesTheFlightsOfAResponseTheFeedSaysIsNotModified() throws IOException {
+        respondWith(200, Files.readAllBytes(Path.of("src/test/resources/testdata/SOG.xml")));
+        etag.set("\"sog-1\"");
+        AvinorFeedClient client = cachingClient();
+
+        List<FlightEvent> first = client.fetchFlightEvents(request());
+        List<FlightEvent> second = client.fetchFlightEvents(request());
+
+        assertThat(second).isNotEmpty().isEqualTo(first);
+        assertThat(bodiesSent).as("the second request is answered 304, without a body").hasValue(1);
+        assertThat(cacheResults("not-modified")).isEqualTo(1);
+    }
+
+    @Test
+    void reusesTheFlightsOfAResponseTheFeedSaysIsNotModifiedWithTheStreamingReader() throws IOException {
+        respondWith(200, Files.readAllBytes(Path.of("src/test/resources/testdata/SOG.xml")));
+        etag.set("\"sog-1\"");
+        AvinorFeedClient client = new AvinorFeedClient(meterRegistry, rateLimiter, flightsUnmarshaller,
+                new RetrySettings(0, Duration.ofMillis(1), 1),
+                Duration.ofSeconds(5), Duration.ofSeconds(5), Duration.ofSeconds(5), true, true, false, "");
+
+        List<FlightEvent> first = client.fetchFlightEvents(request());
+
+        assertThat(client.fetchFlightEvents(request())).isNotEmpty().isEqualTo(first);
+        assertThat(bodiesSent).as("the second request is answered 304, without a body").hasValue(1);
+        assertThat(cacheResults("not-modified")).isEqualTo(1);
+    }
+
+    @Test
+    void reusesTheFlightsOfAnUnchangedBodyWithoutUnmarshallingIt() throws IOException {
+        respondWith(200, Files.readAllBytes(Path.of("src/test/resources/testdata/SOG.xml")));
+        AvinorFeedClient client = cachingClient();
+
+        List<FlightEvent> first = client.fetchFlightEvents(request());
+        List<FlightEvent> second = client.fetchFlightEvents(request());
+
+        assertThat(second).isEqualTo(first);
+        assertThat(bodiesSent).hasValue(2);
+        assertThat(cacheResults("unchanged")).isEqualTo(1);
+        assertThat(meterRegistry.get("extime.timetable.fetch.body").tag("airport", "SOG").timer().count())
+                .as("unmarshalled once")
+                .isEqualTo(1);
+    }
+
+    @Test
+    void reusesTheFlightsOfAnUnchangedBodyReadWithTheStreamingReader() throws IOException {
+        respondWith(200, Files.readAllBytes(Path.of("src/test/resources/testdata/SOG.xml")));
+        AvinorFeedClient client = new AvinorFeedClient(meterRegistry, rateLimiter, flightsUnmarshaller,
+                new RetrySettings(0, Duration.ofMillis(1), 1),
+                Duration.ofSeconds(5), Duration.ofSeconds(5), Duration.ofSeconds(5), true, true, false, "");
+
+        List<FlightEvent> first = client.fetchFlightEvents(request());
+        List<FlightEvent> second = client.fetchFlightEvents(request());
+
+        assertThat(second).as("the flights already held, not a second copy").isNotEmpty().isSameAs(first);
+        assertThat(bodiesSent).hasValue(2);
+        assertThat(cacheResults("unchanged")).isEqualTo(1);
+    }
+
+    @Test
+    void forgetsTheResponsesToRequestsAnExportNoLongerMakes() throws IOException {
+        respondWith(200, Files.readAllBytes(Path.of("src/test/resources/testdata/SOG.xml")));
+        AvinorFeedClient client = cachingClient();
+
+        client.fetchFlightEvents(request());
+        client.retainCachedResponses(List.of(new FlightRequest(request().uri(), "SOG",
+                LocalDate.of(2026, 8, 15), LocalDate.of(2026, 8, 29))));
+        client.fetchFlightEvents(request());
+
+        assertThat(cacheResults("miss")).isEqualTo(2);
+    }
+
+    /**
+     * The windows stay on calendar boundaries as the period moves, so the next day's export asks again
+     * for the windows inside the period and finds their answers unchanged.
+     */
+    @Test
+    void reusesTheWindowsThatDidNotMoveOnTheNextDay() throws IOException {
+        respondWith(200, Files.readAllBytes(Path.of("src/test/resources/testdata/SOG.xml")));
+        String uri = "http://localhost:" + server.getAddress().getPort() + "/feed";
+        FlightRequestBuilder builder = new FlightRequestBuilder(uri, Duration.ofDays(28), Duration.ofDays(2), 7,
+                Set.of(AirportIATA.SOG));
+        AvinorFeedClient client = cachingClient();
+        LocalDate today = LocalDate.of(2026, 8, 16);
+
+        List<FlightRequest> todaysWindows = windowsOfSogn(builder.generateFlightRequestsForDay(today));
+        todaysWindows.forEach(client::fetchFlightEvents);
+        List<FlightRequest> tomorrowsWindows = windowsOfSogn(builder.generateFlightRequestsForDay(today.plusDays(1)));
+        tomorrowsWindows.forEach(client::fetchFlightEvents);
+
+        assertThat(cacheResults("unchanged")).isEqualTo(3);
+        assertThat(cacheResults("miss")).as("today's windows, then tomorrow's first and last")
+                .isEqualTo(todaysWindows.size() + 2);
+    }
+
+    private static List<FlightRequest> windowsOfSogn(List<FlightRequest> flightRequests) {
+        return flightRequests.stream().filter(flightRequest -> flightRequest.airportName().equals("SOG")).toList();
+    }
+
+    @Test
+    void unmarshalsABodyThatChanged() throws IOException {
+        respondWith(200, Files.readAllBytes(Path.of("src/test/resources/testdata/SOG.xml")));
+        AvinorFeedClient client = cachingClient();
+        client.fetchFlightEvents(request());
+
+        respondWith(200, Files.readAllBytes(Path.of("src/test/resources/testdata/BOO.xml")));
+
+        assertThat(client.fetchFlightEvents(request()))
+                .isNotEmpty()
+                .allSatisfy(flightEvent -> assertThat(flightEvent.departureAirport()).isEqualTo(AirportIATA.BOO));
+        assertThat(cacheResults("miss")).isEqualTo(2);
+    }
+
+    @Test
+    void measuresTheFetchPerAirport() throws IOException {
+        byte[] feed = Files.readAllBytes(Path.of("src/test/resources/testdata/SOG.xml"));
+        respondWith(200, feed);
+
+        client().fetchFlightEvents(request());
+
+        assertThat(meterRegistry.get("extime.timetable.fetch.headers").tag("airport", "SOG").timer().count()).isEqualTo(1);
+        assertThat(meterRegistry.get("extime.timetable.fetch.body").tag("airport", "SOG").timer().count()).isEqualTo(1);
+        assertThat(meterRegistry.get("extime.timetable.fetch.throttle.wait").tag("airport", "SOG").timer().count()).isEqualTo(1);
+        assertThat(meterRegistry.get("extime.timetable.fetch.response").tag("airport", "SOG").summary().totalAmount())
+                .isEqualTo(feed.length);
+    }
+
+    /**
+     * The first attempt is not a retry, so only the second and later ones are counted.
+     */
+    @Test
+    void countsTheRetries() {
+        respondWith(503, "Service Unavailable".getBytes(StandardCharsets.UTF_8));
+
+        assertThatThrownBy(() -> newClient(2, Duration.ofSeconds(5), false, "").fetchFlightEvents(request()))
+                .isInstanceOf(ExtimeException.class);
+
+        assertThat(meterRegistry.get("extime.timetable.fetch.retries").tag("airport", "SOG").counter().count())
+                .isEqualTo(2);
+        assertThat(meterRegistry.get("extime.timetable.fetch.headers").tag("airport", "SOG").timer().count())
+                .as("a response with an error status still has headers")
+                .isEqualTo(3);
+    }
+
     private void respondWith(int status, byte[] body) {
         response.set(new Response(status, body));
     }
 
     private void respond(HttpExchange exchange) throws IOException {
         Response toSend = response.get();
+        if (retryAfterHeader.get() != null) {
+            exchange.getResponseHeaders().add("Retry-After", retryAfterHeader.get());
+        }
+        if (etag.get() != null) {
+            if (etag.get().equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+                exchange.sendResponseHeaders(304, -1);
+                exchange.close();
+                return;
+            }
+            exchange.getResponseHeaders().add("ETag", etag.get());
+        }
+        bodiesSent.incrementAndGet();
+        if (stallAfterHeaders.get()) {
+            exchange.sendResponseHeaders(toSend.status(), toSend.body().length);
+            exchange.getResponseBody().write(toSend.body(), 0, toSend.body().length / 2);
+            exchange.getResponseBody().flush();
+            awaitRelease();
+            exchange.close();
+            return;
+        }
         exchange.sendResponseHeaders(toSend.status(), toSend.body().length);
         try (OutputStream out = exchange.getResponseBody()) {
             out.write(toSend.body());
         }
     }
 
+    private void awaitRelease() {
+        try {
+            released.await(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
     private AvinorFeedClient client() {
-        return newClient(false, "");
+        return newClient(0, Duration.ofSeconds(5), false, "");
+    }
+
+    private AvinorFeedClient cachingClient() {
+        return new AvinorFeedClient(meterRegistry, rateLimiter, flightsUnmarshaller,
+                new RetrySettings(0, Duration.ofMillis(1), 1),
+                Duration.ofSeconds(5), Duration.ofSeconds(5), Duration.ofSeconds(5), true, false, false, "");
+    }
+
+    private AvinorFeedClient streamingClient() {
+        return new AvinorFeedClient(meterRegistry, rateLimiter, flightsUnmarshaller,
+                new RetrySettings(0, Duration.ofMillis(1), 1),
+                Duration.ofSeconds(5), Duration.ofSeconds(5), Duration.ofSeconds(5), false, true, false, "");
+    }
+
+    private double cacheResults(String result) {
+        return meterRegistry.get("extime.timetable.fetch.cache").tag("airport", "SOG").tag("result", result)
+                .counter().count();
     }
 
     private AvinorFeedClient dumpingClient(String dumpOutputPath) {
-        return newClient(true, dumpOutputPath);
+        return newClient(0, Duration.ofSeconds(5), true, dumpOutputPath);
     }
 
-    private AvinorFeedClient newClient(boolean dumpOutput, String dumpOutputPath) {
+    private AvinorFeedClient newClient(int maxRetries, Duration bodyTimeout, boolean dumpOutput, String dumpOutputPath) {
         return new AvinorFeedClient(
-                new RetrySettings(0, Duration.ofMillis(1), 1),
+                meterRegistry,
+                rateLimiter,
+                flightsUnmarshaller,
+                new RetrySettings(maxRetries, Duration.ofMillis(1), 1),
                 Duration.ofSeconds(5),
                 Duration.ofSeconds(5),
-                Duration.ZERO,
+                bodyTimeout,
+                false,
+                false,
                 dumpOutput,
                 dumpOutputPath);
     }
@@ -1,22 +1,34 @@
 package no.rutebanken.extime.avinor;
 
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import no.rutebanken.extime.model.AirlineIATA;
 import no.rutebanken.extime.model.AirportIATA;
 import no.rutebanken.extime.model.FlightEvent;
 import no.rutebanken.extime.model.FlightRequest;
 import no.rutebanken.extime.model.FlightRequestBuilder;
-import no.rutebanken.extime.util.AvinorTimetableUtils;
 import no.rutebanken.extime.util.ExtimeException;
+import no.rutebanken.extime.util.RetrySettings;
 import org.junit.jupiter.api.Test;
-
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
 import java.time.Instant;
 import java.time.LocalDate;
 import java.time.LocalTime;
 import java.time.ZoneId;
 import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Future;
+import java.util.stream.Stream;
 
 import static no.rutebanken.extime.Constants.DEFAULT_ZONE_ID;
 import static org.assertj.core.api.Assertions.assertThat;
@@ -34,23 +46,60 @@ class FlightEventFetcherTest {
 
     private static final LocalDate FROM = LocalDate.of(2026, 8, 14);
     private static final LocalDate TO = FROM.plusDays(14);
+    private static final Path TESTDATA = Path.of("src/test/resources/testdata");
 
-    @Test
-    void oneFailingAirportFailsTheExport() {
-        FlightEventFetcher fetcher = fetcherFor(request("OSL"), request("BGO"));
+    @ParameterizedTest(name = "on virtual threads: {0}")
+    @ValueSource(booleans = {false, true})
+    void oneFailingAirportFailsTheExport(boolean virtualThreads) {
+        FlightEventFetcher fetcher = fetcherFor(virtualThreads, request("OSL"), request("BGO"));
 
         assertThatThrownBy(fetcher::fetchFlightEvents)
                 .isInstanceOf(ExtimeException.class)
                 .hasMessageContaining("BGO");
     }
 
-    @Test
-    void everyAirportsFlightsAreReturnedTogether() {
-        FlightEventFetcher fetcher = fetcherFor(request("OSL"), request("TRD"));
+    @ParameterizedTest(name = "on virtual threads: {0}")
+    @ValueSource(booleans = {false, true})
+    void everyAirportsFlightsAreReturnedTogether(boolean virtualThreads) {
+        FlightEventFetcher fetcher = fetcherFor(virtualThreads, request("OSL"), request("TRD"));
 
         assertThat(fetcher.fetchFlightEvents()).hasSize(2);
     }
 
+    /**
+     * Windows of one airport share their boundary day, so the flights of that day arrive twice.
+     */
+    @Test
+    void keepsAFlightFetchedInTwoWindowsOnce() {
+        FlightRequest firstWeek = new FlightRequest("https://feed.invalid", "OSL", FROM, FROM.plusDays(7));
+        FlightRequest secondWeek = new FlightRequest("https://feed.invalid", "OSL", FROM.plusDays(7), TO);
+        FlightEvent onTheBoundaryDay = flightEventFrom("OSL");
+        FlightEventFetcher fetcher = fetcherFor(false, firstWeek, secondWeek);
+
+        Map<FlightRequest, Future<List<FlightEvent>>> pending = new LinkedHashMap<>();
+        pending.put(firstWeek, CompletableFuture.completedFuture(List.of(onTheBoundaryDay)));
+        pending.put(secondWeek, CompletableFuture.completedFuture(List.of(onTheBoundaryDay)));
+
+        assertThat(fetcher.collect(pending, Instant.now().plusSeconds(10))).containsExactly(onTheBoundaryDay);
+    }
+
+    /**
+     * A flight is listed by both of its airports under the same id, and the converter has always been
+     * given both events.
+     */
+    @Test
+    void keepsAFlightFetchedFromBothOfItsAirports() {
+        FlightEvent fromOslo = flightEventFrom("OSL");
+        FlightEvent fromTrondheim = flightEventFrom("TRD");
+        FlightEventFetcher fetcher = fetcherFor(false, request("OSL"), request("TRD"));
+
+        Map<FlightRequest, Future<List<FlightEvent>>> pending = new LinkedHashMap<>();
+        pending.put(request("OSL"), CompletableFuture.completedFuture(List.of(fromOslo)));
+        pending.put(request("TRD"), CompletableFuture.completedFuture(List.of(fromTrondheim)));
+
+        assertThat(fetcher.collect(pending, Instant.now().plusSeconds(10))).containsExactly(fromOslo, fromTrondheim);
+    }
+
     /**
      * A request that never completes must not wedge the export. Nothing else bounds one: the JDK client's
      * request timeout does not cover the response body, so a peer that sends headers and then stalls
@@ -59,7 +108,7 @@ class FlightEventFetcherTest {
     @Test
     void aRequestThatNeverCompletesIsAbandonedAtTheDeadline() {
         CompletableFuture<List<FlightEvent>> neverCompletes = new CompletableFuture<>();
-        FlightEventFetcher fetcher = fetcherFor(request("OSL"));
+        FlightEventFetcher fetcher = fetcherFor(false, request("OSL"));
 
         assertThatThrownBy(() -> fetcher.collect(Map.of(request("OSL"), neverCompletes), Instant.now()))
                 .isInstanceOf(ExtimeException.class)
@@ -68,11 +117,58 @@ class FlightEventFetcherTest {
         assertThat(neverCompletes).as("the fetch thread is released, not left blocked").isCancelled();
     }
 
+    /**
+     * The files are read in parallel, but the flights come back in the order of the file names.
+     */
+    @ParameterizedTest(name = "on virtual threads: {0}")
+    @ValueSource(booleans = {false, true})
+    void replaysADumpInTheOrderOfItsFiles(boolean virtualThreads) throws IOException {
+        AvinorFeedClient feedClient = dumpReader();
+        FlightEventFetcher fetcher = new FlightEventFetcher(
+                mock(FlightRequestBuilder.class), feedClient, 4, virtualThreads, true, TESTDATA.toString());
+
+        List<FlightEvent> expected = new ArrayList<>();
+        try (Stream<Path> dumpFiles = Files.list(TESTDATA)) {
+            for (Path dumpFile : dumpFiles.sorted().toList()) {
+                expected.addAll(feedClient.readDump(dumpFile));
+            }
+        }
+
+        assertThat(fetcher.fetchFlightEvents()).isNotEmpty().containsExactlyElementsOf(expected);
+    }
+
+    /**
+     * A dump of an airport fetched in windows holds the flights of each boundary day twice.
+     */
+    @Test
+    void keepsAFlightDumpedInTwoWindowsOnce(@TempDir Path dump) throws IOException {
+        Path response = TESTDATA.resolve("SOG.xml");
+        Files.copy(response, dump.resolve("SOG_2026-08-14_2026-08-21.xml"));
+        Files.copy(response, dump.resolve("SOG_2026-08-21_2026-08-28.xml"));
+        AvinorFeedClient feedClient = dumpReader();
+        FlightEventFetcher fetcher = new FlightEventFetcher(
+                mock(FlightRequestBuilder.class), feedClient, 2, false, true, dump.toString());
+
+        assertThat(fetcher.fetchFlightEvents()).containsExactlyElementsOf(feedClient.readDump(response));
+    }
+
+    @Test
+    void oneUnreadableDumpFileFailsTheReplay(@TempDir Path dump) throws IOException {
+        Files.copy(TESTDATA.resolve("SOG.xml"), dump.resolve("SOG_2026-08-14_2026-08-28.xml"));
+        Files.writeString(dump.resolve("BGO_2026-08-14_2026-08-28.xml"), "<html/>");
+        FlightEventFetcher fetcher = new FlightEventFetcher(
+                mock(FlightRequestBuilder.class), dumpReader(), 2, false, true, dump.toString());
+
+        assertThatThrownBy(fetcher::fetchFlightEvents)
+                .isInstanceOf(ExtimeException.class)
+                .hasMessageContaining("[BGO]");
+    }
+
     @Test
     void failsWhenTheDumpDirectoryDoesNotExist() {
         FlightEventFetcher fetcher = new FlightEventFetcher(
-                mock(FlightRequestBuilder.class), mock(AvinorFeedClient.class), new AvinorTimetableUtils(),
-                1, true, "target/no-such-dump-directory");
+                mock(FlightRequestBuilder.class), mock(AvinorFeedClient.class),
+                1, false, true, "target/no-such-dump-directory");
 
         assertThatThrownBy(fetcher::fetchFlightEvents)
                 .isInstanceOf(ExtimeException.class)
@@ -80,7 +176,7 @@ class FlightEventFetcherTest {
     }
 
     /** BGO is the airport the stubbed feed refuses to serve. */
-    private static FlightEventFetcher fetcherFor(FlightRequest... requests) {
+    private static FlightEventFetcher fetcherFor(boolean virtualThreads, FlightRequest... requests) {
         FlightRequestBuilder requestBuilder = mock(FlightRequestBuilder.class);
         when(requestBuilder.generateFlightRequests()).thenReturn(List.of(requests));
 
@@ -93,7 +189,13 @@ class FlightEventFetcherTest {
             return List.of(flightEventFrom(request.airportName()));
         });
 
-        return new FlightEventFetcher(requestBuilder, feedClient, null, 2, false, "");
+        return new FlightEventFetcher(requestBuilder, feedClient, 2, virtualThreads, false, "");
+    }
+
+    private static AvinorFeedClient dumpReader() {
+        return new AvinorFeedClient(new SimpleMeterRegistry(), mock(RateLimiter.class), new FlightsUnmarshaller(),
+                new RetrySettings(0, Duration.ofMillis(1), 1), Duration.ofSeconds(5), Duration.ofSeconds(5),
+                Duration.ofSeconds(5), false, false, false, "");
     }
 
     private static FlightRequest request(String airportName) {
@@ -0,0 +1,66 @@
+package no.rutebanken.extime.avinor;
+
+import no.avinor.flydata.xjc.model.scheduled.Flights;
+import no.rutebanken.extime.util.ExtimeException;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.IntStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class FlightsUnmarshallerTest {
+
+    private static final Path SOG = Path.of("src/test/resources/testdata/SOG.xml");
+
+    private final FlightsUnmarshaller flightsUnmarshaller = new FlightsUnmarshaller();
+
+    /**
+     * Unmarshallers are not thread-safe, so the pool must never hand one to two threads at once.
+     */
+    @Test
+    void unmarshalsTheSameResponseOnManyThreadsAtOnce() throws Exception {
+        byte[] response = Files.readAllBytes(SOG);
+        int expectedFlights = flightsUnmarshaller.unmarshal(new ByteArrayInputStream(response)).getFlight().size();
+
+        Callable<Flights> unmarshal = () -> flightsUnmarshaller.unmarshal(new ByteArrayInputStream(response));
+        List<Future<Flights>> unmarshalled;
+        try (ExecutorService executor = Executors.newFixedThreadPool(8)) {
+            unmarshalled = executor.invokeAll(IntStream.range(0, 64).mapToObj(i -> unmarshal).toList());
+        }
+
+        for (Future<Flights> flights : unmarshalled) {
+            assertThat(flights.get().getFlight()).hasSize(expectedFlights);
+        }
+    }
+
+    @Test
+    void failsOnAWellFormedResponseThatIsNotTheFeed() {
+        byte[] response = "<html><body>Service unavailable</body></html>".getBytes(StandardCharsets.UTF_8);
+
+        assertThatThrownBy(() -> flightsUnmarshaller.unmarshal(new ByteArrayInputStream(response)))
+                .isInstanceOf(ExtimeException.class);
+    }
+
+    @Test
+    void carriesOnAfterAFailure() throws IOException {
+        assertThatThrownBy(() -> flightsUnmarshaller.unmarshal(
+                new ByteArrayInputStream("<flights".getBytes(StandardCharsets.UTF_8))))
+                .isInstanceOf(ExtimeException.class);
+
+        try (InputStream in = Files.newInputStream(SOG)) {
+            assertThat(flightsUnmarshaller.unmarshal(in).getFlight()).isNotEmpty();
+        }
+    }
+}
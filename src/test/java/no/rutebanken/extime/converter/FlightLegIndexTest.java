@@ -0,0 +1,89 @@
+package no.rutebanken.extime.converter;
+
+import no.rutebanken.extime.model.FlightLeg;
+import org.junit.jupiter.api.Test;
+
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.List;
+
+import static no.rutebanken.extime.TestUtils.*;
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * The index replaces a scan over every departure from the arrival airport, so it must pick the same leg
+ * the scan did: the earliest one with the same flight number that leaves after the current leg lands and
+ * within the maximum layover.
+ */
+class FlightLegIndexTest {
+
+    private static final FlightLeg OSL_HOV = createFlightLeg(1001L, "WF", "149", "OSL",
+            ZDT_2017_01_01_06_00, "HOV", ZDT_2017_01_01_06_30);
+
+    @Test
+    void findsTheEarliestLegDepartingAfterArrival() {
+        FlightLeg earliest = createFlightLeg(1002L, "WF", "149", "HOV",
+                ZDT_2017_01_01_07_00, "SOG", ZDT_2017_01_01_07_30);
+        FlightLeg later = createFlightLeg(1003L, "WF", "149", "HOV",
+                ZDT_2017_01_01_08_00, "SOG", ZDT_2017_01_01_08_30);
+
+        FlightLegIndex index = new FlightLegIndex(List.of(later, earliest));
+
+        assertThat(index.findNextLegOf(OSL_HOV)).contains(earliest);
+    }
+
+    @Test
+    void ignoresLegsDepartingBeforeOrAtArrival() {
+        FlightLeg departsBefore = createFlightLeg(1002L, "WF", "149", "HOV",
+                ZDT_2017_01_01_06_00, "SOG", ZDT_2017_01_01_06_30);
+        FlightLeg departsAtArrival = createFlightLeg(1003L, "WF", "149", "HOV",
+                ZDT_2017_01_01_06_30, "SOG", ZDT_2017_01_01_07_00);
+        FlightLeg departsAfter = createFlightLeg(1004L, "WF", "149", "HOV",
+                ZDT_2017_01_01_07_00, "SOG", ZDT_2017_01_01_07_30);
+
+        FlightLegIndex index = new FlightLegIndex(List.of(departsBefore, departsAtArrival, departsAfter));
+
+        assertThat(index.findNextLegOf(OSL_HOV)).contains(departsAfter);
+    }
+
+    @Test
+    void ignoresOtherFlightNumbersAndAirports() {
+        FlightLeg otherFlightNumber = createFlightLeg(1002L, "WF", "148", "HOV",
+                ZDT_2017_01_01_07_00, "SOG", ZDT_2017_01_01_07_30);
+        FlightLeg otherAirport = createFlightLeg(1003L, "WF", "149", "SOG",
+                ZDT_2017_01_01_07_00, "BGO", ZDT_2017_01_01_07_30);
+
+        FlightLegIndex index = new FlightLegIndex(List.of(otherFlightNumber, otherAirport));
+
+        assertThat(index.findNextLegOf(OSL_HOV)).isEmpty();
+    }
+
+    @Test
+    void ignoresLegsBeyondTheMaximumLayover() {
+        FlightLeg nextDay = createFlightLeg(1002L, "WF", "149", "HOV",
+                ZDT_2017_01_02_08_00, "SOG", ZDT_2017_01_02_08_30);
+
+        FlightLegIndex index = new FlightLegIndex(List.of(nextDay));
+
+        assertThat(index.findNextLegOf(OSL_HOV)).isEmpty();
+    }
+
+    /**
+     * The same flight number operates every day, so over a long window each lookup has many candidates
+     * and only the one on the same day may be chained.
+     */
+    @Test
+    void chainsTheLegOfTheSameDayOverALongWindow() {
+        List<FlightLeg> flightLegs = new ArrayList<>();
+        for (int day = 0; day < 120; day++) {
+            ZonedDateTime std = ZDT_2017_01_01_07_00.plusDays(day);
+            flightLegs.add(createFlightLeg(2000L + day, "WF", "149", "HOV", std, "SOG", std.plusMinutes(30)));
+        }
+        FlightLegIndex index = new FlightLegIndex(flightLegs);
+
+        FlightLeg onDay42 = createFlightLeg(1001L, "WF", "149", "OSL",
+                ZDT_2017_01_01_06_00.plusDays(42), "HOV", ZDT_2017_01_01_06_30.plusDays(42));
+
+        assertThat(index.findNextLegOf(onDay42)).contains(flightLegs.get(42));
+    }
+}
@@ -7,6 +7,8 @@ import no.rutebanken.extime.ExtimeSpringBootTestBase;
 import no.rutebanken.extime.fixtures.LineDataSetFixture;
 import no.rutebanken.extime.model.FlightRoute;
 import no.rutebanken.extime.model.LineDataSet;
+import no.rutebanken.extime.netex.NetexMarshaller;
+import no.rutebanken.extime.util.ExtimeException;
 import no.rutebanken.extime.util.NetexObjectIdCreator;
 import no.rutebanken.extime.util.NetexObjectIdTypes;
 import org.apache.commons.lang3.tuple.Pair;
@@ -26,20 +28,34 @@ import org.rutebanken.netex.model.ServiceCalendarFrame;
 import org.rutebanken.netex.model.ServiceFrame;
 import org.rutebanken.netex.model.StopPointInJourneyPattern;
 import org.rutebanken.netex.model.TimetableFrame;
+import org.rutebanken.netex.validation.NeTExValidator;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.w3c.dom.Document;
+import org.xml.sax.InputSource;
 
 import jakarta.xml.bind.JAXBElement;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.transform.stream.StreamSource;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
 import java.time.ZoneId;
 import java.time.ZonedDateTime;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.stream.Collectors;
 
 import static no.rutebanken.extime.Constants.NETEX_PROFILE_VERSION;
 import static no.rutebanken.extime.Constants.UNDERSCORE;
 import static no.rutebanken.extime.Constants.VERSION_ONE;
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
 
 class LineDataToNetexConverterTest extends ExtimeSpringBootTestBase {
 
@@ -176,6 +192,103 @@ class LineDataToNetexConverterTest extends ExtimeSpringBootTestBase {
         }
     }
 
+    /**
+     * The converter is a singleton and lines are converted in parallel, so a conversion must only ever see
+     * the destination displays of its own line: a via resolved against another line's stops would either
+     * fail or point at a display that is not in the file.
+     */
+    @Test
+    void concurrentConversionsKeepTheirOwnDestinationDisplays() throws Exception {
+        LineDataSet dyLine = LineDataSetFixture.createLineDataSet("DY", "OSL-BGO",
+                Lists.newArrayList(Pair.of("OSL-SOG-BGO", 1), Pair.of("BGO-SOG-OSL", 1)));
+        LineDataSet wfLine = LineDataSetFixture.createLineDataSet("WF", "TRD-SOG",
+                Lists.newArrayList(Pair.of("TRD-OSL-BGO-MOL-SOG", 1), Pair.of("SOG-MOL-BGO-OSL-TRD", 1)));
+
+        List<Future<Set<String>>> dyVias = new ArrayList<>();
+        List<Future<Set<String>>> wfVias = new ArrayList<>();
+        try (ExecutorService executor = Executors.newFixedThreadPool(8)) {
+            for (int i = 0; i < 25; i++) {
+                dyVias.add(executor.submit(() -> viaReferences(netexConverter.convertToNetex(dyLine).getValue())));
+                wfVias.add(executor.submit(() -> viaReferences(netexConverter.convertToNetex(wfLine).getValue())));
+            }
+            for (Future<Set<String>> vias : dyVias) {
+                assertThat(vias.get()).containsOnly("AVI:DestinationDisplay:DYOSLBGO-SOG");
+            }
+            for (Future<Set<String>> vias : wfVias) {
+                assertThat(vias.get()).isNotEmpty().allMatch(ref -> ref.startsWith("AVI:DestinationDisplay:WFTRDSOG-"));
+            }
+        }
+    }
+
+    /**
+     * The streamed journeys must make the same document as the marshalled objects, but for the ids and
+     * timestamps drawn anew by every conversion, declared the same way, and valid NeTEx both.
+     */
+    @Test
+    void streamedJourneysWriteTheSameDelivery() throws Exception {
+        NetexMarshaller netexMarshaller = new NetexMarshaller(true);
+        List<LineDataSet> lineDataSets = List.of(
+                LineDataSetFixture.createLineDataSet("DY", "OSL-BGO",
+                        Lists.newArrayList(Pair.of("OSL-BGO", 3), Pair.of("BGO-OSL", 2))),
+                LineDataSetFixture.createLineDataSet("WF", "TRD-SOG",
+                        Lists.newArrayList(Pair.of("TRD-OSL-BGO-MOL-SOG", 2), Pair.of("SOG-MOL-BGO-OSL-TRD", 1))));
+
+        for (LineDataSet lineDataSet : lineDataSets) {
+            ByteArrayOutputStream marshalled = new ByteArrayOutputStream();
+            netexMarshaller.marshal(netexConverter.convertToNetex(lineDataSet), marshalled);
+            ByteArrayOutputStream streamed = new ByteArrayOutputStream();
+            netexMarshaller.marshal(netexConverter.convertToStreamedNetex(lineDataSet), streamed);
+
+            assertThat(streamed.toString(StandardCharsets.UTF_8)).contains("ServiceJourney", "DayTypeAssignment");
+            assertThat(declaration(streamed)).isEqualTo(declaration(marshalled));
+            NeTExValidator.getNeTExValidator().validate(new StreamSource(new ByteArrayInputStream(marshalled.toByteArray())));
+            NeTExValidator.getNeTExValidator().validate(new StreamSource(new ByteArrayInputStream(streamed.toByteArray())));
+            Document expected = parseNormalized(marshalled);
+            Document actual = parseNormalized(streamed);
+            assertThat(actual.isEqualNode(expected))
+                    .as("streamed %s equals marshalled %s", streamed, marshalled)
+                    .isTrue();
+        }
+    }
+
+    @Test
+    void streamedJourneysFailOnAMissingRoute() {
+        LineDataSet lineDataSet = LineDataSetFixture.createLineDataSet("DY", "OSL-BGO",
+                Lists.newArrayList(Pair.of("OSL-BGO", 1)));
+        lineDataSet.getRouteJourneys().put("OSL-TRD", lineDataSet.getRouteJourneys().get("OSL-BGO"));
+
+        assertThatThrownBy(() -> netexConverter.convertToStreamedNetex(lineDataSet))
+                .isInstanceOf(ExtimeException.class)
+                .hasMessageContaining("OSL-TRD");
+    }
+
+    private static String declaration(ByteArrayOutputStream xml) {
+        String document = xml.toString(StandardCharsets.UTF_8);
+        return document.substring(0, document.indexOf("?>") + 2);
+    }
+
+    private static Document parseNormalized(ByteArrayOutputStream xml) throws Exception {
+        String normalized = xml.toString(StandardCharsets.UTF_8)
+                .replaceAll("[0-9a-f]{8}-[0-9a-f]{4}-[0-9a-f]{4}-[0-9a-f]{4}-[0-9a-f]{12}", "uuid")
+                .replaceAll("Frame:\\d+", "Frame:0")
+                .replaceAll("(created|changed)=\"[^\"]*\"", "$1=\"\"")
+                .replaceAll("<([\\w:]*)PublicationTimestamp>[^<]*<", "<$1PublicationTimestamp><");
+        DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+        factory.setNamespaceAware(true);
+        Document document = factory.newDocumentBuilder().parse(new InputSource(new StringReader(normalized)));
+        document.normalizeDocument();
+        return document;
+    }
+
+    private Set<String> viaReferences(PublicationDeliveryStructure publicationDelivery) {
+        ServiceFrame serviceFrame = NetexTestUtils.getFrames(ServiceFrame.class, NetexTestUtils.getDataObjectFrames(publicationDelivery)).getFirst();
+        return serviceFrame.getDestinationDisplays().getDestinationDisplay().stream()
+                .filter(destinationDisplay -> destinationDisplay.getVias() != null)
+                .flatMap(destinationDisplay -> destinationDisplay.getVias().getVia().stream())
+                .map(via -> via.getDestinationDisplayRef().getRef())
+                .collect(Collectors.toSet());
+    }
+
     private void assertValidPublicationDelivery(PublicationDeliveryStructure publicationDelivery, String lineName) {
         assertThat(publicationDelivery).isNotNull();
         assertThat(publicationDelivery.getVersion()).isEqualTo(NETEX_PROFILE_VERSION);
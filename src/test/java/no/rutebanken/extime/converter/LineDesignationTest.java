@@ -0,0 +1,60 @@
+package no.rutebanken.extime.converter;
+
+import no.rutebanken.extime.config.NetexStaticDataSet;
+import no.rutebanken.extime.model.AirportIATA;
+import no.rutebanken.extime.util.ExtimeException;
+import org.junit.jupiter.api.Test;
+
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class LineDesignationTest {
+
+    private static final Map<String, LineDesignation> LINES = LineDesignation.allOf(Map.of(
+            "osl", stopPlace("Oslo"),
+            "bgo", stopPlace("Bergen"),
+            "tos", stopPlace("Tromsø"),
+            "boo", stopPlace(null)));
+
+    @Test
+    void coversEveryPairOfAirports() {
+        assertThat(LINES).hasSize(AirportIATA.values().length * AirportIATA.values().length);
+    }
+
+    @Test
+    void linksBothDirections() {
+        LineDesignation line = LINES.get("TOS-BGO");
+
+        assertThat(line.designation()).isEqualTo("TOS-BGO");
+        assertThat(line.opposite()).isSameAs(LINES.get("BGO-TOS"));
+        assertThat(line.opposite().opposite()).isSameAs(line);
+    }
+
+    @Test
+    void mergesUnderTheMoreSignificantAirport() {
+        assertThat(LINES.get("BGO-OSL").mostSignificant().designation()).isEqualTo("OSL-BGO");
+        assertThat(LINES.get("TOS-BGO").mostSignificant().designation()).isEqualTo("BGO-TOS");
+        assertThat(LINES.get("BGO-TOS").mostSignificant().designation()).isEqualTo("BGO-TOS");
+        assertThat(LINES.get("TOS-ALF").mostSignificant().designation()).isEqualTo("TOS-ALF");
+        assertThat(LINES.get("BGO-TRD").mostSignificant().designation()).isEqualTo("BGO-TRD");
+    }
+
+    @Test
+    void namesTheLineAfterTheShortNames() {
+        assertThat(LINES.get("OSL-BGO").name()).isEqualTo("Oslo-Bergen");
+        assertThat(LINES.get("BOO-TOS").name()).isEqualTo("Tromsø");
+    }
+
+    @Test
+    void failsToNameALineWithoutStopPlace() {
+        assertThatThrownBy(() -> LINES.get("OSL-ALF").name()).isInstanceOf(ExtimeException.class);
+    }
+
+    private static NetexStaticDataSet.StopPlaceDataSet stopPlace(String shortName) {
+        NetexStaticDataSet.StopPlaceDataSet stopPlace = new NetexStaticDataSet.StopPlaceDataSet();
+        stopPlace.setShortName(shortName);
+        return stopPlace;
+    }
+}
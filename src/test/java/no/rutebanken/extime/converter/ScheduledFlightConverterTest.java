@@ -21,7 +21,6 @@ import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
-import java.util.stream.Collectors;
 
 import static no.rutebanken.extime.TestUtils.*;
 
@@ -204,13 +203,12 @@ class ScheduledFlightConverterTest {
         FlightLeg currentFlight = createFlightLeg(1001L, "WF", "149", "OSL",
                 ZDT_2017_01_01_06_00, "HOV", ZDT_2017_01_01_06_30);
 
-        Map<String, List<FlightLeg>> flightsByDepartureAirport = flightLegs.stream()
-                .collect(Collectors.groupingBy(FlightLeg::getDepartureAirport));
+        FlightLegIndex flightLegIndex = new FlightLegIndex(flightLegs);
 
         HashSet<Long> distinctFlightLegIds = Sets.newHashSet();
 
         clazzUnderTest.findConnectingFlightLegs(
-                currentFlight, flightsByDepartureAirport, distinctFlightLegIds);
+                currentFlight, flightLegIndex, distinctFlightLegIds);
 
         Assertions.assertThat(distinctFlightLegIds)
                 .isNotNull()
@@ -236,11 +234,10 @@ class ScheduledFlightConverterTest {
         FlightLeg currentFlight = createFlightLeg(1001L, "WF", "149", "OSL",
                 ZDT_2017_01_01_06_00, "HOV", ZDT_2017_01_01_06_30);
 
-        Map<String, List<FlightLeg>> flightsByDepartureAirport = flightLegs.stream()
-                .collect(Collectors.groupingBy(FlightLeg::getDepartureAirport));
+        FlightLegIndex flightLegIndex = new FlightLegIndex(flightLegs);
 
         List<FlightLeg> connectingFlightLegs = clazzUnderTest.findConnectingFlightLegs(
-                currentFlight, flightsByDepartureAirport, Sets.newHashSet());
+                currentFlight, flightLegIndex, Sets.newHashSet());
 
         Assertions.assertThat(connectingFlightLegs)
                 .isNotNull()
@@ -259,11 +256,10 @@ class ScheduledFlightConverterTest {
         FlightLeg currentFlight = createFlightLeg(1003L, "WF", "149", "SOG",
                 ZDT_2017_01_01_06_00, "BGO", ZDT_2017_01_01_06_30);
 
-        Map<String, List<FlightLeg>> flightsByDepartureAirport = flightLegs.stream()
-                .collect(Collectors.groupingBy(FlightLeg::getDepartureAirport));
+        FlightLegIndex flightLegIndex = new FlightLegIndex(flightLegs);
 
         List<FlightLeg> nextFlightLegs = clazzUnderTest.findNextFlightLegs(
-                currentFlight, flightsByDepartureAirport, Lists.newLinkedList());
+                currentFlight, flightLegIndex, Lists.newLinkedList());
 
         Assertions.assertThat(nextFlightLegs)
                 .isNotNull()
@@ -283,11 +279,10 @@ class ScheduledFlightConverterTest {
         FlightLeg currentFlight = createFlightLeg(1001L, "WF", "149", "OSL",
                 ZDT_2017_01_01_08_00, "HOV", ZDT_2017_01_01_08_30);
 
-        Map<String, List<FlightLeg>> flightsByDepartureAirport = flightLegs.stream()
-                .collect(Collectors.groupingBy(FlightLeg::getDepartureAirport));
+        FlightLegIndex flightLegIndex = new FlightLegIndex(flightLegs);
 
         List<FlightLeg> nextFlightLegs = clazzUnderTest.findNextFlightLegs(
-                currentFlight, flightsByDepartureAirport, Lists.newLinkedList());
+                currentFlight, flightLegIndex, Lists.newLinkedList());
 
         Assertions.assertThat(nextFlightLegs)
                 .isNotNull()
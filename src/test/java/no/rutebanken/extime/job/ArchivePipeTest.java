@@ -0,0 +1,76 @@
+package no.rutebanken.extime.job;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class ArchivePipeTest {
+
+    /** Several times the pipe, so that the writer has to wait for the reader. */
+    private static final byte[] ARCHIVE = randomBytes(5 * 1024 * 1024);
+
+    @Test
+    void theReaderGetsEverythingTheWriterWrote() {
+        ByteArrayOutputStream uploaded = new ByteArrayOutputStream();
+
+        ArchivePipe.transfer(ArchivePipeTest::writeArchive, in -> in.transferTo(uploaded));
+
+        assertThat(uploaded.toByteArray()).isEqualTo(ARCHIVE);
+    }
+
+    /**
+     * The case the pipe exists to get right: an archive cut short by a failed conversion must not reach
+     * the blob store as if it were whole.
+     */
+    @Test
+    void aFailedWriteFailsTheReadAndIsRethrownAsIs() {
+        ByteArrayOutputStream uploaded = new ByteArrayOutputStream();
+        IllegalStateException conversionFailure = new IllegalStateException("conversion failed");
+
+        assertThatThrownBy(() -> ArchivePipe.transfer(out -> {
+            try (OutputStream zip = out) {
+                zip.write(ARCHIVE, 0, ARCHIVE.length / 2);
+                throw conversionFailure;
+            }
+        }, in -> {
+            in.transferTo(uploaded);
+            throw new AssertionError("the reader saw the end of a truncated archive");
+        })).isSameAs(conversionFailure);
+    }
+
+    @Test
+    void aFailedReadIsReportedAsSuchAndReleasesTheWriter() {
+        IOException networkFailure = new IOException("connection reset");
+
+        assertThatThrownBy(() -> ArchivePipe.transfer(ArchivePipeTest::writeArchive, in -> {
+            in.readNBytes(1024);
+            throw networkFailure;
+        })).isInstanceOf(ArchivePipe.ReadFailedException.class).hasCause(networkFailure);
+    }
+
+    @Test
+    void aReaderStoppingShortOfTheEndIsAFailedRead() {
+        assertThatThrownBy(() -> ArchivePipe.transfer(ArchivePipeTest::writeArchive, in -> in.readNBytes(1024)))
+                .isInstanceOf(ArchivePipe.ReadFailedException.class);
+    }
+
+    private static void writeArchive(OutputStream out) throws IOException {
+        try (OutputStream zip = out) {
+            for (int offset = 0; offset < ARCHIVE.length; offset += 8192) {
+                zip.write(ARCHIVE, offset, Math.min(8192, ARCHIVE.length - offset));
+            }
+        }
+    }
+
+    private static byte[] randomBytes(int size) {
+        byte[] bytes = new byte[size];
+        new Random(42).nextBytes(bytes);
+        return bytes;
+    }
+}
@@ -0,0 +1,155 @@
+package no.rutebanken.extime.job;
+
+import no.rutebanken.extime.fixtures.LineDataSetFixture;
+import no.rutebanken.extime.job.LineOutputCache.CachedLine;
+import no.rutebanken.extime.job.LineOutputCache.DayValues;
+import no.rutebanken.extime.job.LineOutputCache.LineTemplate;
+import no.rutebanken.extime.model.AvailabilityPeriod;
+import no.rutebanken.extime.model.LineDataSet;
+import no.rutebanken.extime.model.ScheduledFlight;
+import org.apache.commons.lang3.tuple.Pair;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class LineOutputCacheTest {
+
+    private static final Instant PUBLISHED = Instant.parse("2026-10-17T22:00:00Z");
+    private static final String SETTINGS = "build=1.0@2026-10-01T12:00:00Z,compact=true,streamed=true";
+
+    private static final DayValues SATURDAY = DayValues.of(LocalDateTime.of(2026, 10, 17, 0, 0),
+            new AvailabilityPeriod(LocalDateTime.of(2026, 10, 17, 0, 0), LocalDateTime.of(2026, 10, 31, 23, 59, 59)));
+    private static final DayValues SUNDAY = DayValues.of(LocalDateTime.of(2026, 10, 18, 0, 0),
+            new AvailabilityPeriod(LocalDateTime.of(2026, 10, 18, 0, 0), LocalDateTime.of(2026, 11, 1, 23, 59, 59)));
+
+    @TempDir
+    private Path directory;
+
+    @Test
+    void fingerprintsEverythingThatReachesTheLine() {
+        LineDataSet lineDataSet = lineDataSet();
+        String fingerprint = LineOutputCache.fingerprint(lineDataSet, SETTINGS);
+        ScheduledFlight flight = lineDataSet.getRouteJourneys().values().iterator().next().values().iterator().next().getFirst();
+        LocalTime timeOfDeparture = flight.getTimeOfDeparture();
+
+        flight.setTimeOfDeparture(timeOfDeparture.plusMinutes(5));
+        assertThat(LineOutputCache.fingerprint(lineDataSet, SETTINGS)).isNotEqualTo(fingerprint);
+
+        flight.setTimeOfDeparture(timeOfDeparture);
+        assertThat(LineOutputCache.fingerprint(lineDataSet, SETTINGS)).isEqualTo(fingerprint);
+        assertThat(LineOutputCache.fingerprint(lineDataSet, "build=1.0@2026-10-01T12:00:00Z,compact=false,streamed=true"))
+                .isNotEqualTo(fingerprint);
+    }
+
+    @Test
+    void leavesWhatMovesDailyOutOfTheFingerprint() {
+        LineDataSet lineDataSet = lineDataSet();
+        String fingerprint = LineOutputCache.fingerprint(lineDataSet, SETTINGS);
+
+        AvailabilityPeriod period = lineDataSet.getAvailabilityPeriod();
+        lineDataSet.setAvailabilityPeriod(new AvailabilityPeriod(
+                period.periodFromDateTime().plusDays(1), period.periodToDateTime().plusDays(1)));
+
+        assertThat(LineOutputCache.fingerprint(lineDataSet, SETTINGS)).isEqualTo(fingerprint);
+    }
+
+    @Test
+    void fillsTheValuesOfTheDayIntoALineOfAnotherDay() {
+        LineTemplate template = LineTemplate.of(line("WF-BOO-TOS", delivery(SATURDAY)), SATURDAY).orElseThrow();
+
+        assertThat(template.slots()).hasSize(4);
+        assertThat(template.fill(SATURDAY)).hasValueSatisfying(line ->
+                assertThat(new String(line.content(), StandardCharsets.UTF_8)).isEqualTo(delivery(SATURDAY)));
+        assertThat(template.fill(SUNDAY)).hasValueSatisfying(line -> {
+            assertThat(line.name()).isEqualTo("WF-BOO-TOS");
+            assertThat(new String(line.content(), StandardCharsets.UTF_8)).isEqualTo(delivery(SUNDAY));
+        });
+    }
+
+    @Test
+    void doesNotMakeATemplateOfALineWithADayValueItCannotPlace() {
+        String delivery = delivery(SATURDAY).replace("<Name>", "<Name created=\"2026-01-01T00:00:00\">");
+
+        assertThat(LineTemplate.of(line("WF-BOO-TOS", delivery), SATURDAY)).isEmpty();
+    }
+
+    @Test
+    void doesNotMakeATemplateOfALineWithADayValueOutsideItsSlots() {
+        String delivery = delivery(SATURDAY).replace("<FromDate>2026-10-19T00:00:00</FromDate>",
+                "<FromDate>" + SATURDAY.availableTo() + "</FromDate>");
+
+        assertThat(LineTemplate.of(line("WF-BOO-TOS", delivery), SATURDAY)).isEmpty();
+    }
+
+    @Test
+    void returnsWhatWasPut() {
+        LineOutputCache cache = new LineOutputCache(directory, 1024 * 1024);
+        cache.put("a", LineTemplate.of(line("WF-BOO-TOS", delivery(SATURDAY)), SATURDAY).orElseThrow());
+
+        assertThat(cache.get("a")).hasValueSatisfying(template -> assertThat(template.fill(SUNDAY))
+                .hasValueSatisfying(line -> {
+                    assertThat(line.name()).isEqualTo("WF-BOO-TOS");
+                    assertThat(new String(line.content(), StandardCharsets.UTF_8)).isEqualTo(delivery(SUNDAY));
+                }));
+        assertThat(cache.get("b")).isEmpty();
+    }
+
+    @Test
+    void evictsTheLeastRecentlyUsedLinesBeyondItsSize() throws Exception {
+        String content = "x".repeat(1000);
+        LineOutputCache cache = new LineOutputCache(directory, 2500);
+        for (String fingerprint : List.of("oldest", "older", "newest")) {
+            cache.put(fingerprint, new LineTemplate(fingerprint, content.getBytes(StandardCharsets.UTF_8), List.of()));
+        }
+        Files.setLastModifiedTime(directory.resolve("oldest.line"), FileTime.from(PUBLISHED));
+        Files.setLastModifiedTime(directory.resolve("older.line"), FileTime.from(PUBLISHED.plusSeconds(1)));
+        Files.setLastModifiedTime(directory.resolve("newest.line"), FileTime.from(PUBLISHED.plusSeconds(2)));
+        assertThat(cache.get("oldest")).as("reading a line makes it the most recently used").isPresent();
+
+        cache.evict();
+
+        assertThat(cache.get("older")).isEmpty();
+        assertThat(cache.get("oldest")).isPresent();
+        assertThat(cache.get("newest")).isPresent();
+    }
+
+    /**
+     * The day values where the converter writes them, and an operating period with dates of its own.
+     */
+    private static String delivery(DayValues day) {
+        return """
+                <?xml version="1.0" encoding="UTF-8" standalone="yes"?>\
+                <PublicationDelivery xmlns="http://www.netex.org.uk/netex" version="1.15:NO-NeTEx-networktimetable:1.5">\
+                <PublicationTimestamp>%1$s</PublicationTimestamp><ParticipantRef>AVI</ParticipantRef>\
+                <Description>Bodø - Tromsø</Description><dataObjects><CompositeFrame created="%1$s" version="1" id="AVI:CompositeFrame:1"><validityConditions>\
+                <AvailabilityCondition version="1" id="AVI:AvailabilityCondition:2">\
+                <FromDate>%2$s</FromDate><ToDate>%3$s</ToDate></AvailabilityCondition></validityConditions>\
+                <frames><ServiceCalendarFrame version="1" id="AVI:ServiceCalendarFrame:3"><operatingPeriods>\
+                <OperatingPeriod version="1" id="AVI:OperatingPeriod:4"><FromDate>2026-10-19T00:00:00</FromDate>\
+                <ToDate>2026-10-20T00:00:00</ToDate></OperatingPeriod></operatingPeriods>\
+                <Name>BOO-TOS</Name></ServiceCalendarFrame></frames></CompositeFrame></dataObjects>\
+                </PublicationDelivery>"""
+                .formatted(day.publicationTimestamp(), day.availableFrom(), day.availableTo());
+    }
+
+    private static LineDataSet lineDataSet() {
+        return LineDataSetFixture.createLineDataSetWithFixedDates("WF", "BOO-TOS",
+                List.of(Pair.of("BOO-TOS", List.of(LocalDate.of(2026, 10, 19), LocalDate.of(2026, 10, 20)))),
+                LocalTime.of(7, 30));
+    }
+
+    private static CachedLine line(String name, String content) {
+        return new CachedLine(name, content.getBytes(StandardCharsets.UTF_8));
+    }
+}
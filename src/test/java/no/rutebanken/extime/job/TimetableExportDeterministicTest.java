@@ -0,0 +1,101 @@
+package no.rutebanken.extime.job;
+
+import no.rutebanken.extime.ExtimeSpringBootTestBase;
+import no.rutebanken.extime.pubsub.MardukNotifier;
+import no.rutebanken.extime.stop.StopAreaRepository;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.bean.override.mockito.MockitoBean;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.Comparator;
+import java.util.Map;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * The export with {@code extime.netex.publication.deterministic}: the same flights make the same
+ * archive, which is published once.
+ */
+@SpringBootTest(properties = {
+        "avinor.timetable.dump.input=true",
+        "avinor.timetable.dump.input.path=src/test/resources/testdata",
+        "netex.generated.output.path=target/netex-deterministic-test",
+        "netex.compressed.output.path=target/marduk-deterministic-test",
+        "extime.netex.publication.deterministic=true",
+        "queue.upload.destination.name=MockMardukQueue"
+})
+class TimetableExportDeterministicTest extends ExtimeSpringBootTestBase {
+
+    private static final Path COMPRESSED_OUTPUT_PATH = Path.of("target/marduk-deterministic-test");
+
+    @MockitoBean
+    private StopAreaRepository stopAreaRepository;
+
+    @MockitoBean
+    private MardukNotifier mardukNotifier;
+
+    @Autowired
+    private TimetableExportJob timetableExportJob;
+
+    @Autowired
+    private Map<String, Map<String, byte[]>> blobsInContainers;
+
+    @Test
+    void skipsPublishingAnUnchangedArchive() throws IOException {
+        when(stopAreaRepository.loadQuayMap()).thenReturn(Map.of());
+
+        timetableExportJob.export();
+        byte[] published = Files.readAllBytes(latestArchive());
+        timetableExportJob.export();
+
+        assertThat(Files.readAllBytes(latestArchive()))
+                .as("the second export writes the archive of the first to the byte")
+                .isEqualTo(published);
+
+        ArgumentCaptor<String> fileHandle = ArgumentCaptor.forClass(String.class);
+        verify(mardukNotifier, times(1)).notifyMarduk(anyString(), fileHandle.capture(), anyString());
+
+        Map<String, byte[]> exchange = blobsInContainers.get("marduk-exchange");
+        assertThat(exchange.keySet())
+                .as("the second archive is neither uploaded nor announced")
+                .filteredOn(name -> name.endsWith(".zip"))
+                .containsExactly(fileHandle.getValue());
+        assertThat(exchange.get("inbound/received/avi/avinor-netex.sha256"))
+                .as("the digest of the published archive is kept for the next export")
+                .isNotEmpty();
+        assertThat(exchange.get(fileHandle.getValue())).isEqualTo(published);
+    }
+
+    /**
+     * The archive an export just wrote. Archives are named after the time of their export, so that of the
+     * second export is either a file of its own or the first one overwritten.
+     */
+    private static Path latestArchive() throws IOException {
+        try (Stream<Path> archives = Files.list(COMPRESSED_OUTPUT_PATH)) {
+            return archives
+                    .filter(archive -> archive.getFileName().toString().endsWith(".zip"))
+                    .max(Comparator.comparing(TimetableExportDeterministicTest::lastModified))
+                    .orElseThrow();
+        }
+    }
+
+    private static FileTime lastModified(Path archive) {
+        try {
+            return Files.getLastModifiedTime(archive);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
@@ -101,6 +101,27 @@ class TimetableExportJobTest extends ExtimeSpringBootTestBase {
                 .contains("_avinor_common_elements.xml");
     }
 
+    /**
+     * The stages are what tells which step of a slower export regressed, so each of them must be timed,
+     * including those run on the conversion threads.
+     */
+    @Test
+    void timesEachStageAndGaugesTheSizeOfTheExport() {
+        when(stopAreaRepository.loadQuayMap()).thenReturn(Map.of());
+
+        timetableExportJob.export();
+
+        for (ExportMetrics.Stage stage : ExportMetrics.Stage.values()) {
+            assertThat(meterRegistry.get(ExportMetrics.STAGE_TIMER).tag("stage", stage.tag()).timer().count())
+                    .as("samples of the %s stage", stage.tag())
+                    .isPositive();
+        }
+        assertThat(meterRegistry.get("extime.timetable.export.flight.events").gauge().value()).isPositive();
+        assertThat(meterRegistry.get("extime.timetable.export.flight.legs").gauge().value()).isPositive();
+        assertThat(meterRegistry.get("extime.timetable.export.line.datasets").gauge().value()).isPositive();
+        assertThat(meterRegistry.get("extime.timetable.export.output").gauge().value()).isPositive();
+    }
+
     /**
      * A failed export must be visible. Nothing downstream notices a missing archive on its own, so the
      * counter and the rethrow are the whole signal.
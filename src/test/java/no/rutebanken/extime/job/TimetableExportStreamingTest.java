@@ -0,0 +1,90 @@
+package no.rutebanken.extime.job;
+
+import no.rutebanken.extime.ExtimeSpringBootTestBase;
+import no.rutebanken.extime.pubsub.MardukNotifier;
+import no.rutebanken.extime.stop.StopAreaRepository;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.bean.override.mockito.MockitoBean;
+
+import java.io.ByteArrayInputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * The export with {@code extime.netex.export.streaming}, which marshals into the archive instead of into
+ * the output directory. {@link TimetableExportJobTest} covers the rest of the job with the default.
+ */
+@SpringBootTest(properties = {
+        "avinor.timetable.dump.input=true",
+        "avinor.timetable.dump.input.path=src/test/resources/testdata",
+        "netex.generated.output.path=target/netex-streaming-test",
+        "netex.compressed.output.path=target/marduk-streaming-test",
+        "extime.netex.export.streaming=true",
+        "queue.upload.destination.name=MockMardukQueue"
+})
+class TimetableExportStreamingTest extends ExtimeSpringBootTestBase {
+
+    @MockitoBean
+    private StopAreaRepository stopAreaRepository;
+
+    @MockitoBean
+    private MardukNotifier mardukNotifier;
+
+    @Autowired
+    private TimetableExportJob timetableExportJob;
+
+    @Autowired
+    private Map<String, Map<String, byte[]>> blobsInContainers;
+
+    @Test
+    void exportsEveryLineWithoutTheOutputDirectory() throws Exception {
+        when(stopAreaRepository.loadQuayMap()).thenReturn(Map.of());
+        Path leftover = fileInTheOutputDirectory();
+
+        timetableExportJob.export();
+
+        assertThat(leftover)
+                .as("the output directory is neither read nor cleaned")
+                .hasContent("<stale/>");
+
+        ArgumentCaptor<String> fileHandle = ArgumentCaptor.forClass(String.class);
+        verify(mardukNotifier).notifyMarduk(anyString(), fileHandle.capture(), anyString());
+
+        List<String> entryNames = entryNamesOf(blobsInContainers.get("marduk-exchange").get(fileHandle.getValue()));
+        assertThat(entryNames)
+                .as("the common elements first, then a file per line")
+                .startsWith("_avinor_common_elements.xml")
+                .hasSizeGreaterThan(1)
+                .doesNotHaveDuplicates()
+                .doesNotContain(leftover.getFileName().toString())
+                .allMatch(name -> name.endsWith(".xml"));
+    }
+
+    private static Path fileInTheOutputDirectory() throws Exception {
+        Path netexOutputPath = Files.createDirectories(Path.of("target/netex-streaming-test"));
+        return Files.writeString(netexOutputPath.resolve("WF-discontinued-line.xml"), "<stale/>");
+    }
+
+    private static List<String> entryNamesOf(byte[] archive) throws Exception {
+        List<String> names = new ArrayList<>();
+        try (ZipInputStream zip = new ZipInputStream(new ByteArrayInputStream(archive))) {
+            for (ZipEntry entry = zip.getNextEntry(); entry != null; entry = zip.getNextEntry()) {
+                names.add(entry.getName());
+            }
+        }
+        return names;
+    }
+}
@@ -0,0 +1,151 @@
+package no.rutebanken.extime.model;
+
+import jakarta.xml.bind.JAXBContext;
+import jakarta.xml.bind.JAXBException;
+import no.avinor.flydata.xjc.model.scheduled.Flights;
+import no.rutebanken.extime.util.ExtimeException;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.MethodSource;
+import org.rutebanken.util.LocalTimeISO8601XmlAdapter;
+
+import javax.xml.transform.stream.StreamSource;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class FlightEventReaderTest {
+
+    private static final Path TESTDATA = Path.of("src/test/resources/testdata");
+
+    private final FlightEventReader reader = new FlightEventReader();
+
+    static Stream<Path> recordedResponses() throws IOException {
+        try (Stream<Path> files = Files.list(TESTDATA)) {
+            return files.filter(file -> file.toString().endsWith(".xml")).sorted().toList().stream();
+        }
+    }
+
+    /**
+     * The reader replaces unmarshalling and mapping, so it must give the same events, in the same order,
+     * for every response that was recorded.
+     */
+    @ParameterizedTest
+    @MethodSource("recordedResponses")
+    void readsWhatTheUnmarshallerAndTheMapperRead(Path response) throws IOException, JAXBException {
+        List<FlightEvent> expected = new FlightEventMapper().mapToFlightEvent(unmarshal(response));
+
+        try (InputStream input = Files.newInputStream(response)) {
+            assertThat(reader.read(input)).containsExactlyElementsOf(expected);
+        }
+    }
+
+    @Test
+    void keepsOnlyTheFlightsTheExportKeeps() throws Exception {
+        List<FlightEvent> flightEvents = read(flights(
+                flight(1, "DY", "OSL", "BGO", "J"),
+                flight(2, "XX", "OSL", "BGO", "J"),
+                flight(3, "DY", "OSL", "LHR", "J"),
+                flight(4, "DY", "OSL", "BGO", "C"),
+                flight(5, "DY", "OSL", "OSL", "J"),
+                flight(6, "DY", "OSL", "BGO", null)));
+
+        assertThat(flightEvents).extracting(FlightEvent::flightId).containsExactly(1L);
+        FlightEvent flightEvent = flightEvents.getFirst();
+        assertThat(flightEvent.flightNumber()).isEqualTo("DY601");
+        assertThat(flightEvent.airline()).isEqualTo(AirlineIATA.DY);
+        assertThat(flightEvent.departureAirport()).isEqualTo(AirportIATA.OSL);
+        assertThat(flightEvent.arrivalAirport()).isEqualTo(AirportIATA.BGO);
+        assertThat(flightEvent.dateOfOperation().toLocalDate()).hasToString("2026-08-14");
+        assertThat(flightEvent.departureTime()).isEqualTo(new LocalTimeISO8601XmlAdapter().unmarshal("07:00:00Z"));
+        assertThat(flightEvent.arrivalTime()).isEqualTo(new LocalTimeISO8601XmlAdapter().unmarshal("07:50:00Z"));
+    }
+
+    @Test
+    void skipsTheElementsItDoesNotNeed() {
+        List<FlightEvent> flightEvents = read(flights("""
+                <flight id="1">
+                  <airline.designator>DY</airline.designator>
+                  <flight.number>601</flight.number>
+                  <operational.suffix>A</operational.suffix>
+                  <date.of.operation>2026-08-14Z</date.of.operation>
+                  <departure.station>OSL</departure.station>
+                  <std>07:00:00Z</std>
+                  <variation.std>+1</variation.std>
+                  <arrival.station>BGO</arrival.station>
+                  <sta>07:50:00Z</sta>
+                  <aircraft.type>73H</aircraft.type>
+                  <service.type> J </service.type>
+                  <route>OSL-BGO</route>
+                  <creation>SSM</creation>
+                </flight>
+                """));
+
+        assertThat(flightEvents).extracting(FlightEvent::flightId).containsExactly(1L);
+    }
+
+    @Test
+    void failsOnAWellFormedResponseThatIsNotTheFeed() {
+        assertThatThrownBy(() -> read("<html><body>Service unavailable</body></html>"))
+                .isInstanceOf(ExtimeException.class)
+                .hasMessageContaining("not flights");
+    }
+
+    @Test
+    void failsOnAKeptFlightThatCannotBeParsed() {
+        String flight = flight(42, "DY", "OSL", "BGO", "J").replace("07:00:00Z", "seven");
+
+        assertThatThrownBy(() -> read(flights(flight)))
+                .isInstanceOf(ExtimeException.class)
+                .hasMessageContaining("42");
+    }
+
+    @Test
+    void failsOnAResponseThatIsNotWellFormed() {
+        assertThatThrownBy(() -> read(flights(flight(1, "DY", "OSL", "BGO", "J")).replace("</flights>", "")))
+                .isInstanceOf(ExtimeException.class);
+    }
+
+    private List<FlightEvent> read(String response) {
+        return reader.read(new ByteArrayInputStream(response.getBytes(StandardCharsets.ISO_8859_1)));
+    }
+
+    private static Flights unmarshal(Path response) throws JAXBException {
+        return JAXBContext.newInstance(Flights.class).createUnmarshaller()
+                .unmarshal(new StreamSource(response.toFile()), Flights.class)
+                .getValue();
+    }
+
+    private static String flights(String... flights) {
+        return """
+                <?xml version="1.0" encoding="iso-8859-1" ?>
+                <flights airport="OSL" time="2026-08-14T06:00:00Z">
+                %s</flights>
+                """.formatted(String.join("", flights));
+    }
+
+    private static String flight(long id, String airline, String departure, String arrival, String serviceType) {
+        return """
+                <flight id="%d">
+                  <airline.designator>%s</airline.designator>
+                  <flight.number>601</flight.number>
+                  <date.of.operation>2026-08-14Z</date.of.operation>
+                  <departure.station>%s</departure.station>
+                  <std>07:00:00Z</std>
+                  <arrival.station>%s</arrival.station>
+                  <sta>07:50:00Z</sta>
+                  %s
+                  <creation>SSM</creation>
+                </flight>
+                """.formatted(id, airline, departure, arrival,
+                serviceType != null ? "<service.type>" + serviceType + "</service.type>" : "");
+    }
+}
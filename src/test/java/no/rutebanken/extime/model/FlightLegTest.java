@@ -83,6 +83,23 @@ class FlightLegTest {
         Assertions.assertFalse(flight1.departSoonAfterArrivalOf(flight2));
     }
 
-
+    /**
+     * A leg holds ids and epoch seconds, but gives back what it was built with, airports outside the
+     * whitelist and the zone of the times included.
+     */
+    @Test
+    void testGivesBackWhatItWasBuiltWith() {
+        ZonedDateTime std = ZonedDateTime.parse("2017-03-26T01:30:00+01:00[Europe/Oslo]");
+        ZonedDateTime sta = ZonedDateTime.parse("2017-03-26T10:45:00-04:00[America/New_York]");
+        FlightLeg flight = createFlightLeg(1L, "SK", "SK4455", "OSL", std, "EWR", sta);
+
+        Assertions.assertEquals("OSL", flight.getDepartureAirport());
+        Assertions.assertEquals(AirportIATA.OSL.ordinal(), flight.getDepartureAirportId());
+        Assertions.assertEquals("EWR", flight.getArrivalAirport());
+        Assertions.assertEquals("SK", flight.getAirlineDesignator());
+        Assertions.assertEquals("SK4455", flight.getFlightNumber());
+        Assertions.assertEquals(std, flight.getStd());
+        Assertions.assertEquals(sta, flight.getSta());
+    }
 
 }
\ No newline at end of file
@@ -5,6 +5,7 @@ import org.junit.jupiter.api.Test;
 import java.time.Duration;
 import java.time.LocalDate;
 import java.util.List;
+import java.util.Set;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -17,7 +18,7 @@ class FlightRequestBuilderTest {
 
     @Test
     void test() {
-        FlightRequestBuilder builder = new FlightRequestBuilder(URI, DURATION_FORWARD, DURATION_BACK);
+        FlightRequestBuilder builder = new FlightRequestBuilder(URI, DURATION_FORWARD, DURATION_BACK, 0, Set.of(AirportIATA.OSL));
         List<FlightRequest> flightRequests = builder.generateFlightRequestsForDay(TODAY);
         assertNotNull(flightRequests);
         assertEquals(AirportIATA.values().length, flightRequests.size());
@@ -26,4 +27,34 @@ class FlightRequestBuilderTest {
 
     }
 
+    @Test
+    void splitsTheWindowedAirportsIntoCalendarWindowsSharingTheirBoundaryDay() {
+        FlightRequestBuilder builder = new FlightRequestBuilder(URI, Duration.ofDays(14), DURATION_BACK, 7, Set.of(AirportIATA.OSL));
+        List<FlightRequest> flightRequests = builder.generateFlightRequestsForDay(TODAY);
+
+        List<FlightRequest> oslo = flightRequests.stream().filter(flightRequest -> flightRequest.airportName().equals("OSL")).toList();
+        assertEquals(List.of(
+                new FlightRequest(URI, "OSL", LocalDate.of(2024, 11, 12), LocalDate.of(2024, 11, 14)),
+                new FlightRequest(URI, "OSL", LocalDate.of(2024, 11, 14), LocalDate.of(2024, 11, 21)),
+                new FlightRequest(URI, "OSL", LocalDate.of(2024, 11, 21), LocalDate.of(2024, 11, 28))), oslo);
+
+        assertEquals(AirportIATA.values().length + 2, flightRequests.size(), "the other airports are not split");
+    }
+
+    @Test
+    void keepsTheWindowsInsideThePeriodFromOneDayToTheNext() {
+        FlightRequestBuilder builder = new FlightRequestBuilder(URI, Duration.ofDays(14), DURATION_BACK, 7, Set.of(AirportIATA.OSL));
+
+        List<FlightRequest> today = oslo(builder.generateFlightRequestsForDay(TODAY));
+        List<FlightRequest> tomorrow = oslo(builder.generateFlightRequestsForDay(TODAY.plusDays(1)));
+
+        assertEquals(today.subList(1, 3), tomorrow.subList(1, 3));
+        assertEquals(new FlightRequest(URI, "OSL", LocalDate.of(2024, 11, 13), LocalDate.of(2024, 11, 14)), tomorrow.getFirst());
+        assertEquals(new FlightRequest(URI, "OSL", LocalDate.of(2024, 11, 28), LocalDate.of(2024, 11, 29)), tomorrow.getLast());
+    }
+
+    private static List<FlightRequest> oslo(List<FlightRequest> flightRequests) {
+        return flightRequests.stream().filter(flightRequest -> flightRequest.airportName().equals("OSL")).toList();
+    }
+
 }
\ No newline at end of file
@@ -0,0 +1,74 @@
+package no.rutebanken.extime.model;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalTime;
+
+class ScheduledFlightTest {
+
+    @Test
+    void testDirectFlightPatterns() {
+        ScheduledFlight flight = createDirectFlight("OSL", LocalTime.of(7, 0), "BGO", LocalTime.of(7, 55, 30));
+
+        Assertions.assertEquals("OSL-BGO", flight.getOperatingLine().designation());
+        Assertions.assertEquals("OSL-BGO", flight.getRoutePattern().designation());
+        Assertions.assertEquals("0700-075530", flight.getStopTimesPattern().designation());
+    }
+
+    @Test
+    void testMultiLegFlightPatterns() {
+        ScheduledFlight flight = new ScheduledFlight();
+        flight.getScheduledStopovers().add(createStopover("BOO", null, LocalTime.of(8, 0)));
+        flight.getScheduledStopovers().add(createStopover("SVJ", LocalTime.of(8, 30), LocalTime.of(8, 45)));
+        flight.getScheduledStopovers().add(createStopover("LKN", LocalTime.of(9, 15), null));
+
+        Assertions.assertEquals("BOO-LKN", flight.getOperatingLine().designation());
+        Assertions.assertEquals("BOO-SVJ-LKN", flight.getRoutePattern().designation());
+        Assertions.assertEquals("0800-08300845-0915", flight.getStopTimesPattern().designation());
+    }
+
+    @Test
+    void testEqualPatternsOfDifferentFlights() {
+        ScheduledFlight flight1 = createDirectFlight("OSL", LocalTime.of(7, 0), "BGO", LocalTime.of(7, 55));
+        ScheduledFlight flight2 = createDirectFlight("OSL", LocalTime.of(7, 0), "BGO", LocalTime.of(7, 55));
+        ScheduledFlight flight3 = createDirectFlight("BGO", LocalTime.of(7, 0), "OSL", LocalTime.of(7, 55));
+
+        Assertions.assertEquals(flight1.getRoutePattern(), flight2.getRoutePattern());
+        Assertions.assertEquals(flight1.getRoutePattern().hashCode(), flight2.getRoutePattern().hashCode());
+        Assertions.assertEquals(flight1.getStopTimesPattern(), flight2.getStopTimesPattern());
+        Assertions.assertNotEquals(flight1.getRoutePattern(), flight3.getRoutePattern());
+        Assertions.assertEquals(flight1.getStopTimesPattern(), flight3.getStopTimesPattern());
+    }
+
+    @Test
+    void testSettersClearPatterns() {
+        ScheduledFlight flight = createDirectFlight("OSL", LocalTime.of(7, 0), "BGO", LocalTime.of(7, 55));
+        Assertions.assertEquals("OSL-BGO", flight.getRoutePattern().designation());
+
+        flight.setArrivalAirportIATA("TRD");
+        flight.setTimeOfArrival(LocalTime.of(8, 0));
+
+        Assertions.assertEquals("OSL-TRD", flight.getOperatingLine().designation());
+        Assertions.assertEquals("OSL-TRD", flight.getRoutePattern().designation());
+        Assertions.assertEquals("0700-0800", flight.getStopTimesPattern().designation());
+    }
+
+    private static ScheduledFlight createDirectFlight(String departureAirport, LocalTime timeOfDeparture,
+                                                      String arrivalAirport, LocalTime timeOfArrival) {
+        ScheduledFlight flight = new ScheduledFlight();
+        flight.setDepartureAirportIATA(departureAirport);
+        flight.setTimeOfDeparture(timeOfDeparture);
+        flight.setArrivalAirportIATA(arrivalAirport);
+        flight.setTimeOfArrival(timeOfArrival);
+        return flight;
+    }
+
+    private static ScheduledStopover createStopover(String airport, LocalTime arrivalTime, LocalTime departureTime) {
+        ScheduledStopover stopover = new ScheduledStopover();
+        stopover.setAirportIATA(airport);
+        stopover.setArrivalTime(arrivalTime);
+        stopover.setDepartureTime(departureTime);
+        return stopover;
+    }
+}
@@ -7,21 +7,29 @@ import org.junit.jupiter.api.io.TempDir;
 import org.rutebanken.netex.model.ObjectFactory;
 import org.rutebanken.netex.model.PublicationDeliveryStructure;
 
+import java.io.ByteArrayOutputStream;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.time.LocalDateTime;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.assertj.core.api.Assertions.assertThatThrownBy;
 
 /**
  * The marshalled XML is the product, so the settings Camel's {@code JaxbDataFormat} applied have to
- * carry over: UTF-8 and pretty printing. A silent change here reaches the national journey planner.
+ * carry over: UTF-8 and pretty printing, unless compact output is asked for. A silent change here
+ * reaches the national journey planner.
  */
 class NetexMarshallerTest {
 
-    private final NetexMarshaller netexMarshaller = new NetexMarshaller();
+    private final NetexMarshaller netexMarshaller = new NetexMarshaller(false);
 
     @Test
     void writesPrettyPrintedUtf8(@TempDir Path directory) throws Exception {
@@ -35,6 +43,45 @@ class NetexMarshallerTest {
         assertThat(xml.lines()).as("pretty printed, not one long line").hasSizeGreaterThan(3);
     }
 
+    @Test
+    void writesCompactUtf8(@TempDir Path directory) throws Exception {
+        Path prettyFile = directory.resolve("pretty.xml");
+        Path compactFile = directory.resolve("compact.xml");
+
+        netexMarshaller.marshalToFile(publicationDelivery("Ålesund"), prettyFile);
+        new NetexMarshaller(true).marshalToFile(publicationDelivery("Ålesund"), compactFile);
+
+        String xml = Files.readString(compactFile, StandardCharsets.UTF_8);
+        assertThat(xml).startsWith("<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"yes\"?>");
+        assertThat(xml).contains("Ålesund");
+        assertThat(xml.lines()).as("one line, no indentation").hasSize(1);
+        assertThat(Files.size(compactFile)).isLessThan(Files.size(prettyFile));
+    }
+
+    /**
+     * The marshallers are pooled, so the later deliveries are written by a marshaller that already wrote
+     * one, on whichever thread takes it.
+     */
+    @Test
+    void writesTheSameWithReusedMarshallers() throws Exception {
+        ByteArrayOutputStream first = new ByteArrayOutputStream();
+        netexMarshaller.marshal(publicationDelivery("Bodø"), first);
+
+        List<Callable<byte[]>> marshalling = Collections.nCopies(16, () -> {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            netexMarshaller.marshal(publicationDelivery("Bodø"), out);
+            return out.toByteArray();
+        });
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            for (Future<byte[]> result : executor.invokeAll(marshalling)) {
+                assertThat(result.get()).isEqualTo(first.toByteArray());
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
     @Test
     void failsWhenTheFileCannotBeWritten(@TempDir Path directory) {
         Path file = directory.resolve("no-such-directory").resolve("delivery.xml");
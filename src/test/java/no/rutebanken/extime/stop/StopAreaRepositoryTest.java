@@ -4,6 +4,8 @@ import no.rutebanken.extime.services.MardukBlobStoreService;
 import no.rutebanken.extime.util.ExtimeException;
 import no.rutebanken.extime.util.RetrySettings;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
 import org.rutebanken.netex.model.Quay;
 
 import java.io.ByteArrayInputStream;
@@ -29,9 +31,18 @@ class StopAreaRepositoryTest {
 
     private static final String AIRPORTS_ZIP = "tiamat/Airports_latest.zip";
 
-    @Test
-    void indexesQuaysByTheirAvinorImportedId() {
-        StopAreaRepository repository = repositoryReturning(netexArchive("""
+    private static final String BGO_QUAY = """
+            <Quay version="1" id="NSR:Quay:11111">
+              <keyList>
+                <KeyValue><Key>imported-id</Key><Value>AVI:Quay:BGO</Value></KeyValue>
+              </keyList>
+            </Quay>
+            """;
+
+    @ParameterizedTest(name = "quays only: {0}")
+    @ValueSource(booleans = {false, true})
+    void indexesQuaysByTheirAvinorImportedId(boolean quaysOnly) {
+        StopAreaRepository repository = repositoryReturning(quaysOnly, netexArchive("""
                 <Quay version="1" id="NSR:Quay:11111">
                   <keyList>
                     <KeyValue><Key>imported-id</Key><Value>AVI:Quay:BGO</Value></KeyValue>
@@ -50,9 +61,10 @@ class StopAreaRepositoryTest {
         assertThat(quayMap.get("AVI:Quay:BGO").getId()).isEqualTo("NSR:Quay:11111");
     }
 
-    @Test
-    void skipsQuaysWithoutAnImportedId() {
-        StopAreaRepository repository = repositoryReturning(netexArchive("""
+    @ParameterizedTest(name = "quays only: {0}")
+    @ValueSource(booleans = {false, true})
+    void skipsQuaysWithoutAnImportedId(boolean quaysOnly) {
+        StopAreaRepository repository = repositoryReturning(quaysOnly, netexArchive("""
                 <Quay version="1" id="NSR:Quay:11111">
                   <keyList>
                     <KeyValue><Key>imported-id</Key><Value>AVI:Quay:BGO</Value></KeyValue>
@@ -78,10 +90,78 @@ class StopAreaRepositoryTest {
                 .hasMessageContaining(AIRPORTS_ZIP);
     }
 
+    /**
+     * The StAX reader has to make the choices the index made for it: the latest version of a quay, and
+     * the quay's own imported-id rather than one from an element nested in it.
+     */
+    @Test
+    void quaysOnlyReadsTheLatestVersionAndTheQuaysOwnKeyList() {
+        StopAreaRepository repository = repositoryReturning(true, netexArchive("""
+                <Quay version="2" id="NSR:Quay:11111">
+                  <keyList>
+                    <KeyValue><Key>imported-id</Key><Value>AVI:Quay:BGO</Value></KeyValue>
+                  </keyList>
+                  <boardingPositions>
+                    <BoardingPosition version="1" id="NSR:BoardingPosition:1">
+                      <keyList>
+                        <KeyValue><Key>imported-id</Key><Value>AVI:BoardingPosition:1</Value></KeyValue>
+                      </keyList>
+                    </BoardingPosition>
+                  </boardingPositions>
+                </Quay>
+                <Quay version="1" id="NSR:Quay:11111">
+                  <keyList>
+                    <KeyValue><Key>imported-id</Key><Value>AVI:Quay:OLD</Value></KeyValue>
+                  </keyList>
+                </Quay>
+                """));
+
+        Map<String, Quay> quayMap = repository.loadQuayMap();
+
+        assertThat(quayMap).containsOnlyKeys("AVI:Quay:BGO");
+        assertThat(quayMap.get("AVI:Quay:BGO").getVersion()).isEqualTo("2");
+    }
+
+    @Test
+    void reusesTheQuayMapWhileTheDatasetIsUnchanged() {
+        StopAreaRepository repository = repositoryReturning(netexArchive(BGO_QUAY));
+
+        Map<String, Quay> first = repository.loadQuayMap();
+
+        assertThat(repository.loadQuayMap()).isSameAs(first);
+    }
+
+    @Test
+    void reparsesTheDatasetWhenItChanges() {
+        byte[] before = netexArchive(BGO_QUAY);
+        byte[] after = netexArchive(BGO_QUAY.replace("NSR:Quay:11111", "NSR:Quay:55555"));
+        MardukBlobStoreService blobStore = mock(MardukBlobStoreService.class);
+        when(blobStore.getBlob(any()))
+                .thenReturn(new ByteArrayInputStream(before))
+                .thenReturn(new ByteArrayInputStream(after));
+        StopAreaRepository repository = repository(blobStore, false);
+
+        assertThat(repository.loadQuayMap().get("AVI:Quay:BGO").getId()).isEqualTo("NSR:Quay:11111");
+        assertThat(repository.loadQuayMap().get("AVI:Quay:BGO").getId()).isEqualTo("NSR:Quay:55555");
+    }
+
     private static StopAreaRepository repositoryReturning(byte[] archive) {
+        return repositoryReturning(false, archive);
+    }
+
+    private static StopAreaRepository repositoryReturning(boolean quaysOnly, byte[] archive) {
+        return repository(blobStoreReturning(archive), quaysOnly);
+    }
+
+    private static MardukBlobStoreService blobStoreReturning(byte[] archive) {
         MardukBlobStoreService blobStore = mock(MardukBlobStoreService.class);
-        when(blobStore.getBlob(any())).thenReturn(archive == null ? null : new ByteArrayInputStream(archive));
-        return new StopAreaRepository(blobStore, new RetrySettings(0, Duration.ofMillis(1), 1), AIRPORTS_ZIP);
+        when(blobStore.getBlob(any())).thenAnswer(invocation -> archive == null ? null : new ByteArrayInputStream(archive));
+        return blobStore;
+    }
+
+    private static StopAreaRepository repository(MardukBlobStoreService blobStore, boolean quaysOnly) {
+        return new StopAreaRepository(blobStore, new RetrySettings(0, Duration.ofMillis(1), 1), AIRPORTS_ZIP,
+                quaysOnly);
     }
 
     /**
@@ -0,0 +1,57 @@
+package no.rutebanken.extime.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class DeflatedZipWriterTest {
+
+    private static final LocalDateTime ENTRY_TIME = LocalDateTime.of(2026, 10, 18, 4, 12, 30);
+
+    @Test
+    void writesAnArchiveThatZipInputStreamReads() throws Exception {
+        Map<String, String> contents = new LinkedHashMap<>();
+        contents.put("_avinor_common_elements.xml", "<PublicationDelivery/>".repeat(500));
+        contents.put("Widerøe-Bodø-Tromsø.xml", "<Line>Bodø-Tromsø</Line>");
+        contents.put("empty.xml", "");
+
+        ByteArrayOutputStream archive = new ByteArrayOutputStream();
+        try (DeflatedZipWriter zip = new DeflatedZipWriter(archive, ENTRY_TIME)) {
+            for (Map.Entry<String, String> content : contents.entrySet()) {
+                zip.write(DeflatedZipWriter.deflate(content.getKey(),
+                        content.getValue().getBytes(StandardCharsets.UTF_8), Deflater.DEFAULT_COMPRESSION));
+            }
+        }
+
+        Map<String, String> unzipped = new LinkedHashMap<>();
+        try (ZipInputStream in = new ZipInputStream(new ByteArrayInputStream(archive.toByteArray()))) {
+            for (ZipEntry entry = in.getNextEntry(); entry != null; entry = in.getNextEntry()) {
+                assertThat(entry.getTimeLocal()).isEqualTo(ENTRY_TIME);
+                unzipped.put(entry.getName(), new String(in.readAllBytes(), StandardCharsets.UTF_8));
+            }
+        }
+        assertThat(unzipped).containsExactlyEntriesOf(contents);
+    }
+
+    @Test
+    void deflatesByLevel() {
+        byte[] content = "<ServiceJourney version=\"1\"/>".repeat(1000).getBytes(StandardCharsets.UTF_8);
+
+        DeflatedZipWriter.DeflatedEntry stored = DeflatedZipWriter.deflate("a.xml", content, Deflater.NO_COMPRESSION);
+        DeflatedZipWriter.DeflatedEntry deflated = DeflatedZipWriter.deflate("a.xml", content, Deflater.BEST_COMPRESSION);
+
+        assertThat(stored.size()).isEqualTo(content.length);
+        assertThat(deflated.crc()).isEqualTo(stored.crc());
+        assertThat(deflated.deflatedContent()).hasSizeLessThan(stored.deflatedContent().length);
+    }
+}
@@ -0,0 +1,38 @@
+package no.rutebanken.extime.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Instant;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class DeterministicConversionTest {
+
+    private static final Instant PUBLISHED = Instant.parse("2026-10-17T22:00:00Z");
+
+    @Test
+    void drawsTheSameIdsForTheSameKey() {
+        List<String> first = DeterministicConversion.run("WF-BOO-TOS", PUBLISHED, DeterministicConversionTest::drawIds);
+        List<String> second = DeterministicConversion.run("WF-BOO-TOS", PUBLISHED, DeterministicConversionTest::drawIds);
+        List<String> otherLine = DeterministicConversion.run("DY-OSL-BGO", PUBLISHED, DeterministicConversionTest::drawIds);
+
+        assertThat(second).isEqualTo(first);
+        assertThat(otherLine).isNotEqualTo(first);
+        assertThat(first.get(1)).matches("[0-9a-f]{8}-[0-9a-f]{4}-4[0-9a-f]{3}-[89ab][0-9a-f]{3}-[0-9a-f]{12}");
+    }
+
+    @Test
+    void pinsThePublicationTimestampInsideARunOnly() {
+        assertThat(DeterministicConversion.run("WF-BOO-TOS", PUBLISHED, DeterministicConversion::publicationTimestamp))
+                .isEqualTo(PUBLISHED);
+        assertThat(DeterministicConversion.publicationTimestamp()).isAfter(PUBLISHED);
+        assertThat(drawIds()).isNotEqualTo(drawIds());
+    }
+
+    private static List<String> drawIds() {
+        return List.of(
+                String.valueOf(NetexObjectIdCreator.generateRandomId(1, Integer.MAX_VALUE)),
+                NetexObjectIdCreator.generateRandomUuid());
+    }
+}